@@ -0,0 +1,70 @@
+package demo.fscatalog.benchmark;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.impl.InMemoryFileIO;
+import demo.fscatalog.io.impl.LocalFileIO;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The stores a benchmark can run against, selected by a @Param.
+ */
+final class BenchmarkStores {
+    /**
+     * LocalFileIO with the default fsync mode (file).
+     */
+    static final String LOCAL = "local";
+    /**
+     * LocalFileIO without fsync, shows how much of the local numbers is the disk.
+     */
+    static final String LOCAL_NO_FSYNC = "local-nofsync";
+    static final String MEMORY = "memory";
+
+    private BenchmarkStores() {
+        throw new IllegalStateException();
+    }
+
+    static FileIO open(String store) throws Exception {
+        Map<String,String> properties = new HashMap<>();
+        FileIO fileIO;
+        if(LOCAL.equals(store)){
+            fileIO = new LocalFileIO();
+        }else if(LOCAL_NO_FSYNC.equals(store)){
+            properties.put(LocalFileIO.FSYNC_MODE,LocalFileIO.FSYNC_NONE);
+            fileIO = new LocalFileIO();
+        }else if(MEMORY.equals(store)){
+            fileIO = new InMemoryFileIO();
+        }else{
+            throw new IllegalArgumentException("unknown store "+store);
+        }
+        fileIO.init(properties);
+        return fileIO;
+    }
+
+    /**
+     * A fresh, empty directory for the store. Always ends with "/".
+     */
+    static URI newRoot(String store, Path tempDir, String name) throws IOException {
+        if(MEMORY.equals(store)){
+            return URI.create("mem:/"+name+"/");
+        }
+        Path root = Files.createDirectories(tempDir.resolve(name));
+        return root.toUri();
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if(path == null || !Files.exists(path)){
+            return;
+        }
+        try(Stream<Path> walk = Files.walk(path)){
+            walk.sorted(Comparator.reverseOrder()).forEach(p->p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package demo.fscatalog.benchmark;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.process.CommitStrategy;
+import demo.fscatalog.process.FileTrackerCommitStrategyV2;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileTrackerCommitStrategyV2.commit against one table, at 1/4/16/64 threads.
+ * <p>
+ * Every invocation is one commit attempt, so the primary score is attempts per second (Throughput) and the
+ * latency distribution of an attempt (SampleTime). The "committed" and "conflicts" counters split the attempts into
+ * successes and ConcurrentModificationExceptions, compare their rates between strategies, not the raw attempt rate.
+ * <p>
+ * Expect stalls with many threads: when a sub-version ends up with one complete commit and some lone PRE_COMMIT files,
+ * nobody can expire it before TTL_PRE_COMMIT (30s), and every attempt until then is a conflict.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class CommitBenchmark {
+
+    @Param({BenchmarkStores.LOCAL, BenchmarkStores.LOCAL_NO_FSYNC, BenchmarkStores.MEMORY})
+    public String store;
+
+    private final CommitStrategy strategy = new FileTrackerCommitStrategyV2();
+    private FileIO fileIO;
+    private Path tempDir;
+    private URI tableRoot;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcome {
+        public long committed;
+        public long conflicts;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            committed = 0;
+            conflicts = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fileIO = BenchmarkStores.open(store);
+        tempDir = Files.createTempDirectory("fscatalog-commit-bench");
+        tableRoot = BenchmarkStores.newRoot(store, tempDir, "table");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fileIO.close();
+        BenchmarkStores.deleteRecursively(tempDir);
+    }
+
+    private void commit(Outcome outcome) throws Exception {
+        try {
+            strategy.commit(fileIO, tableRoot);
+            outcome.committed++;
+        } catch (ConcurrentModificationException e) {
+            outcome.conflicts++;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void commit1Thread(Outcome outcome) throws Exception {
+        commit(outcome);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void commit4Threads(Outcome outcome) throws Exception {
+        commit(outcome);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void commit16Threads(Outcome outcome) throws Exception {
+        commit(outcome);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void commit64Threads(Outcome outcome) throws Exception {
+        commit(outcome);
+    }
+}
@@ -0,0 +1,54 @@
+package demo.fscatalog.benchmark;
+
+import demo.fscatalog.io.util.NanoIdUtils;
+import demo.fscatalog.io.util.UniIdUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UniIdUtils and NanoIdUtils, on one thread and on 16 threads (where a shared SecureRandom starts to hurt).
+ * UUID.randomUUID is the baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IdGenerationBenchmark {
+
+    @Param({UniIdUtils.UU_ID, UniIdUtils.TIME_ORDERED, UniIdUtils.SNOW_FLAKE, UniIdUtils.NANO_ID})
+    public String type;
+
+    @Benchmark
+    @Threads(1)
+    public String uniId() {
+        return UniIdUtils.getUniId(type);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String uniIdContended() {
+        return UniIdUtils.getUniId(type);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String nanoId() {
+        return NanoIdUtils.randomNanoId();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String jdkRandomUUID() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String jdkRandomUUIDContended() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,71 @@
+package demo.fscatalog.benchmark;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileEntity;
+import demo.fscatalog.io.entity.FileListing;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing a flat directory of 10^2 to 10^6 tracker-like files, as List&lt;FileEntity&gt; and as FileListing.
+ * <p>
+ * The directory is filled once per trial, for the local stores that takes a while at 10^6.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ListingBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int entries;
+
+    @Param({BenchmarkStores.LOCAL, BenchmarkStores.MEMORY})
+    public String store;
+
+    private FileIO fileIO;
+    private Path tempDir;
+    private URI directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fileIO = BenchmarkStores.open(store);
+        tempDir = Files.createTempDirectory("fscatalog-list-bench");
+        directory = BenchmarkStores.newRoot(store, tempDir, "tracker");
+        byte[] content = "0".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < entries; i++) {
+            String name = i + ".txt";
+            if (BenchmarkStores.MEMORY.equals(store)) {
+                fileIO.writeFileWithoutGuarantees(directory.resolve(name), "0");
+            } else {
+                // Much faster than going through the FileIO (no temp file, no fsync), the listing cost is the same.
+                Files.write(Paths.get(directory).resolve(name), content);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fileIO.close();
+        BenchmarkStores.deleteRecursively(tempDir);
+    }
+
+    @Benchmark
+    public List<FileEntity> listAllFiles() throws Exception {
+        return fileIO.listAllFiles(directory, false);
+    }
+
+    @Benchmark
+    public FileListing listFiles() throws Exception {
+        return fileIO.listFiles(directory, false);
+    }
+}
@@ -0,0 +1,90 @@
+package demo.fscatalog.benchmark;
+
+import demo.fscatalog.io.entity.FileEntity;
+import demo.fscatalog.io.entity.FileListing;
+import demo.fscatalog.process.VersionIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a tracker or archive listing into versions: VersionIndex against the split/parseLong/sort it replaced.
+ * No IO, the listing is built in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VersionParsingBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    public int entries;
+
+    /**
+     * tracker: "12.txt", archive: "12.txt@1700000000000".
+     */
+    @Param({"tracker", "archive"})
+    public String kind;
+
+    /**
+     * File systems list in name order, so "1.txt", "10.txt", "100.txt", "2.txt"... shuffled is the worst case.
+     */
+    @Param({"listed", "shuffled"})
+    public String order;
+
+    private FileListing listing;
+    private List<FileEntity> entities;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> names = new ArrayList<>(entries);
+        long expireTimestamp = 1700000000000L;
+        for (int i = 0; i < entries; i++) {
+            names.add("archive".equals(kind) ? i + ".txt@" + (expireTimestamp + i) : i + ".txt");
+        }
+        if ("shuffled".equals(order)) {
+            Collections.shuffle(names, new Random(42));
+        } else {
+            Collections.sort(names);
+        }
+        FileListing.Builder builder = new FileListing.Builder("/table/tracker/", entries);
+        for (String name : names) {
+            builder.add(name, expireTimestamp);
+        }
+        listing = builder.build();
+        entities = listing.toFileEntities();
+    }
+
+    @Benchmark
+    public long versionIndexMax() {
+        return VersionIndex.fromListing(listing).maxVersion(0L);
+    }
+
+    @Benchmark
+    public int versionIndexOlderThan() {
+        return VersionIndex.fromListing(listing).countOlderThan(entries - 2);
+    }
+
+    @Benchmark
+    public long splitMax() {
+        long max = 0L;
+        for (int i = 0; i < listing.size(); i++) {
+            max = Math.max(max, Long.parseLong(listing.getFileName(i).split("\\.")[0]));
+        }
+        return max;
+    }
+
+    @Benchmark
+    public List<FileEntity> splitSort() {
+        List<FileEntity> sorted = new ArrayList<>(entities);
+        sorted.sort(Comparator.comparing(x -> Long.parseLong(x.getFileName().split("\\.")[0])));
+        return sorted;
+    }
+}
@@ -0,0 +1,371 @@
+package demo.fscatalog.catalog;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileListing;
+import demo.fscatalog.io.util.UniIdUtils;
+import demo.fscatalog.process.FileTrackerCommitStrategyV2;
+import demo.fscatalog.process.FlatTableLayout;
+import demo.fscatalog.process.TableLayout;
+import demo.fscatalog.process.TimeTravelIndex;
+import demo.fscatalog.process.VersionLocation;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Many tables under one warehouse directory, all on one shared FileIO (wrap it in ThrottlingFileIO, CachingFileIO etc. once,
+ * every table benefits).
+ * <ul>
+ *     <li>warehouse/_namespaces/&lt;namespace&gt;: one marker file per namespace.</li>
+ *     <li>warehouse/&lt;namespace&gt;/_tables/&lt;name&gt;: one marker file per table, so listing a namespace is one listing
+ *     of files, which behaves the same on every FileIO. It holds the name of the table's root directory.</li>
+ *     <li>warehouse/&lt;namespace&gt;/&lt;name&gt;-&lt;uuid&gt;/: the root path of the table, committed by {@link FileTrackerCommitStrategyV2}.
+ *     Every create gets a new one, so a table created again under a dropped name never sees files of the dropped one.
+ *     Markers written before that hold just &lt;name&gt;, their root is warehouse/&lt;namespace&gt;/&lt;name&gt;/.</li>
+ * </ul>
+ * Markers are created exclusively, so concurrent creates of the same namespace or table have one winner.
+ * A table is created by its marker and then its layout, dropped by its root and then its marker,
+ * so a crash in between leaves a listed table that can be dropped again, never an unlisted one.
+ * Commits and loads check the marker after they are done: a commit that raced a drop deletes what it left in the old root and fails.
+ * <p>
+ * Loading a table resolves its latest committed version without the time travel index: about seven round trips.
+ * {@link #loadTables(Collection)} runs the loads of many tables on a bounded pool, so a service with thousands of tables
+ * starts in (tables * 7 / loadParallelism) round trips.
+ */
+public class Catalog implements Closeable {
+    public static final String NAMESPACES_DIR = "_namespaces/";
+    public static final String TABLES_DIR = "_tables/";
+    public static final int DEFAULT_LOAD_PARALLELISM = 64;
+    // just demo,no config
+    private static final int MAX_LOAD_ATTEMPTS = 3;
+    private static final int MAX_SUPPRESSED = 10;
+
+    private final FileIO fileIO;
+    private final URI warehouse;
+    private final ExecutorService pool;
+    private final FileTrackerCommitStrategyV2 strategy = new FileTrackerCommitStrategyV2();
+
+    public Catalog(FileIO fileIO, URI warehouse) {
+        this(fileIO,warehouse,DEFAULT_LOAD_PARALLELISM);
+    }
+
+    /**
+     * @param loadParallelism how many tables are loaded at the same time.
+     */
+    public Catalog(FileIO fileIO, URI warehouse, int loadParallelism) {
+        if(loadParallelism < 1){
+            throw new IllegalArgumentException("loadParallelism must be positive");
+        }
+        this.fileIO = fileIO;
+        this.warehouse = warehouse.getPath().endsWith("/") ? warehouse : URI.create(warehouse+"/");
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(loadParallelism,r -> {
+            Thread thread = new Thread(r,"catalog-load-"+threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public FileIO getFileIO() {
+        return fileIO;
+    }
+
+    /**
+     * @throws java.nio.file.FileAlreadyExistsException if the namespace exists.
+     */
+    public void createNamespace(String namespace) throws IOException {
+        fileIO.writeFile(namespaceMarker(TableIdentifier.checkName(namespace)),namespace,false);
+    }
+
+    public boolean namespaceExists(String namespace) throws IOException {
+        return fileIO.exists(namespaceMarker(TableIdentifier.checkName(namespace)));
+    }
+
+    /**
+     * Sorted by name.
+     */
+    public List<String> listNamespaces() throws IOException {
+        return listNames(warehouse.resolve(NAMESPACES_DIR));
+    }
+
+    /**
+     * @throws NoSuchFileException if the namespace does not exist.
+     * @throws DirectoryNotEmptyException if the namespace still has tables.
+     */
+    public void dropNamespace(String namespace) throws IOException {
+        if(!namespaceExists(namespace)){
+            throw new NoSuchFileException("namespace "+namespace);
+        }
+        if(!listTables(namespace).isEmpty()){
+            throw new DirectoryNotEmptyException("namespace "+namespace);
+        }
+        fileIO.delete(namespaceMarker(namespace),false);
+        fileIO.delete(warehouse.resolve(namespace+"/"),true);
+    }
+
+    public TableState createTable(TableIdentifier identifier) throws IOException {
+        return createTable(identifier,FlatTableLayout.INSTANCE);
+    }
+
+    /**
+     * @throws NoSuchFileException if the namespace does not exist.
+     * @throws java.nio.file.FileAlreadyExistsException if the table exists.
+     */
+    public TableState createTable(TableIdentifier identifier, TableLayout layout) throws IOException {
+        if(!namespaceExists(identifier.getNamespace())){
+            throw new NoSuchFileException("namespace "+identifier.getNamespace());
+        }
+        URI tableMarker = tableMarker(identifier);
+        String rootName = identifier.getName()+"-"+UniIdUtils.getUniId(UniIdUtils.UU_ID);
+        fileIO.writeFile(tableMarker,rootName,false);
+        URI rootPath = rootPath(identifier,rootName);
+        try{
+            TableLayout.create(fileIO,rootPath,layout);
+        }catch (IOException | RuntimeException e){
+            fileIO.delete(tableMarker,false);
+            throw e;
+        }
+        return new TableState(identifier,rootPath,layout,null,null);
+    }
+
+    public boolean tableExists(TableIdentifier identifier) throws IOException {
+        return fileIO.exists(tableMarker(identifier));
+    }
+
+    /**
+     * Sorted by name.
+     */
+    public List<TableIdentifier> listTables(String namespace) throws IOException {
+        List<TableIdentifier> tables = new ArrayList<>();
+        for (String name : listNames(warehouse.resolve(TableIdentifier.checkName(namespace)+"/"+TABLES_DIR))) {
+            tables.add(new TableIdentifier(namespace,name));
+        }
+        return tables;
+    }
+
+    /**
+     * Deletes the table with all its versions.
+     *
+     * @throws NoSuchFileException if the table does not exist.
+     */
+    public void dropTable(TableIdentifier identifier) throws IOException {
+        URI rootPath = tableRoot(identifier);
+        fileIO.delete(rootPath,true);
+        strategy.forget(rootPath);
+        fileIO.delete(tableMarker(identifier),false);
+    }
+
+    /**
+     * The root path of the table as recorded in its marker, see {@link FileTrackerCommitStrategyV2#commit(FileIO, URI, String)}.
+     * Commit through {@link #commit(TableIdentifier, String)} where possible, it notices a drop that raced the commit.
+     *
+     * @throws NoSuchFileException if the table does not exist.
+     */
+    public URI tableRoot(TableIdentifier identifier) throws IOException {
+        URI rootPath = rootPathOrNull(identifier);
+        if(rootPath == null){
+            throw new NoSuchFileException("table "+identifier);
+        }
+        return rootPath;
+    }
+
+    /**
+     * @return the committed version.
+     */
+    public long commit(TableIdentifier identifier, String content) throws Exception {
+        return commit(identifier,content,null,Long.MAX_VALUE);
+    }
+
+    /**
+     * See {@link FileTrackerCommitStrategyV2#commit(FileIO, URI, String, String, long)}.
+     *
+     * @return the committed version.
+     * @throws NoSuchFileException if the table does not exist, or was dropped while committing.
+     */
+    public long commit(TableIdentifier identifier, String content, String commitId, long maxVersion) throws Exception {
+        URI rootPath = tableRoot(identifier);
+        long version = strategy.commit(fileIO,rootPath,content,commitId,maxVersion);
+        if(!rootPath.equals(rootPathOrNull(identifier))){
+            // Dropped while we committed, the commit may have brought back directories of the old root.
+            fileIO.delete(rootPath,true);
+            strategy.forget(rootPath);
+            throw new NoSuchFileException("table "+identifier);
+        }
+        return version;
+    }
+
+    /**
+     * @throws NoSuchFileException if the table does not exist.
+     */
+    public TableState loadTable(TableIdentifier identifier) throws IOException {
+        TableState state = load(identifier);
+        if(state == null){
+            throw new NoSuchFileException("table "+identifier);
+        }
+        return state;
+    }
+
+    /**
+     * Loads the tables in parallel, at most loadParallelism at a time.
+     *
+     * @return in the order of identifiers, without the tables that do not exist (e.g. dropped meanwhile).
+     * @throws IOException after all loads ended, if any of them failed, see {@link #invokeAll}.
+     */
+    public Map<TableIdentifier,TableState> loadTables(Collection<TableIdentifier> identifiers) throws IOException {
+        List<TableIdentifier> ids = new ArrayList<>(identifiers);
+        List<TableState> states = invokeAll(pool,ids,this::load);
+        Map<TableIdentifier,TableState> result = new LinkedHashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if(states.get(i) != null){
+                result.put(ids.get(i),states.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Every table of every namespace, the namespaces are listed in parallel as well.
+     */
+    public Map<TableIdentifier,TableState> loadAllTables() throws IOException {
+        List<TableIdentifier> identifiers = new ArrayList<>();
+        for (List<TableIdentifier> tables : invokeAll(pool,listNamespaces(),this::listTables)) {
+            identifiers.addAll(tables);
+        }
+        return loadTables(identifiers);
+    }
+
+    /**
+     * @return null if the table does not exist.
+     */
+    private TableState load(TableIdentifier identifier) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            URI rootPath = rootPathOrNull(identifier);
+            if(rootPath == null){
+                return null;
+            }
+            TableState state;
+            try{
+                TableLayout layout = TableLayout.load(fileIO,rootPath);
+                VersionLocation latest = TimeTravelIndex.latest(fileIO,rootPath,layout);
+                String content = latest == null ? null : fileIO.read(latest.getCommitFile(rootPath,layout));
+                state = new TableState(identifier,rootPath,layout,latest,content);
+            }catch (FileNotFoundException | NoSuchFileException e){
+                // Dropped meanwhile, or cleaned after newer commits.
+                if(attempt >= MAX_LOAD_ATTEMPTS){
+                    throw e;
+                }
+                continue;
+            }
+            // What we read may be a commit that raced a drop, it only counts while the marker still points to its root.
+            URI current = rootPathOrNull(identifier);
+            if(rootPath.equals(current)){
+                return state;
+            }
+            if(current != null && attempt >= MAX_LOAD_ATTEMPTS){
+                throw new IOException("table "+identifier+" was dropped and created again while loading");
+            }
+        }
+    }
+
+    interface Task<I,O> {
+        O run(I input) throws IOException;
+    }
+
+    /**
+     * Runs task for every input on pool and waits for all of them.
+     *
+     * @return the results in the order of inputs.
+     * @throws IOException after all tasks ended, if any of them failed. The first failures are attached as suppressed.
+     */
+    static <I,O> List<O> invokeAll(ExecutorService pool, List<I> inputs, Task<I,O> task) throws IOException {
+        List<Future<O>> futures = new ArrayList<>(inputs.size());
+        for (I input : inputs) {
+            futures.add(pool.submit(() -> task.run(input)));
+        }
+        List<O> results = new ArrayList<>(inputs.size());
+        List<Throwable> failures = new ArrayList<>();
+        try{
+            for (Future<O> future : futures) {
+                try{
+                    results.add(future.get());
+                }catch (ExecutionException e){
+                    results.add(null);
+                    failures.add(e.getCause());
+                }
+            }
+        }catch (InterruptedException e){
+            for (Future<O> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for "+inputs.size()+" tasks");
+        }
+        if(!failures.isEmpty()){
+            IOException e = new IOException(failures.size()+" of "+inputs.size()+" failed",failures.get(0));
+            for (Throwable failure : failures.subList(1,Math.min(failures.size(),MAX_SUPPRESSED+1))) {
+                e.addSuppressed(failure);
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    private List<String> listNames(URI dir) throws IOException {
+        FileListing listing = fileIO.listFiles(dir,false);
+        List<String> names = new ArrayList<>(listing.size());
+        for (int i = 0; i < listing.size(); i++) {
+            names.add(listing.getFileName(i));
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private URI namespaceMarker(String namespace) {
+        return warehouse.resolve(NAMESPACES_DIR+namespace);
+    }
+
+    /**
+     * @return null if the table does not exist.
+     */
+    private URI rootPathOrNull(TableIdentifier identifier) throws IOException {
+        String rootName;
+        try{
+            rootName = fileIO.read(tableMarker(identifier)).trim();
+        }catch (FileNotFoundException | NoSuchFileException e){
+            return null;
+        }
+        return rootPath(identifier,TableIdentifier.checkName(rootName));
+    }
+
+    private URI rootPath(TableIdentifier identifier, String rootName) {
+        return warehouse.resolve(identifier.getNamespace()+"/"+rootName+"/");
+    }
+
+    private URI tableMarker(TableIdentifier identifier) {
+        return warehouse.resolve(identifier.getNamespace()+"/"+TABLES_DIR+identifier.getName());
+    }
+
+    /**
+     * Stops the load pool. The FileIO belongs to the caller and stays open.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,352 @@
+package demo.fscatalog.catalog;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileListing;
+import demo.fscatalog.process.FileTrackerCommitStrategyV2;
+import demo.fscatalog.process.InitialVersionWriter;
+import demo.fscatalog.process.TableLayout;
+import demo.fscatalog.process.TimeTravelIndex;
+import demo.fscatalog.process.VersionLocation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Takes over the tables of an Iceberg HadoopCatalog: &lt;warehouse&gt;/&lt;namespace&gt;/&lt;table&gt;/metadata/ with
+ * version-hint.text and the committed vN.metadata.json files.
+ * <p>
+ * Every source version N is committed to the {@link Catalog} table namespace.table with the location of its metadata file as content,
+ * and the commit id hadoop-vN, so the catalog itself records how far a table was imported.
+ * <ul>
+ *     <li>A table is first imported with its current version only, written as version 0 by {@link InitialVersionWriter}
+ *     (a few rounds of concurrent writes, no commit protocol).</li>
+ *     <li>Newer source versions are then committed one by one with {@link FileTrackerCommitStrategyV2}.</li>
+ * </ul>
+ * Tables are imported tableParallelism at a time, and the writes of each table run on a shared pool of writeParallelism threads,
+ * so a bulk import is bound by the storage, not by the round trips of one table.
+ * Progress is checkpointed to a local file: a table already at its latest source version costs one listing of its metadata directory.
+ * An interrupted run is resumed by running it again.
+ * <p>
+ * Dual-write period: the Hadoop writers stay the source of truth and keep committing there, while {@link #importTables(Collection)}
+ * runs again periodically (or {@link #syncTable(HadoopTable)} right after a Hadoop commit) and brings the catalog up to date.
+ * Readers can move to the catalog meanwhile. At the cutover, stop the Hadoop writers, sync once more, and let the writers
+ * commit to the catalog from then on. Until the cutover the importer must be the only writer of the imported tables.
+ */
+public class HadoopCatalogImporter implements Closeable {
+    public static final String METADATA_DIR = "metadata/";
+    public static final String VERSION_HINT = "version-hint.text";
+    public static final String COMMIT_ID_PREFIX = "hadoop-v";
+    public static final int DEFAULT_TABLE_PARALLELISM = 32;
+    public static final int DEFAULT_WRITE_PARALLELISM = 128;
+    // v<N>.metadata.json, or v<N>.gz.metadata.json if compressed. Files of failed Hadoop commits have other names.
+    private static final Pattern METADATA_FILE = Pattern.compile("v(\\d+)(\\.gz)?\\.metadata\\.json");
+    private static final Pattern IMPORTED_COMMIT = Pattern.compile(Pattern.quote(COMMIT_ID_PREFIX)+"(\\d+)\\.txt");
+    // just demo,no config
+    private static final int MAX_COMMIT_ATTEMPTS = 10;
+    private static final long MIN_RETRY_DELAY_MS = 100L;
+    private static final long MAX_RETRY_DELAY_MS = 5000L;
+
+    /**
+     * A table of the source catalog and the catalog table it is imported to.
+     */
+    public static final class HadoopTable {
+        private final TableIdentifier identifier;
+        private final URI location;
+
+        /**
+         * @param location the table directory, holding metadata/.
+         */
+        public HadoopTable(TableIdentifier identifier, URI location) {
+            this.identifier = identifier;
+            this.location = location.getPath().endsWith("/") ? location : URI.create(location+"/");
+        }
+
+        public TableIdentifier getIdentifier() {
+            return identifier;
+        }
+
+        public URI getLocation() {
+            return location;
+        }
+
+        @Override
+        public String toString() {
+            return identifier+"@"+location;
+        }
+    }
+
+    private static final class SourceVersion {
+        // The URI of its metadata file.
+        private final String location;
+        private final long lastModified;
+
+        private SourceVersion(String location, long lastModified) {
+            this.location = location;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final FileIO sourceIO;
+    private final Catalog catalog;
+    private final ImportCheckpoint checkpoint;
+    private final ExecutorService tablePool;
+    private final ExecutorService writePool;
+    // Namespaces known to exist in the catalog.
+    private final Set<String> namespaces = new HashSet<>();
+
+    public HadoopCatalogImporter(FileIO sourceIO, Catalog catalog, Path checkpointFile) throws IOException {
+        this(sourceIO,catalog,checkpointFile,DEFAULT_TABLE_PARALLELISM,DEFAULT_WRITE_PARALLELISM);
+    }
+
+    /**
+     * @param sourceIO reads the source warehouse, may be the FileIO of the catalog.
+     * @param checkpointFile a local file, one per catalog and source warehouse.
+     */
+    public HadoopCatalogImporter(FileIO sourceIO, Catalog catalog, Path checkpointFile, int tableParallelism, int writeParallelism) throws IOException {
+        if(tableParallelism < 1 || writeParallelism < 1){
+            throw new IllegalArgumentException("tableParallelism and writeParallelism must be positive");
+        }
+        this.sourceIO = sourceIO;
+        this.catalog = catalog;
+        this.checkpoint = ImportCheckpoint.open(checkpointFile);
+        this.tablePool = newPool("hadoop-import-table-",tableParallelism);
+        this.writePool = newPool("hadoop-import-write-",writeParallelism);
+    }
+
+    private static ExecutorService newPool(String prefix, int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads,r -> {
+            Thread thread = new Thread(r,prefix+threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * The tables of a source namespace: the directories with a metadata/version-hint.text, found with one recursive listing.
+     * A table that lost its version hint is not found, add it by hand.
+     */
+    public List<HadoopTable> scan(URI sourceWarehouse, String namespace) throws IOException {
+        String warehouse = sourceWarehouse.toString();
+        URI namespaceDir = URI.create(warehouse.endsWith("/") ? warehouse : warehouse+"/").resolve(TableIdentifier.checkName(namespace)+"/");
+        FileListing listing = sourceIO.listFiles(namespaceDir,true);
+        String suffix = "/"+METADATA_DIR+VERSION_HINT;
+        List<HadoopTable> tables = new ArrayList<>();
+        for (int i = 0; i < listing.size(); i++) {
+            String relativePath = listing.getRelativePath(i).replace('\\','/');
+            if(!relativePath.endsWith(suffix)){
+                continue;
+            }
+            String name = relativePath.substring(0,relativePath.length()-suffix.length());
+            try{
+                tables.add(new HadoopTable(TableIdentifier.of(namespace,name),namespaceDir.resolve(name+"/")));
+            }catch (IllegalArgumentException e){
+                //do-nothing, nested deeper or not a valid table name.
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Scans the namespaces in parallel.
+     */
+    public List<HadoopTable> scan(URI sourceWarehouse, List<String> namespaces) throws IOException {
+        List<HadoopTable> tables = new ArrayList<>();
+        for (List<HadoopTable> found : Catalog.invokeAll(tablePool,namespaces,namespace -> scan(sourceWarehouse,namespace))) {
+            tables.addAll(found);
+        }
+        return tables;
+    }
+
+    /**
+     * Imports the tables, or brings them up to date if they were imported before, tableParallelism at a time.
+     *
+     * @return the source version each table is at in the catalog now, -1 for a table without committed metadata.
+     * @throws IOException after all tables were processed, if any of them failed, see {@link Catalog#invokeAll}.
+     */
+    public Map<TableIdentifier,Long> importTables(Collection<HadoopTable> tables) throws IOException {
+        List<HadoopTable> list = new ArrayList<>(tables);
+        List<Long> versions = Catalog.invokeAll(tablePool,list,this::syncTable);
+        Map<TableIdentifier,Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < list.size(); i++) {
+            result.put(list.get(i).getIdentifier(),versions.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Imports one table, or commits the source versions it is missing.
+     *
+     * @return the source version the table is at in the catalog now, -1 if the source has no committed metadata.
+     */
+    public long syncTable(HadoopTable table) throws IOException {
+        TreeMap<Long,SourceVersion> sourceVersions = listSourceVersions(table);
+        if(sourceVersions.isEmpty()){
+            return -1L;
+        }
+        TableIdentifier identifier = table.getIdentifier();
+        long imported = checkpoint.get(identifier);
+        if(imported >= sourceVersions.lastKey()){
+            return imported;
+        }
+        if(imported < 0){
+            imported = importCurrentVersion(table,sourceVersions);
+            checkpoint.record(identifier,imported);
+        }
+        for (Map.Entry<Long,SourceVersion> version : sourceVersions.tailMap(imported,false).entrySet()) {
+            commitVersion(table,version.getKey(),version.getValue().location);
+            checkpoint.record(identifier,version.getKey());
+            imported = version.getKey();
+        }
+        return imported;
+    }
+
+    /**
+     * Committed source versions, by version. A Hadoop commit is the rename of its metadata file,
+     * so the listing is the truth and the version hint (which may lag behind) is not read.
+     */
+    private TreeMap<Long,SourceVersion> listSourceVersions(HadoopTable table) throws IOException {
+        URI metadataDir = table.getLocation().resolve(METADATA_DIR);
+        FileListing listing = sourceIO.listFiles(metadataDir,false);
+        TreeMap<Long,SourceVersion> versions = new TreeMap<>();
+        for (int i = 0; i < listing.size(); i++) {
+            Matcher matcher = METADATA_FILE.matcher(listing.getFileName(i));
+            if(matcher.matches()){
+                versions.put(Long.parseLong(matcher.group(1)),
+                        new SourceVersion(metadataDir.resolve(listing.getFileName(i)).toString(),listing.getLastModified(i)));
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Creates the catalog table with the current source version as version 0, or finds how far an earlier run got.
+     *
+     * @return the imported source version.
+     */
+    private long importCurrentVersion(HadoopTable table, TreeMap<Long,SourceVersion> sourceVersions) throws IOException {
+        TableIdentifier identifier = table.getIdentifier();
+        ensureNamespace(identifier.getNamespace());
+        long sourceVersion = sourceVersions.lastKey();
+        URI rootPath;
+        TableLayout layout;
+        try{
+            TableState created = catalog.createTable(identifier);
+            rootPath = created.getRootPath();
+            layout = created.getLayout();
+        }catch (FileAlreadyExistsException e){
+            // Imported (or partly imported) by an earlier run whose checkpoint was lost.
+            rootPath = catalog.tableRoot(identifier);
+            layout = TableLayout.load(catalog.getFileIO(),rootPath);
+            VersionLocation latest = TimeTravelIndex.latest(catalog.getFileIO(),rootPath,layout);
+            if(latest != null){
+                return importedVersion(table,latest);
+            }
+            String pending = InitialVersionWriter.pendingCommitId(catalog.getFileIO(),rootPath,layout);
+            if(pending != null){
+                sourceVersion = importedVersion(table,pending+".txt");
+            }
+        }
+        SourceVersion version = sourceVersions.get(sourceVersion);
+        if(version == null){
+            // The interrupted run imported a version that was cleaned from the source since, it is the same location.
+            version = new SourceVersion(table.getLocation().resolve(METADATA_DIR+"v"+sourceVersion+".metadata.json").toString(),
+                    VersionLocation.UNKNOWN_TIMESTAMP);
+        }
+        InitialVersionWriter.write(catalog.getFileIO(),rootPath,layout,version.location,COMMIT_ID_PREFIX+sourceVersion,
+                version.lastModified,writePool);
+        return sourceVersion;
+    }
+
+    private synchronized void ensureNamespace(String namespace) throws IOException {
+        if(namespaces.contains(namespace)){
+            return;
+        }
+        try{
+            catalog.createNamespace(namespace);
+        }catch (FileAlreadyExistsException e){
+            //do-nothing
+        }
+        namespaces.add(namespace);
+    }
+
+    /**
+     * Commits one newer source version. The importer is the only writer of the table, so after a conflict or an error
+     * whose outcome is unknown it is enough to look at the latest version, and maxVersion keeps a retry from committing twice
+     * (see {@link FileTrackerCommitStrategyV2#commit(FileIO, URI, String, String, long)}).
+     */
+    private void commitVersion(HadoopTable table, long sourceVersion, String content) throws IOException {
+        FileIO fileIO = catalog.getFileIO();
+        URI rootPath = catalog.tableRoot(table.getIdentifier());
+        TableLayout layout = TableLayout.load(fileIO,rootPath);
+        for (int attempt = 1; ; attempt++) {
+            VersionLocation latest = TimeTravelIndex.latest(fileIO,rootPath,layout);
+            if(latest != null && importedVersion(table,latest) >= sourceVersion){
+                return;
+            }
+            try{
+                catalog.commit(table.getIdentifier(),content,COMMIT_ID_PREFIX+sourceVersion,latest == null ? 0L : latest.getVersion()+1);
+                return;
+            }catch (NoSuchFileException e){
+                // Dropped meanwhile, retrying cannot help.
+                throw e;
+            }catch (ConcurrentModificationException | IOException e){
+                if(attempt >= MAX_COMMIT_ATTEMPTS){
+                    throw e instanceof IOException ? (IOException) e : new IOException("failed to commit "+content+" to "+rootPath,e);
+                }
+            }catch (Exception e){
+                throw new IOException("failed to commit "+content+" to "+rootPath,e);
+            }
+            long ceiling = Math.min(MAX_RETRY_DELAY_MS,MIN_RETRY_DELAY_MS << Math.min(attempt,20));
+            try{
+                Thread.sleep(ThreadLocalRandom.current().nextLong(MIN_RETRY_DELAY_MS,ceiling+1));
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while importing "+table);
+            }
+        }
+    }
+
+    private static long importedVersion(HadoopTable table, VersionLocation location) {
+        return importedVersion(table,location.getCommitFileName());
+    }
+
+    private static long importedVersion(HadoopTable table, String commitFileName) {
+        Matcher matcher = IMPORTED_COMMIT.matcher(commitFileName);
+        if(!matcher.matches()){
+            throw new IllegalStateException(table.getIdentifier()+" has commits that were not imported from "+table.getLocation()
+                    +", the importer must be its only writer");
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    /**
+     * Stops the pools and closes the checkpoint. The FileIOs and the catalog belong to the caller.
+     */
+    @Override
+    public void close() throws IOException {
+        tablePool.shutdownNow();
+        writePool.shutdownNow();
+        checkpoint.close();
+    }
+}
@@ -0,0 +1,90 @@
+package demo.fscatalog.catalog;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The local progress file of a {@link HadoopCatalogImporter}: one line "namespace.name sourceVersion" per imported version,
+ * the last line of a table wins.
+ * <p>
+ * It only saves work: a lost or torn line makes the next run look at the table in the catalog again, which finds what
+ * was imported. So lines are flushed, not fsynced, and a line that does not parse is skipped.
+ * On open, a file with many superseded lines is rewritten with one line per table.
+ */
+final class ImportCheckpoint implements Closeable {
+    private static final String TEMP_SUFFIX = ".tmp";
+    // just demo,no config
+    private static final int REWRITE_RATIO = 2;
+
+    private final Map<TableIdentifier,Long> versions = new HashMap<>();
+    private final BufferedWriter writer;
+
+    private ImportCheckpoint(Path file) throws IOException {
+        int lines = 0;
+        if(Files.exists(file)){
+            List<String> content = Files.readAllLines(file,StandardCharsets.UTF_8);
+            for (String line : content) {
+                parse(line);
+            }
+            lines = content.size();
+        }
+        if(lines > REWRITE_RATIO*versions.size()){
+            Path temp = file.resolveSibling(file.getFileName()+TEMP_SUFFIX);
+            try(BufferedWriter out = Files.newBufferedWriter(temp,StandardCharsets.UTF_8)){
+                for (Map.Entry<TableIdentifier,Long> entry : versions.entrySet()) {
+                    out.write(entry.getKey()+" "+entry.getValue()+"\n");
+                }
+            }
+            Files.move(temp,file,StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+        }
+        this.writer = Files.newBufferedWriter(file,StandardCharsets.UTF_8,StandardOpenOption.CREATE,StandardOpenOption.APPEND);
+    }
+
+    static ImportCheckpoint open(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if(parent != null){
+            Files.createDirectories(parent);
+        }
+        return new ImportCheckpoint(file);
+    }
+
+    private void parse(String line) {
+        String[] fields = line.trim().split(" ");
+        int dot = fields[0].indexOf('.');
+        if(fields.length != 2 || dot <= 0){
+            return;
+        }
+        try{
+            versions.put(TableIdentifier.of(fields[0].substring(0,dot),fields[0].substring(dot+1)),Long.parseLong(fields[1]));
+        }catch (IllegalArgumentException e){
+            //do-nothing, a torn line.
+        }
+    }
+
+    /**
+     * @return the last source version recorded for the table, -1 if none.
+     */
+    synchronized long get(TableIdentifier identifier) {
+        return versions.getOrDefault(identifier,-1L);
+    }
+
+    synchronized void record(TableIdentifier identifier, long sourceVersion) throws IOException {
+        versions.put(identifier,sourceVersion);
+        writer.write(identifier+" "+sourceVersion+"\n");
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
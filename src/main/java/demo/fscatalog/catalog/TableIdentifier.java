@@ -0,0 +1,61 @@
+package demo.fscatalog.catalog;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * namespace.name of a table in a {@link Catalog}. Both are plain directory names: letters, digits, '_' and '-',
+ * not starting with '_' (names starting with '_' are the catalog's own files).
+ */
+public final class TableIdentifier {
+    private static final Pattern NAME = Pattern.compile("[0-9A-Za-z][0-9A-Za-z_-]*");
+
+    private final String namespace;
+    private final String name;
+
+    public TableIdentifier(String namespace, String name) {
+        this.namespace = checkName(namespace);
+        this.name = checkName(name);
+    }
+
+    public static TableIdentifier of(String namespace, String name) {
+        return new TableIdentifier(namespace,name);
+    }
+
+    static String checkName(String name) {
+        if(name == null || !NAME.matcher(name).matches()){
+            throw new IllegalArgumentException("invalid name: "+name);
+        }
+        return name;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof TableIdentifier)){
+            return false;
+        }
+        TableIdentifier that = (TableIdentifier) o;
+        return namespace.equals(that.namespace) && name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(namespace,name);
+    }
+
+    @Override
+    public String toString() {
+        return namespace+"."+name;
+    }
+}
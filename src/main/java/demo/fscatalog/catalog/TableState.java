@@ -0,0 +1,68 @@
+package demo.fscatalog.catalog;
+
+import demo.fscatalog.process.TableLayout;
+import demo.fscatalog.process.VersionLocation;
+
+import java.net.URI;
+
+/**
+ * A table as loaded by {@link Catalog}: where it lives, its layout and its latest committed version.
+ * A snapshot, later commits are not reflected.
+ */
+public final class TableState {
+    private final TableIdentifier identifier;
+    private final URI rootPath;
+    private final TableLayout layout;
+    private final VersionLocation latest;
+    private final String content;
+
+    TableState(TableIdentifier identifier, URI rootPath, TableLayout layout, VersionLocation latest, String content) {
+        this.identifier = identifier;
+        this.rootPath = rootPath;
+        this.layout = layout;
+        this.latest = latest;
+        this.content = content;
+    }
+
+    public TableIdentifier getIdentifier() {
+        return identifier;
+    }
+
+    public URI getRootPath() {
+        return rootPath;
+    }
+
+    public TableLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return -1 if nothing was committed yet.
+     */
+    public long getVersion() {
+        return latest == null ? -1L : latest.getVersion();
+    }
+
+    /**
+     * @return null if nothing was committed yet.
+     */
+    public VersionLocation getLatest() {
+        return latest;
+    }
+
+    /**
+     * The content of the latest commit file, null if nothing was committed yet.
+     */
+    public String getContent() {
+        return content;
+    }
+
+    @Override
+    public String toString() {
+        return "TableState{" +
+                "identifier=" + identifier +
+                ", rootPath=" + rootPath +
+                ", version=" + getVersion() +
+                '}';
+    }
+}
@@ -1,6 +1,8 @@
 package demo.fscatalog.io;
 
 import demo.fscatalog.io.entity.FileEntity;
+import demo.fscatalog.io.entity.FileListing;
+import demo.fscatalog.io.util.FileLockService;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -46,20 +48,26 @@ public interface FileIO extends Closeable {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * @throws java.nio.file.NoSuchFileException if the file does not exist.
+     */
     default String read(URI path) throws IOException{
         throw new UnsupportedOperationException();
     }
 
-    @Deprecated
+    /**
+     * A file based lock, see FileLockService. Needs exclusive create (writeFileWithoutGuarantees).
+     * The lock belongs to the calling thread, release it with unlock() on the same thread.
+     *
+     * @param lockInfo the URI of the lock directory, e.g. the table root + "lock/commit/".
+     * @return false if the lock could not be acquired within timeout.
+     */
     default boolean lock(String lockInfo,long timeout, TimeUnit unit) throws IOException {
-        //TODO: WE CAN IMPLEMENT A FILE BASED LOGIC LOCK.
-        throw new UnsupportedOperationException();
+        return FileLockService.lockForCurrentThread(this,lockInfo,timeout,unit);
     }
 
-    @Deprecated
     default void unlock(){
-        //TODO: WE CAN IMPLEMENT A FILE BASED LOGIC LOCK.
-        throw new UnsupportedOperationException();
+        FileLockService.unlockForCurrentThread(this);
     }
 
     @Deprecated
@@ -82,6 +90,17 @@ public interface FileIO extends Closeable {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Same entries as listAllFiles(path,recursion), but in a compact form that does not need one object per entry.
+     * Prefer this for directories that can grow large (tracker, archive, commit).
+     * <p>
+     * The default implementation adapts listAllFiles, FileIOs should override it to build the listing directly.
+     */
+    default FileListing listFiles(URI path,boolean recursion) throws IOException{
+        String prefix = path.getPath().endsWith("/") ? path.getPath() : path.getPath()+"/";
+        return FileListing.fromFileEntities(prefix,listAllFiles(path,recursion));
+    }
+
     @Deprecated
     default long getFileSystemTimeAccuracy(){
         // Maybe it's not useful. We should delete it.
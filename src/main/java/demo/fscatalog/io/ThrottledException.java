@@ -0,0 +1,15 @@
+package demo.fscatalog.io;
+
+import java.io.IOException;
+
+/**
+ * The store rejected the request because the client sends too fast (e.g. S3 503 SlowDown).
+ * A throttled request was not executed, so it is safe to send it again after a backoff, even a conditional create.
+ */
+public class ThrottledException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ThrottledException(String message, Throwable cause) {
+        super(message,cause);
+    }
+}
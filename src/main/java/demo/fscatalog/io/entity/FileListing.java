@@ -0,0 +1,283 @@
+package demo.fscatalog.io.entity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntPredicate;
+
+/**
+ * A compact, read-only listing result.
+ * <p>
+ * Instead of one FileEntity (and two Strings) per entry, all entries share one parent prefix,
+ * their paths relative to it are packed into a single char[], and the modification times live in a long[].
+ * Strings are only created when someone asks for them, comparisons like {@link #nameEquals(int, String)} do not allocate.
+ * <p>
+ * {@link #select(IntPredicate)} returns a view that shares the arrays with this listing.
+ * {@link #toFileEntities()} and {@link #iterator()} adapt it to the old FileEntity based API.
+ */
+public final class FileListing implements Iterable<FileEntity> {
+    private static final FileListing EMPTY = new Builder("", 0).build();
+
+    private final String parentPrefix;
+    private final char[] chars;
+    // pathOffsets[i]..pathOffsets[i+1] is the relative path of entry i, the file name starts at nameOffsets[i].
+    private final int[] pathOffsets;
+    private final int[] nameOffsets;
+    private final long[] lastModified;
+    // null means all rows, otherwise the rows of this view.
+    private final int[] rows;
+    private final int size;
+
+    private FileListing(String parentPrefix, char[] chars, int[] pathOffsets, int[] nameOffsets, long[] lastModified, int[] rows, int size) {
+        this.parentPrefix = parentPrefix;
+        this.chars = chars;
+        this.pathOffsets = pathOffsets;
+        this.nameOffsets = nameOffsets;
+        this.lastModified = lastModified;
+        this.rows = rows;
+        this.size = size;
+    }
+
+    public static FileListing empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Adapter for FileIOs that only implement listAllFiles.
+     * Entries whose absolute path does not start with the prefix keep their whole absolute path.
+     */
+    public static FileListing fromFileEntities(String parentPrefix, List<FileEntity> entities) {
+        boolean sharedPrefix = true;
+        for (FileEntity entity : entities) {
+            String absolutePath = entity.getAbsolutePath();
+            if (absolutePath == null || !absolutePath.startsWith(parentPrefix) || !absolutePath.endsWith(entity.getFileName())) {
+                sharedPrefix = false;
+                break;
+            }
+        }
+        String prefix = sharedPrefix ? parentPrefix : "";
+        Builder builder = new Builder(prefix, entities.size());
+        for (FileEntity entity : entities) {
+            String absolutePath = entity.getAbsolutePath() == null ? entity.getFileName() : entity.getAbsolutePath();
+            String relativePath = absolutePath.substring(prefix.length());
+            builder.add(relativePath, relativePath.length() - entity.getFileName().length(), entity.getLastModified());
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String getParentPrefix() {
+        return parentPrefix;
+    }
+
+    private int row(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " size " + size);
+        }
+        return rows == null ? index : rows[index];
+    }
+
+    public String getFileName(int index) {
+        int row = row(index);
+        return new String(chars, nameOffsets[row], pathOffsets[row + 1] - nameOffsets[row]);
+    }
+
+    public String getRelativePath(int index) {
+        int row = row(index);
+        return new String(chars, pathOffsets[row], pathOffsets[row + 1] - pathOffsets[row]);
+    }
+
+    public String getAbsolutePath(int index) {
+        int row = row(index);
+        return parentPrefix.concat(new String(chars, pathOffsets[row], pathOffsets[row + 1] - pathOffsets[row]));
+    }
+
+    public long getLastModified(int index) {
+        return lastModified[row(index)];
+    }
+
+    public int nameLength(int index) {
+        int row = row(index);
+        return pathOffsets[row + 1] - nameOffsets[row];
+    }
+
+    public char nameCharAt(int index, int position) {
+        int row = row(index);
+        return chars[nameOffsets[row] + position];
+    }
+
+    public boolean nameEquals(int index, String name) {
+        return nameLength(index) == name.length() && nameStartsWith(index, name);
+    }
+
+    public boolean nameStartsWith(int index, String prefix) {
+        int row = row(index);
+        int start = nameOffsets[row];
+        if (pathOffsets[row + 1] - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (chars[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int indexOfName(String name) {
+        for (int i = 0; i < size; i++) {
+            if (nameEquals(i, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Long.MIN_VALUE for an empty listing.
+     */
+    public long maxLastModified() {
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, lastModified[rows == null ? i : rows[i]]);
+        }
+        return max;
+    }
+
+    /**
+     * A view of the entries matching the predicate (called with indexes of this listing), no entry data is copied.
+     */
+    public FileListing select(IntPredicate predicate) {
+        int[] selected = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (predicate.test(i)) {
+                selected[count++] = rows == null ? i : rows[i];
+            }
+        }
+        if (count == size) {
+            return this;
+        }
+        return new FileListing(parentPrefix, chars, pathOffsets, nameOffsets, lastModified, Arrays.copyOf(selected, count), count);
+    }
+
+    public FileListing excludeName(String name) {
+        return select(i -> !nameEquals(i, name));
+    }
+
+    public FileEntity getFileEntity(int index) {
+        FileEntity entity = new FileEntity();
+        entity.setFileName(getFileName(index));
+        entity.setLastModified(getLastModified(index));
+        entity.setAbsolutePath(getAbsolutePath(index));
+        return entity;
+    }
+
+    public List<FileEntity> toFileEntities() {
+        List<FileEntity> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(getFileEntity(i));
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<FileEntity> iterator() {
+        return new Iterator<FileEntity>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public FileEntity next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return getFileEntity(next++);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "FileListing{" +
+                "parentPrefix='" + parentPrefix + '\'' +
+                ", size=" + size +
+                '}';
+    }
+
+    public static final class Builder {
+        private final String parentPrefix;
+        private char[] chars;
+        private int charCount;
+        private int[] pathOffsets;
+        private int[] nameOffsets;
+        private long[] lastModified;
+        private int size;
+
+        public Builder(String parentPrefix, int expectedSize) {
+            this.parentPrefix = parentPrefix;
+            int capacity = Math.max(expectedSize, 8);
+            this.chars = new char[capacity * 16];
+            this.pathOffsets = new int[capacity + 1];
+            this.nameOffsets = new int[capacity];
+            this.lastModified = new long[capacity];
+        }
+
+        /**
+         * Add an entry directly under the parent prefix.
+         */
+        public Builder add(CharSequence fileName, long modified) {
+            return add(fileName, 0, modified);
+        }
+
+        /**
+         * @param relativePath path relative to the parent prefix
+         * @param nameStart    where the file name starts in relativePath
+         */
+        public Builder add(CharSequence relativePath, int nameStart, long modified) {
+            int length = relativePath.length();
+            if (size == lastModified.length) {
+                int capacity = size + (size >> 1) + 1;
+                pathOffsets = Arrays.copyOf(pathOffsets, capacity + 1);
+                nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+                lastModified = Arrays.copyOf(lastModified, capacity);
+            }
+            if (charCount + length > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(chars.length + (chars.length >> 1), charCount + length));
+            }
+            for (int i = 0; i < length; i++) {
+                chars[charCount + i] = relativePath.charAt(i);
+            }
+            pathOffsets[size] = charCount;
+            nameOffsets[size] = charCount + nameStart;
+            lastModified[size] = modified;
+            charCount += length;
+            size++;
+            pathOffsets[size] = charCount;
+            return this;
+        }
+
+        public FileListing build() {
+            return new FileListing(parentPrefix,
+                    Arrays.copyOf(chars, charCount),
+                    Arrays.copyOf(pathOffsets, size + 1),
+                    Arrays.copyOf(nameOffsets, size),
+                    Arrays.copyOf(lastModified, size),
+                    null,
+                    size);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package demo.fscatalog.io.impl;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileEntity;
+import demo.fscatalog.io.entity.FileListing;
+import demo.fscatalog.io.util.UniIdUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * A persistent, size bounded local disk cache in front of another FileIO, for reads of files that never change.
+ * <p>
+ * Only paths accepted by the immutable predicate are cached, by default {@link #isImmutableTableFile(URI)}.
+ * Everything else, and every write, delete and listing, goes to the wrapped FileIO. Missing files are never cached.
+ * <p>
+ * Entries are stored as cacheDir/&lt;2 hex&gt;/&lt;sha-256 of the URI&gt;. Admission writes and fsyncs a temp file, then renames it
+ * into place, so a crash never leaves a partial entry under its final name. Temp files left by a crash are deleted on startup.
+ * <p>
+ * Eviction is segmented LRU: new entries go to the probation segment, a hit there promotes the entry to the protected segment
+ * (at most PROTECTED_RATIO of the budget). Victims are taken from probation first, so a one-time scan (e.g. a changelog catching up)
+ * does not flush the entries that are read again and again. After a restart all entries start in probation, oldest admission first.
+ * <p>
+ * The size bound is per instance. Processes may share a cache directory, an entry another process evicted is simply a miss.
+ * A file cleaned from the storage can still be served from the cache, its content is unchanged.
+ */
+public class CachingFileIO implements FileIO {
+    // commit/<v>/<sub>/<file>, commit/<v>/sub-hint/<file> (commit/<shard>/<v>/... in a sharded layout),
+    // index/log/<v>.txt and index/snapshot/<v>.txt.
+    // Heartbeats (commit/<v>/heartbeat/) and trackers are rewritten or looked at for existence, they are not cached.
+    private static final Pattern IMMUTABLE_TABLE_FILE =
+            Pattern.compile(".*/(commit/(\\d+x+/)?\\d+/(\\d+|sub-hint)/[^/]+|index/(log|snapshot)/\\d+\\.txt)");
+    // just demo,no config
+    private static final double PROTECTED_RATIO = 0.8;
+    private static final long MMAP_THRESHOLD = 64L * 1024;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final FileIO delegate;
+    private final Path cacheDir;
+    private final long maxBytes;
+    private final Predicate<URI> immutable;
+    // key -> size, both in access order.
+    private final LinkedHashMap<String,Long> probation = new LinkedHashMap<>(16,0.75f,true);
+    private final LinkedHashMap<String,Long> protectedSegment = new LinkedHashMap<>(16,0.75f,true);
+    private long probationBytes;
+    private long protectedBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CachingFileIO(FileIO delegate, Path cacheDir, long maxBytes) throws IOException {
+        this(delegate,cacheDir,maxBytes,CachingFileIO::isImmutableTableFile);
+    }
+
+    public CachingFileIO(FileIO delegate, Path cacheDir, long maxBytes, Predicate<URI> immutable) throws IOException {
+        if(maxBytes <= 0){
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.delegate = delegate;
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+        this.immutable = immutable;
+        Files.createDirectories(cacheDir);
+        recover();
+    }
+
+    /**
+     * Files of a FileTrackerCommitStrategyV2 table that are created exclusively and never rewritten.
+     */
+    public static boolean isImmutableTableFile(URI path) {
+        return path.getPath() != null && IMMUTABLE_TABLE_FILE.matcher(path.getPath()).matches();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public synchronized long getCachedBytes() {
+        return probationBytes+protectedBytes;
+    }
+
+    /**
+     * Rebuild the index from the cache directory: delete temp files of interrupted admissions, add the rest oldest first.
+     */
+    private void recover() throws IOException {
+        List<CachedFile> entries = new ArrayList<>();
+        try(DirectoryStream<Path> shards = Files.newDirectoryStream(cacheDir)){
+            for (Path shard : shards) {
+                if(!Files.isDirectory(shard)){
+                    continue;
+                }
+                try(DirectoryStream<Path> files = Files.newDirectoryStream(shard)){
+                    for (Path file : files) {
+                        if(file.getFileName().toString().endsWith(TEMP_SUFFIX)){
+                            Files.deleteIfExists(file);
+                        }else{
+                            BasicFileAttributes attributes = Files.readAttributes(file,BasicFileAttributes.class);
+                            entries.add(new CachedFile(file.getFileName().toString(),attributes.lastModifiedTime().toMillis(),attributes.size()));
+                        }
+                    }
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(x -> x.admitted));
+        synchronized (this){
+            for (CachedFile entry : entries) {
+                probation.put(entry.key,entry.size);
+                probationBytes += entry.size;
+            }
+            evict();
+        }
+    }
+
+    private static final class CachedFile {
+        private final String key;
+        private final long admitted;
+        private final long size;
+
+        private CachedFile(String key, long admitted, long size) {
+            this.key = key;
+            this.admitted = admitted;
+            this.size = size;
+        }
+    }
+
+    @Override
+    public String read(URI path) throws IOException {
+        if(!immutable.test(path)){
+            return delegate.read(path);
+        }
+        String key = key(path);
+        Path entry = entryPath(key);
+        if(touch(key)){
+            try{
+                String content = readEntry(entry);
+                hits.increment();
+                return content;
+            }catch (NoSuchFileException e){
+                // Evicted by another process sharing the directory.
+                forget(key);
+            }
+        }
+        misses.increment();
+        String content = delegate.read(path);
+        admit(key,entry,content);
+        return content;
+    }
+
+    private String readEntry(Path entry) throws IOException {
+        try(FileChannel channel = FileChannel.open(entry,StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size < MMAP_THRESHOLD){
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while(buffer.hasRemaining() && channel.read(buffer) >= 0){
+                    //do-nothing
+                }
+                buffer.flip();
+                return StandardCharsets.UTF_8.decode(buffer).toString();
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,0,size);
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        }
+    }
+
+    /**
+     * Caching is best effort: a full or broken cache disk only costs the hit.
+     */
+    private void admit(String key, Path entry, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if(bytes.length > maxBytes*(1-PROTECTED_RATIO)){
+            return;
+        }
+        Path tempFile = entry.resolveSibling(key+"."+UniIdUtils.getUniId()+TEMP_SUFFIX);
+        try{
+            Files.createDirectories(entry.getParent());
+            try(FileChannel channel = FileChannel.open(tempFile,StandardOpenOption.CREATE_NEW,StandardOpenOption.WRITE)){
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while(buffer.hasRemaining()){
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            // Same content whoever wins, so replacing a concurrent admission is fine.
+            Files.move(tempFile,entry,StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+        }catch (IOException e){
+            try{
+                Files.deleteIfExists(tempFile);
+            }catch (IOException deleteError){
+                //do-nothing
+            }
+            return;
+        }
+        synchronized (this){
+            Long previous = probation.put(key,(long) bytes.length);
+            probationBytes += bytes.length-(previous == null ? 0L : previous);
+            evict();
+        }
+    }
+
+    /**
+     * Record a hit: probation entries are promoted, the protected segment is trimmed back into probation.
+     *
+     * @return false if the key is not cached.
+     */
+    private synchronized boolean touch(String key) {
+        if(protectedSegment.get(key) != null){
+            return true;
+        }
+        Long size = probation.remove(key);
+        if(size == null){
+            return false;
+        }
+        probationBytes -= size;
+        protectedSegment.put(key,size);
+        protectedBytes += size;
+        Iterator<Map.Entry<String,Long>> eldest = protectedSegment.entrySet().iterator();
+        while(protectedBytes > maxBytes*PROTECTED_RATIO && eldest.hasNext()){
+            Map.Entry<String,Long> demoted = eldest.next();
+            eldest.remove();
+            protectedBytes -= demoted.getValue();
+            probation.put(demoted.getKey(),demoted.getValue());
+            probationBytes += demoted.getValue();
+        }
+        return true;
+    }
+
+    private synchronized void forget(String key) {
+        Long size = probation.remove(key);
+        if(size != null){
+            probationBytes -= size;
+        }
+        size = protectedSegment.remove(key);
+        if(size != null){
+            protectedBytes -= size;
+        }
+    }
+
+    private void evict() {
+        evictFrom(probation,true);
+        evictFrom(protectedSegment,false);
+    }
+
+    private void evictFrom(LinkedHashMap<String,Long> segment, boolean isProbation) {
+        Iterator<Map.Entry<String,Long>> eldest = segment.entrySet().iterator();
+        while(probationBytes+protectedBytes > maxBytes && eldest.hasNext()){
+            Map.Entry<String,Long> victim = eldest.next();
+            eldest.remove();
+            if(isProbation){
+                probationBytes -= victim.getValue();
+            }else{
+                protectedBytes -= victim.getValue();
+            }
+            try{
+                Files.deleteIfExists(entryPath(victim.getKey()));
+            }catch (IOException e){
+                //do-nothing, the file is orphaned until the next restart recovers it.
+            }
+        }
+    }
+
+    private Path entryPath(String key) {
+        return cacheDir.resolve(key.substring(0,2)).resolve(key);
+    }
+
+    private static String key(URI path) {
+        try{
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(path.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length*2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF,16)).append(Character.forDigit(b & 0xF,16));
+            }
+            return hex.toString();
+        }catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void init(Map<String, String> properties) throws Exception {
+        delegate.init(properties);
+    }
+
+    @Override
+    public void writeFileWithoutGuarantees(URI path, String content) throws IOException {
+        delegate.writeFileWithoutGuarantees(path,content);
+    }
+
+    @Override
+    public void writeFile(URI path, String content, boolean atomicOverwrite) throws IOException {
+        delegate.writeFile(path,content,atomicOverwrite);
+    }
+
+    @Override
+    public void createDirectory(URI path) throws IOException {
+        delegate.createDirectory(path);
+    }
+
+    @Override
+    public void delete(URI path, boolean recursion) throws IOException {
+        delegate.delete(path,recursion);
+    }
+
+    @Override
+    public boolean exists(URI path) throws IOException {
+        return delegate.exists(path);
+    }
+
+    @Override
+    @Deprecated
+    public List<FileEntity> listAllFiles(URI path) throws IOException {
+        return delegate.listAllFiles(path);
+    }
+
+    @Override
+    public List<FileEntity> listAllFiles(URI path, boolean recursion) throws IOException {
+        return delegate.listAllFiles(path,recursion);
+    }
+
+    @Override
+    public FileListing listFiles(URI path, boolean recursion) throws IOException {
+        return delegate.listFiles(path,recursion);
+    }
+
+    @Override
+    public void renameFile(URI src, URI dst, boolean overwrite) throws IOException {
+        delegate.renameFile(src,dst,overwrite);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
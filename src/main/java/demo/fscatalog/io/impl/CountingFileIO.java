@@ -0,0 +1,126 @@
+package demo.fscatalog.io.impl;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileEntity;
+import demo.fscatalog.io.entity.FileListing;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the calls that reach the wrapped FileIO, one counter per kind of operation.
+ * On an object store every call is (at least) one request, so this is what a commit costs in requests.
+ * <p>
+ * init and close are passed through and not counted.
+ */
+public class CountingFileIO implements FileIO {
+    public enum Operation {
+        WRITE, CREATE_DIRECTORY, DELETE, EXISTS, READ, LIST, RENAME
+    }
+
+    private final FileIO delegate;
+    private final LongAdder[] counters = new LongAdder[Operation.values().length];
+
+    public CountingFileIO(FileIO delegate) {
+        this.delegate = delegate;
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+    }
+
+    public long getCount(Operation operation) {
+        return counters[operation.ordinal()].sum();
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (LongAdder counter : counters) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    public void reset() {
+        for (LongAdder counter : counters) {
+            counter.reset();
+        }
+    }
+
+    private void count(Operation operation) {
+        counters[operation.ordinal()].increment();
+    }
+
+    @Override
+    public void init(Map<String, String> properties) throws Exception {
+        delegate.init(properties);
+    }
+
+    @Override
+    public void writeFileWithoutGuarantees(URI path, String content) throws IOException {
+        count(Operation.WRITE);
+        delegate.writeFileWithoutGuarantees(path,content);
+    }
+
+    @Override
+    public void writeFile(URI path, String content, boolean atomicOverwrite) throws IOException {
+        count(Operation.WRITE);
+        delegate.writeFile(path,content,atomicOverwrite);
+    }
+
+    @Override
+    public void createDirectory(URI path) throws IOException {
+        count(Operation.CREATE_DIRECTORY);
+        delegate.createDirectory(path);
+    }
+
+    @Override
+    public void delete(URI path, boolean recursion) throws IOException {
+        count(Operation.DELETE);
+        delegate.delete(path,recursion);
+    }
+
+    @Override
+    public boolean exists(URI path) throws IOException {
+        count(Operation.EXISTS);
+        return delegate.exists(path);
+    }
+
+    @Override
+    public String read(URI path) throws IOException {
+        count(Operation.READ);
+        return delegate.read(path);
+    }
+
+    @Override
+    @Deprecated
+    public List<FileEntity> listAllFiles(URI path) throws IOException {
+        count(Operation.LIST);
+        return delegate.listAllFiles(path);
+    }
+
+    @Override
+    public List<FileEntity> listAllFiles(URI path, boolean recursion) throws IOException {
+        count(Operation.LIST);
+        return delegate.listAllFiles(path,recursion);
+    }
+
+    @Override
+    public FileListing listFiles(URI path, boolean recursion) throws IOException {
+        count(Operation.LIST);
+        return delegate.listFiles(path,recursion);
+    }
+
+    @Override
+    public void renameFile(URI src, URI dst, boolean overwrite) throws IOException {
+        count(Operation.RENAME);
+        delegate.renameFile(src,dst,overwrite);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,299 @@
+package demo.fscatalog.io.impl;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileEntity;
+import demo.fscatalog.io.util.UniIdUtils;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A FileIO that talks FTP directly over a pool of logged-in sessions.
+ * <p>
+ * Hadoop's FTPFileSystem (see {@link HdfsAdapterFTPFileIO}) connects and logs in for almost every call,
+ * which dominates the ~15 storage calls of a commit. Here a session is reused across calls,
+ * and listings use MLSD/MLST where the server supports them, so that one LIST gives us names and modification times
+ * and exists is a single command on the control connection.
+ * <p>
+ * host and port are plain properties, so the FileIO can be pointed at an embedded local FTP server as well.
+ * <p>
+ * FTP has no exclusive create. Without overwrite we check the target right before renaming the uploaded temp file into place,
+ * which narrows the race window but does not close it.
+ */
+public class FTPFileIO implements FileIO {
+    private static final String FTP_SEPARATOR = "/";
+    private static final String TEMP_PREFIX = ".";
+    private static final String TEMP_SUFFIX = ".fsc-tmp";
+    private FtpSessionPool pool;
+
+    @Override
+    public synchronized void init(Map<String, String> properties) throws Exception {
+        if(pool == null){
+            String host = properties.get("host");
+            int port = Integer.parseInt(properties.getOrDefault("port","21"));
+            String userName = properties.getOrDefault("userName","anonymous");
+            String password = properties.getOrDefault("password","");
+            int maxSessions = Integer.parseInt(properties.getOrDefault("maxSessions","8"));
+            int timeoutMs = Integer.parseInt(properties.getOrDefault("timeoutMs","30000"));
+            long keepAliveMs = Long.parseLong(properties.getOrDefault("keepAliveMs","60000"));
+            pool = new FtpSessionPool(host,port,userName,password,maxSessions,timeoutMs,keepAliveMs);
+        }
+    }
+
+    private interface FtpCall<T> {
+        T call(FtpSessionPool.Session session) throws IOException;
+    }
+
+    private <T> T withSession(FtpCall<T> call) throws IOException {
+        FtpSessionPool.Session session = pool.borrow();
+        boolean broken = true;
+        try{
+            T result = call.call(session);
+            broken = false;
+            return result;
+        }catch (FileAlreadyExistsException | NoSuchFileException e){
+            // Reported by us after a complete reply, the session is fine.
+            broken = false;
+            throw e;
+        }finally {
+            pool.giveBack(session,broken);
+        }
+    }
+
+    @Override
+    public boolean exists(URI path) throws IOException {
+        String ftpPath = path.getPath();
+        return withSession(session -> stat(session,ftpPath) != null);
+    }
+
+    @Override
+    public String read(URI path) throws IOException {
+        String ftpPath = path.getPath();
+        return withSession(session -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if(!session.getClient().retrieveFile(ftpPath,out)){
+                throw new NoSuchFileException(ftpPath+" "+session.getClient().getReplyString());
+            }
+            // Same as the other FileIOs: line breaks are dropped.
+            return new String(out.toByteArray(), StandardCharsets.UTF_8).replace("\r","").replace("\n","");
+        });
+    }
+
+    @Override
+    public void writeFile(URI path, String content, boolean atomicOverwrite) throws IOException {
+        String ftpPath = path.getPath();
+        if(ftpPath.endsWith(FTP_SEPARATOR)){
+            throw new UnsupportedOperationException();
+        }
+        int slash = ftpPath.lastIndexOf(FTP_SEPARATOR);
+        String parent = ftpPath.substring(0,slash+1);
+        String tempPath = parent+TEMP_PREFIX+ftpPath.substring(slash+1)+"."+UniIdUtils.getUniId()+TEMP_SUFFIX;
+        withSession(session -> {
+            FTPClient client = session.getClient();
+            byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+            if(!client.storeFile(tempPath,new ByteArrayInputStream(bytes))){
+                // Most likely the parent is missing. Only then we pay for the MKDs.
+                makeDirectories(client,parent);
+                if(!client.storeFile(tempPath,new ByteArrayInputStream(bytes))){
+                    String reply = client.getReplyString();
+                    // A partly stored temp file may be left behind.
+                    client.deleteFile(tempPath);
+                    throw new IOException("write failed: "+ftpPath+" "+reply);
+                }
+            }
+            boolean renamed = false;
+            try{
+                if(!atomicOverwrite && stat(session,ftpPath) != null){
+                    throw new FileAlreadyExistsException("Already exists :"+ftpPath);
+                }
+                if(!client.rename(tempPath,ftpPath)){
+                    // Some servers refuse to rename over an existing file.
+                    if(!atomicOverwrite || !client.deleteFile(ftpPath) || !client.rename(tempPath,ftpPath)){
+                        throw new IOException("rename failed: "+ftpPath+" "+client.getReplyString());
+                    }
+                }
+                renamed = true;
+            }finally {
+                // After a successful rename the temp file is gone, only a failed write pays for the DELE.
+                if(!renamed){
+                    client.deleteFile(tempPath);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void createDirectory(URI path) throws IOException {
+        String ftpPath = path.getPath();
+        withSession(session -> {
+            makeDirectories(session.getClient(),ftpPath);
+            return null;
+        });
+    }
+
+    private void makeDirectories(FTPClient client, String directory) throws IOException {
+        StringBuilder current = new StringBuilder();
+        for (String part : directory.split(FTP_SEPARATOR)) {
+            if(part.isEmpty()){
+                continue;
+            }
+            current.append(FTP_SEPARATOR).append(part);
+            // Fails if the directory is already there, which is what we want anyway.
+            client.makeDirectory(current.toString());
+        }
+    }
+
+    @Override
+    public void delete(URI path, boolean recursion) throws IOException {
+        String ftpPath = path.getPath();
+        withSession(session -> {
+            FTPClient client = session.getClient();
+            if(!recursion){
+                if(!client.deleteFile(ftpPath)){
+                    client.removeDirectory(ftpPath);
+                }
+                return null;
+            }
+            FTPFile root = stat(session,ftpPath);
+            if(root == null){
+                return null;
+            }
+            if(root.isFile()){
+                client.deleteFile(ftpPath);
+                return null;
+            }
+            List<String> directories = new ArrayList<>();
+            Deque<String> pending = new ArrayDeque<>();
+            pending.push(trimSeparator(ftpPath));
+            while(!pending.isEmpty()){
+                String directory = pending.pop();
+                directories.add(directory);
+                for (FTPFile file : list(session,directory)) {
+                    String child = child(directory,file.getName());
+                    if(file.isDirectory()){
+                        pending.push(child);
+                    }else{
+                        client.deleteFile(child);
+                    }
+                }
+            }
+            for (int i = directories.size()-1; i >= 0; i--) {
+                client.removeDirectory(directories.get(i));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<FileEntity> listAllFiles(URI path, boolean recursion) throws IOException {
+        String ftpPath = trimSeparator(path.getPath());
+        return withSession(session -> {
+            List<FileEntity> result = new ArrayList<>();
+            Deque<String> pending = new ArrayDeque<>();
+            pending.push(ftpPath);
+            while(!pending.isEmpty()){
+                String directory = pending.pop();
+                for (FTPFile file : list(session,directory)) {
+                    String child = child(directory,file.getName());
+                    if(file.isDirectory()){
+                        if(recursion){
+                            pending.push(child);
+                        }
+                        continue;
+                    }
+                    if(file.getName().startsWith(TEMP_PREFIX) && file.getName().endsWith(TEMP_SUFFIX)){
+                        continue;
+                    }
+                    FileEntity entity = new FileEntity();
+                    entity.setFileName(file.getName());
+                    entity.setLastModified(file.getTimestamp() == null ? 0L : file.getTimestamp().getTimeInMillis());
+                    entity.setAbsolutePath(child);
+                    result.add(entity);
+                }
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public void renameFile(URI src, URI dst, boolean overwrite) throws IOException {
+        String srcPath = src.getPath();
+        String dstPath = dst.getPath();
+        withSession(session -> {
+            if(!overwrite && stat(session,dstPath) != null){
+                throw new FileAlreadyExistsException("Already exists :"+dstPath);
+            }
+            if(!session.getClient().rename(srcPath,dstPath)){
+                throw new IOException("rename failed: "+srcPath+" "+session.getClient().getReplyString());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return null if the path does not exist.
+     */
+    private FTPFile stat(FtpSessionPool.Session session, String ftpPath) throws IOException {
+        FTPClient client = session.getClient();
+        if(session.supportsMachineListing()){
+            return client.mlistFile(ftpPath);
+        }
+        String trimmed = trimSeparator(ftpPath);
+        int slash = trimmed.lastIndexOf(FTP_SEPARATOR);
+        String name = trimmed.substring(slash+1);
+        for (FTPFile file : list(session,slash <= 0 ? FTP_SEPARATOR : trimmed.substring(0,slash))) {
+            if(name.equals(file.getName())){
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private FTPFile[] list(FtpSessionPool.Session session, String directory) throws IOException {
+        FTPClient client = session.getClient();
+        FTPFile[] files = session.supportsMachineListing() ? client.mlistDir(directory) : client.listFiles(directory);
+        if(files == null){
+            return new FTPFile[0];
+        }
+        List<FTPFile> result = new ArrayList<>(files.length);
+        for (FTPFile file : files) {
+            // LIST parsers return null for lines they do not understand, MLSD also reports the directory itself.
+            if(file == null || ".".equals(file.getName()) || "..".equals(file.getName())){
+                continue;
+            }
+            result.add(file);
+        }
+        return result.toArray(new FTPFile[0]);
+    }
+
+    private static String child(String directory, String name){
+        return directory.endsWith(FTP_SEPARATOR) ? directory+name : directory+FTP_SEPARATOR+name;
+    }
+
+    private static String trimSeparator(String path){
+        if(path.length() > 1 && path.endsWith(FTP_SEPARATOR)){
+            return path.substring(0,path.length()-1);
+        }
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(pool != null){
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package demo.fscatalog.io.impl;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of logged-in FTP control connections.
+ * <p>
+ * Connecting and logging in costs several round trips, so a session is only opened when no idle one is available,
+ * and it goes back to the pool after every operation. Idle sessions are kept alive with NOOP,
+ * and a session that was idle for a while is checked with NOOP before it is handed out again.
+ */
+public class FtpSessionPool implements Closeable {
+    private final String host;
+    private final int port;
+    private final String userName;
+    private final String password;
+    private final int timeoutMs;
+    private final long validateAfterIdleMs;
+    private final Semaphore permits;
+    // LIFO, so that a few hot sessions do the work and the rest can time out on the server side.
+    private final LinkedList<Session> idle = new LinkedList<>();
+    private final ScheduledExecutorService keepAlive;
+    private volatile boolean closed = false;
+
+    public FtpSessionPool(String host, int port, String userName, String password,
+                          int maxSessions, int timeoutMs, long keepAliveMs) {
+        this.host = host;
+        this.port = port;
+        this.userName = userName;
+        this.password = password;
+        this.timeoutMs = timeoutMs;
+        this.validateAfterIdleMs = keepAliveMs;
+        this.permits = new Semaphore(maxSessions, true);
+        this.keepAlive = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ftp-keep-alive-" + host);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.keepAlive.scheduleWithFixedDelay(this::keepIdleSessionsAlive, keepAliveMs, keepAliveMs, TimeUnit.MILLISECONDS);
+    }
+
+    public Session borrow() throws IOException {
+        if (closed) {
+            throw new IOException("pool closed");
+        }
+        try {
+            if (!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IOException("timeout waiting for an ftp session of " + host + ":" + port);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for an ftp session");
+        }
+        try {
+            while (true) {
+                Session session;
+                synchronized (idle) {
+                    session = idle.pollFirst();
+                }
+                if (session == null) {
+                    return open();
+                }
+                if (System.currentTimeMillis() - session.lastUsed < validateAfterIdleMs || session.isAlive()) {
+                    return session;
+                }
+                session.destroy();
+            }
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @param broken the session saw an IO error, its control connection may be in an unknown state.
+     */
+    public void giveBack(Session session, boolean broken) {
+        try {
+            if (broken || closed) {
+                session.destroy();
+            } else {
+                session.lastUsed = System.currentTimeMillis();
+                synchronized (idle) {
+                    idle.addFirst(session);
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Session open() throws IOException {
+        FTPClient client = new FTPClient();
+        client.setConnectTimeout(timeoutMs);
+        client.setDefaultTimeout(timeoutMs);
+        client.setControlEncoding("UTF-8");
+        client.setAutodetectUTF8(true);
+        try {
+            client.connect(host, port);
+            if (!FTPReply.isPositiveCompletion(client.getReplyCode())) {
+                throw new IOException("ftp server refused connection: " + client.getReplyString());
+            }
+            if (!client.login(userName, password)) {
+                throw new IOException("ftp login failed: " + client.getReplyString());
+            }
+            client.setSoTimeout(timeoutMs);
+            client.setFileType(FTP.BINARY_FILE_TYPE);
+            client.enterLocalPassiveMode();
+            // MLST/MLSD give us names and modification times without a MDTM per file.
+            boolean machineListing = client.hasFeature("MLST");
+            return new Session(client, machineListing);
+        } catch (IOException e) {
+            Session.disconnectQuietly(client);
+            throw e;
+        }
+    }
+
+    private void keepIdleSessionsAlive() {
+        List<Session> sessions;
+        synchronized (idle) {
+            sessions = new ArrayList<>(idle);
+            idle.clear();
+        }
+        List<Session> alive = new ArrayList<>();
+        for (Session session : sessions) {
+            if (session.isAlive()) {
+                session.lastUsed = System.currentTimeMillis();
+                alive.add(session);
+            } else {
+                session.destroy();
+            }
+        }
+        synchronized (idle) {
+            // Sessions returned meanwhile are hotter, keep them in front.
+            idle.addAll(alive);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        keepAlive.shutdownNow();
+        synchronized (idle) {
+            Iterator<Session> iterator = idle.iterator();
+            while (iterator.hasNext()) {
+                Session session = iterator.next();
+                iterator.remove();
+                session.logoutQuietly();
+            }
+        }
+    }
+
+    public static class Session {
+        private final FTPClient client;
+        private final boolean machineListing;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Session(FTPClient client, boolean machineListing) {
+            this.client = client;
+            this.machineListing = machineListing;
+        }
+
+        public FTPClient getClient() {
+            return client;
+        }
+
+        public boolean supportsMachineListing() {
+            return machineListing;
+        }
+
+        private boolean isAlive() {
+            try {
+                return client.isConnected() && client.sendNoOp();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private void destroy() {
+            disconnectQuietly(client);
+        }
+
+        private void logoutQuietly() {
+            try {
+                client.logout();
+            } catch (IOException e) {
+                //do-nothing
+            }
+            disconnectQuietly(client);
+        }
+
+        private static void disconnectQuietly(FTPClient client) {
+            try {
+                if (client.isConnected()) {
+                    client.disconnect();
+                }
+            } catch (IOException e) {
+                //do-nothing
+            }
+        }
+    }
+}
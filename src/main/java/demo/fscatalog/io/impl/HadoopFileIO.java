@@ -0,0 +1,231 @@
+package demo.fscatalog.io.impl;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileEntity;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.*;
+import org.apache.hadoop.security.UserGroupInformation;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+
+/**
+ * A FileIO for every file system Hadoop can talk to (hdfs, s3a, ftp, file...).
+ * <p>
+ * FileSystem instances are taken from {@link HadoopFileSystemCache} per scheme, authority and user,
+ * so many tables (many FileIOs) on the same cluster or bucket share one instance with its threads and connection pool.
+ * <p>
+ * Per scheme tuning: a property "scheme.&lt;scheme&gt;.&lt;hadoop key&gt;" is applied only when the FileSystem for that scheme is created,
+ * e.g. scheme.s3a.fs.s3a.connection.maximum=200. All other properties go to the Configuration as they are.
+ */
+public class HadoopFileIO implements FileIO {
+    public static final String SCHEME_PROPERTY_PREFIX = "scheme.";
+    private final Set<String> supportedSchemes;
+    private String userName;
+    private Configuration conf;
+    private Map<String, Map<String, String>> schemeProperties;
+    private final Map<HadoopFileSystemCache.Key, FileSystem> acquired = new HashMap<>();
+
+    public HadoopFileIO() {
+        this.supportedSchemes = null;
+    }
+
+    /**
+     * Restrict this FileIO to some schemes, paths with other schemes are rejected.
+     */
+    protected HadoopFileIO(String... supportedSchemes) {
+        this.supportedSchemes = new HashSet<>(Arrays.asList(supportedSchemes));
+    }
+
+    @Override
+    public synchronized void init(Map<String, String> properties) throws Exception {
+        Configuration config = new Configuration();
+        config.set("dfs.client.block.write.locateFollowingBlock.retries","20");
+        Map<String, Map<String, String>> perScheme = new HashMap<>();
+        properties.forEach((k,v)->{
+            if(k.startsWith(SCHEME_PROPERTY_PREFIX)){
+                String rest = k.substring(SCHEME_PROPERTY_PREFIX.length());
+                int dot = rest.indexOf('.');
+                if(dot > 0){
+                    perScheme.computeIfAbsent(rest.substring(0,dot).toLowerCase(), s->new HashMap<>()).put(rest.substring(dot+1),v);
+                    return;
+                }
+            }
+            config.set(k,v);
+        });
+        conf = config;
+        schemeProperties = perScheme;
+        userName = properties.get("userName");
+        if(userName == null){
+            userName = UserGroupInformation.getCurrentUser().getShortUserName();
+        }
+    }
+
+    protected FileSystem getFileSystem(URI path) throws IOException {
+        URI fsUri = path.getScheme() == null ? FileSystem.getDefaultUri(conf) : path;
+        String scheme = fsUri.getScheme();
+        if(supportedSchemes != null && (scheme == null || !supportedSchemes.contains(scheme.toLowerCase()))){
+            throw new UnsupportedOperationException("only "+supportedSchemes+" files are supported");
+        }
+        HadoopFileSystemCache.Key key = new HadoopFileSystemCache.Key(scheme,fsUri.getAuthority(),userName);
+        synchronized (acquired){
+            FileSystem fs = acquired.get(key);
+            if(fs == null){
+                fs = HadoopFileSystemCache.acquire(key,getSchemeConf(key.getScheme()));
+                acquired.put(key,fs);
+            }
+            return fs;
+        }
+    }
+
+    private Configuration getSchemeConf(String scheme){
+        Map<String, String> tuning = schemeProperties.get(scheme);
+        if(tuning == null || tuning.isEmpty()){
+            return conf;
+        }
+        Configuration schemeConf = new Configuration(conf);
+        tuning.forEach(schemeConf::set);
+        return schemeConf;
+    }
+
+    /**
+     * create(path, overwrite=false) is checked and applied atomically by the HDFS NameNode,
+     * so an exclusive write costs one RPC. Other file systems (e.g. s3a) only do a best-effort check here.
+     */
+    @Override
+    public void writeFile(URI path, String content, boolean atomicOverwrite) throws IOException {
+        if(path.getPath().endsWith("/")){
+            throw new UnsupportedOperationException();
+        }
+        FileSystem fs = getFileSystem(path);
+        try(FSDataOutputStream fos =  fs.create(new Path(path),atomicOverwrite)){
+            IOUtils.write(content, fos, StandardCharsets.UTF_8);
+        }catch (org.apache.hadoop.fs.FileAlreadyExistsException e){
+            throw new FileAlreadyExistsException("Already exists :"+path);
+        }
+    }
+
+    @Override
+    public void createDirectory(URI path) throws IOException {
+        if(!path.getPath().endsWith("/")){
+            throw new UnsupportedOperationException();
+        }
+        getFileSystem(path).mkdirs(new Path(path));
+    }
+
+    @Override
+    public boolean exists(URI path) throws IOException {
+        try{
+            getFileSystem(path).getFileStatus(new Path(path));
+            return true;
+        }catch (FileNotFoundException e){
+            return false;
+        }
+    }
+
+    @Override
+    public String read(URI path) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        String line = null;
+        try(FSDataInputStream fis = getFileSystem(path).open(new Path(path));
+            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(fis, StandardCharsets.UTF_8))){
+            while((line = bufferedReader.readLine())!=null){
+                sb.append(line);
+            }
+        }catch (FileNotFoundException e){
+            throw new NoSuchFileException(path.getPath());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * On HDFS we use listStatusIterator instead of listFiles, so the NameNode does not have to resolve block locations we never use.
+     * Object stores have no block locations but can list a whole prefix flat, so for them a recursive listing still goes through listFiles.
+     */
+    @Override
+    public List<FileEntity> listAllFiles(URI path, boolean recursion) throws IOException {
+        FileSystem fs = getFileSystem(path);
+        List<FileEntity> files = new ArrayList<>();
+        if(recursion && !"hdfs".equalsIgnoreCase(fs.getUri().getScheme())){
+            RemoteIterator<LocatedFileStatus> iterator;
+            try{
+                iterator = fs.listFiles(new Path(path), true);
+            }catch (FileNotFoundException e){
+                return files;
+            }
+            while(iterator.hasNext()){
+                files.add(toFileEntity(iterator.next()));
+            }
+            return files;
+        }
+        Deque<Path> directories = new ArrayDeque<>();
+        directories.push(new Path(path));
+        while(!directories.isEmpty()){
+            Path directory = directories.pop();
+            RemoteIterator<FileStatus> iterator;
+            try{
+                iterator = fs.listStatusIterator(directory);
+            }catch (FileNotFoundException e){
+                continue;
+            }
+            while(iterator.hasNext()){
+                FileStatus status = iterator.next();
+                if(status.isDirectory()){
+                    if(recursion){
+                        directories.push(status.getPath());
+                    }
+                    continue;
+                }
+                files.add(toFileEntity(status));
+            }
+        }
+        return files;
+    }
+
+    private static FileEntity toFileEntity(FileStatus status){
+        FileEntity file = new FileEntity();
+        file.setFileName(status.getPath().getName());
+        file.setLastModified(status.getModificationTime());
+        file.setAbsolutePath(status.getPath().toUri().getPath());
+        return file;
+    }
+
+    @Override
+    public void delete(URI path, boolean recursion) throws IOException {
+        getFileSystem(path).delete(new Path(path), recursion);
+    }
+
+    @Override
+    public void renameFile(URI src, URI dst, boolean overwrite) throws IOException {
+        if(overwrite){
+            throw new UnsupportedOperationException();
+        }
+        getFileSystem(src).rename(new Path(src),new Path(dst));
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        synchronized (acquired){
+            for (HadoopFileSystemCache.Key key : acquired.keySet()) {
+                try{
+                    HadoopFileSystemCache.release(key);
+                }catch (IOException e){
+                    failure = e;
+                }
+            }
+            acquired.clear();
+        }
+        if(failure != null){
+            throw failure;
+        }
+    }
+}
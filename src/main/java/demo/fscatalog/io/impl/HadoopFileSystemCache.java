@@ -0,0 +1,127 @@
+package demo.fscatalog.io.impl;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Process wide, reference counted FileSystem instances keyed by scheme, authority and user.
+ * <p>
+ * We do not use FileSystem.get here: Hadoop's own cache is not reference counted,
+ * so closing one table's FileIO would close the FileSystem under every other table.
+ * Instead every FileIO acquires an instance once per key and releases it on close, the last release closes the FileSystem.
+ * <p>
+ * The configuration of the first caller for a key wins, just like Hadoop's cache.
+ */
+public final class HadoopFileSystemCache {
+    private static final Map<Key, Entry> CACHE = new HashMap<>();
+
+    private HadoopFileSystemCache() {
+        throw new IllegalStateException();
+    }
+
+    public static FileSystem acquire(Key key, Configuration conf) throws IOException {
+        Entry entry;
+        synchronized (CACHE) {
+            entry = CACHE.computeIfAbsent(key, k -> new Entry());
+            entry.refs++;
+        }
+        try {
+            // Creating a FileSystem can be slow (e.g. s3a), do not block other keys meanwhile.
+            synchronized (entry) {
+                if (entry.fs == null) {
+                    entry.fs = FileSystem.newInstance(key.toUri(), conf, key.user);
+                }
+                return entry.fs;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            release(key);
+            throw new InterruptedIOException("interrupted while creating FileSystem for " + key);
+        } catch (IOException | RuntimeException e) {
+            release(key);
+            throw e;
+        }
+    }
+
+    public static void release(Key key) throws IOException {
+        Entry toClose = null;
+        synchronized (CACHE) {
+            Entry entry = CACHE.get(key);
+            if (entry == null) {
+                return;
+            }
+            entry.refs--;
+            if (entry.refs == 0) {
+                CACHE.remove(key);
+                toClose = entry;
+            }
+        }
+        if (toClose != null) {
+            synchronized (toClose) {
+                if (toClose.fs != null) {
+                    toClose.fs.close();
+                }
+            }
+        }
+    }
+
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    private static class Entry {
+        private FileSystem fs;
+        private int refs;
+    }
+
+    public static final class Key {
+        private final String scheme;
+        private final String authority;
+        private final String user;
+
+        public Key(String scheme, String authority, String user) {
+            this.scheme = scheme == null ? null : scheme.toLowerCase();
+            this.authority = authority == null ? null : authority.toLowerCase();
+            this.user = user;
+        }
+
+        public String getScheme() {
+            return scheme;
+        }
+
+        private URI toUri() {
+            return URI.create(scheme + "://" + (authority == null ? "" : authority) + "/");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Objects.equals(scheme, key.scheme) && Objects.equals(authority, key.authority) && Objects.equals(user, key.user);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scheme, authority, user);
+        }
+
+        @Override
+        public String toString() {
+            return "Key{" +
+                    "scheme='" + scheme + '\'' +
+                    ", authority='" + authority + '\'' +
+                    ", user='" + user + '\'' +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package demo.fscatalog.io.impl;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileEntity;
+import demo.fscatalog.io.entity.FileListing;
+import demo.fscatalog.io.util.IoPriority;
+import demo.fscatalog.io.util.LatencyTracker;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hedged requests for the idempotent calls (exists, read, listings): if a call has not answered after the hedge delay,
+ * the same call is sent once more, the first answer wins and the other call is cancelled (interrupted).
+ * <p>
+ * The hedge delay is the configured percentile (default p95) of recent latencies of that kind of call,
+ * so only the slow tail is hedged. No call is hedged before MIN_SAMPLES latencies were seen.
+ * <p>
+ * Extra load is capped by a budget: every call earns budgetRatio of a hedge, a hedge spends a whole one,
+ * so at most about budgetRatio (default 5%) extra calls are sent, with a small burst allowance.
+ * <p>
+ * Every hedgeable call runs on a pool thread, which costs a thread hand-over. Meant for object stores, where a call takes milliseconds.
+ * Writes, deletes and renames are not idempotent in general and go straight to the wrapped FileIO.
+ */
+public class HedgingFileIO implements FileIO {
+    public static final double DEFAULT_QUANTILE = 0.95;
+    public static final double DEFAULT_BUDGET_RATIO = 0.05;
+    // just demo,no config
+    private static final int LATENCY_WINDOW = 1024;
+    private static final int MIN_SAMPLES = 20;
+    // The delay is recomputed every so many calls, not on every call.
+    private static final int RECOMPUTE_INTERVAL = 64;
+    private static final long BUDGET_UNIT = 1000L;
+    private static final long MAX_BUDGET = 10*BUDGET_UNIT;
+
+    private enum Operation {
+        EXISTS, READ, LIST
+    }
+
+    private final FileIO delegate;
+    private final double quantile;
+    private final long budgetPerCall;
+    private final ExecutorService pool;
+    private final LatencyTracker[] latencies = new LatencyTracker[Operation.values().length];
+    private final AtomicLong[] calls = new AtomicLong[Operation.values().length];
+    // In micros, Long.MAX_VALUE until enough samples were seen.
+    private final AtomicLongArray hedgeDelays = new AtomicLongArray(Operation.values().length);
+    private final AtomicLong budget = new AtomicLong(MAX_BUDGET);
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    public HedgingFileIO(FileIO delegate) {
+        this(delegate,DEFAULT_QUANTILE,DEFAULT_BUDGET_RATIO);
+    }
+
+    /**
+     * @param quantile the latency percentile after which a call is hedged, e.g. 0.95.
+     * @param budgetRatio at most this share of extra calls, e.g. 0.05.
+     */
+    public HedgingFileIO(FileIO delegate, double quantile, double budgetRatio) {
+        if(quantile <= 0 || quantile >= 1 || budgetRatio < 0){
+            throw new IllegalArgumentException("quantile must be in (0,1) and budgetRatio not negative");
+        }
+        this.delegate = delegate;
+        this.quantile = quantile;
+        this.budgetPerCall = (long) (budgetRatio*BUDGET_UNIT);
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyTracker(LATENCY_WINDOW);
+            calls[i] = new AtomicLong();
+            hedgeDelays.set(i,Long.MAX_VALUE);
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r,"hedging-io-"+threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    /**
+     * Hedges that answered before the call they backed up.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWins.sum();
+    }
+
+    private interface Call<T> {
+        T call() throws IOException;
+    }
+
+    private <T> T hedged(Operation operation, Call<T> call) throws IOException {
+        int op = operation.ordinal();
+        earnBudget();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        long start = System.nanoTime();
+        Future<?> primary = submit(call,result,pending,operation,start,false);
+        Future<?> backup = null;
+        try{
+            long delay = hedgeDelays.get(op);
+            if(delay != Long.MAX_VALUE){
+                try{
+                    return result.get(delay,TimeUnit.MICROSECONDS);
+                }catch (TimeoutException e){
+                    if(spendBudget()){
+                        hedges.increment();
+                        pending.incrementAndGet();
+                        backup = submit(call,result,pending,operation,start,true);
+                    }
+                }
+            }
+            return result.get();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for "+operation);
+        }catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException){
+                throw (IOException) cause;
+            }
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }finally {
+            primary.cancel(true);
+            if(backup != null){
+                backup.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * The first success completes the result. A failure only does if no other attempt is still running,
+     * e.g. a timed out call should not beat its hedge, but NoSuchFileException on a single attempt is the answer.
+     */
+    @SuppressWarnings("try")
+    private <T> Future<?> submit(Call<T> call, CompletableFuture<T> result, AtomicInteger pending, Operation operation, long start, boolean isBackup) {
+        boolean background = IoPriority.isBackground();
+        return pool.submit(() -> {
+            try(IoPriority ignored = IoPriority.enter(background)){
+                T value = call.call();
+                if(!isBackup){
+                    recordLatency(operation,System.nanoTime()-start);
+                }
+                if(result.complete(value) && isBackup){
+                    hedgeWins.increment();
+                }
+            }catch (Throwable e){
+                if(!isBackup){
+                    recordLatency(operation,System.nanoTime()-start);
+                }
+                if(pending.decrementAndGet() == 0){
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Latencies of the first attempt only, a cancelled one counts with the time it ran, which is a lower bound.
+     */
+    private void recordLatency(Operation operation, long nanos) {
+        int op = operation.ordinal();
+        latencies[op].record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        long count = calls[op].incrementAndGet();
+        if(count >= MIN_SAMPLES && (count == MIN_SAMPLES || count % RECOMPUTE_INTERVAL == 0)){
+            hedgeDelays.set(op,Math.max(1L,latencies[op].percentile(quantile,Long.MAX_VALUE)));
+        }
+    }
+
+    private void earnBudget() {
+        long current;
+        do{
+            current = budget.get();
+            if(current >= MAX_BUDGET){
+                return;
+            }
+        }while(!budget.compareAndSet(current,Math.min(MAX_BUDGET,current+budgetPerCall)));
+    }
+
+    private boolean spendBudget() {
+        long current;
+        do{
+            current = budget.get();
+            if(current < BUDGET_UNIT){
+                return false;
+            }
+        }while(!budget.compareAndSet(current,current-BUDGET_UNIT));
+        return true;
+    }
+
+    @Override
+    public boolean exists(URI path) throws IOException {
+        return hedged(Operation.EXISTS,() -> delegate.exists(path));
+    }
+
+    @Override
+    public String read(URI path) throws IOException {
+        return hedged(Operation.READ,() -> delegate.read(path));
+    }
+
+    @Override
+    @Deprecated
+    public List<FileEntity> listAllFiles(URI path) throws IOException {
+        return hedged(Operation.LIST,() -> delegate.listAllFiles(path));
+    }
+
+    @Override
+    public List<FileEntity> listAllFiles(URI path, boolean recursion) throws IOException {
+        return hedged(Operation.LIST,() -> delegate.listAllFiles(path,recursion));
+    }
+
+    @Override
+    public FileListing listFiles(URI path, boolean recursion) throws IOException {
+        return hedged(Operation.LIST,() -> delegate.listFiles(path,recursion));
+    }
+
+    @Override
+    public void init(Map<String, String> properties) throws Exception {
+        delegate.init(properties);
+    }
+
+    @Override
+    public void writeFileWithoutGuarantees(URI path, String content) throws IOException {
+        delegate.writeFileWithoutGuarantees(path,content);
+    }
+
+    @Override
+    public void writeFile(URI path, String content, boolean atomicOverwrite) throws IOException {
+        delegate.writeFile(path,content,atomicOverwrite);
+    }
+
+    @Override
+    public void createDirectory(URI path) throws IOException {
+        delegate.createDirectory(path);
+    }
+
+    @Override
+    public void delete(URI path, boolean recursion) throws IOException {
+        delegate.delete(path,recursion);
+    }
+
+    @Override
+    public void renameFile(URI src, URI dst, boolean overwrite) throws IOException {
+        delegate.renameFile(src,dst,overwrite);
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        delegate.close();
+    }
+}
@@ -0,0 +1,173 @@
+package demo.fscatalog.io.impl;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileEntity;
+import demo.fscatalog.io.entity.FileListing;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A FileIO that keeps everything in the heap. It behaves like an object store with exclusive create:
+ * directories are implicit (a prefix of some file), writes are atomic, and a non overwriting write of an existing file
+ * throws FileAlreadyExistsException.
+ * <p>
+ * Meant for benchmarks and simulations: it shows the cost of the commit logic itself, without disk or network.
+ * The store latency can be simulated with {@link #LATENCY_MICROS}.
+ * <p>
+ * Only the path of the URI is used, "file:/a/b" and "mem:/a/b" are the same file.
+ */
+public class InMemoryFileIO implements FileIO {
+    /**
+     * Added to every call that would be a request on a real store, default 0.
+     */
+    public static final String LATENCY_MICROS = "latencyMicros";
+    private static final char SEPARATOR = '/';
+    private final ConcurrentSkipListMap<String, StoredFile> files = new ConcurrentSkipListMap<>();
+    private long latencyNanos = 0L;
+
+    @Override
+    public void init(Map<String, String> properties) {
+        latencyNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(properties.getOrDefault(LATENCY_MICROS,"0")));
+    }
+
+    @Override
+    public void writeFileWithoutGuarantees(URI path, String content) throws IOException {
+        writeFile(path,content,false);
+    }
+
+    @Override
+    public void writeFile(URI path, String content, boolean atomicOverwrite) throws IOException {
+        simulateLatency();
+        String key = path.getPath();
+        if(key.endsWith("/")){
+            throw new IllegalArgumentException("can not write to a directory");
+        }
+        StoredFile file = new StoredFile(content,System.currentTimeMillis());
+        if(atomicOverwrite){
+            files.put(key,file);
+        }else if(files.putIfAbsent(key,file) != null){
+            throw new FileAlreadyExistsException(key);
+        }
+    }
+
+    @Override
+    public void createDirectory(URI path) {
+        //do-nothing, directories are implicit.
+    }
+
+    @Override
+    public void delete(URI path, boolean recursion) {
+        simulateLatency();
+        String key = path.getPath();
+        files.remove(trimSeparator(key));
+        if(recursion){
+            children(key).clear();
+        }
+    }
+
+    @Override
+    public boolean exists(URI path) {
+        simulateLatency();
+        String key = path.getPath();
+        return files.containsKey(trimSeparator(key)) || !children(key).isEmpty();
+    }
+
+    @Override
+    public String read(URI path) throws IOException {
+        simulateLatency();
+        StoredFile file = files.get(path.getPath());
+        if(file == null){
+            throw new NoSuchFileException(path.getPath());
+        }
+        return file.content;
+    }
+
+    @Override
+    public void renameFile(URI src, URI dst, boolean overwrite) throws IOException {
+        simulateLatency();
+        StoredFile file = files.get(src.getPath());
+        if(file == null){
+            throw new NoSuchFileException(src.getPath());
+        }
+        if(overwrite){
+            files.put(dst.getPath(),file);
+        }else if(files.putIfAbsent(dst.getPath(),file) != null){
+            throw new FileAlreadyExistsException(dst.getPath());
+        }
+        files.remove(src.getPath(),file);
+    }
+
+    @Override
+    public List<FileEntity> listAllFiles(URI path, boolean recursion) {
+        return listFiles(path,recursion).toFileEntities();
+    }
+
+    /**
+     * Like an object store listing with delimiter: without recursion only the files directly under path, no sub directories.
+     */
+    @Override
+    public FileListing listFiles(URI path, boolean recursion) {
+        simulateLatency();
+        String prefix = withSeparator(path.getPath());
+        NavigableMap<String, StoredFile> children = children(prefix);
+        FileListing.Builder builder = new FileListing.Builder(prefix,16);
+        for (Map.Entry<String, StoredFile> entry : children.entrySet()) {
+            String relativePath = entry.getKey().substring(prefix.length());
+            int nameStart = relativePath.lastIndexOf(SEPARATOR)+1;
+            if(nameStart > 0 && !recursion){
+                continue;
+            }
+            builder.add(relativePath,nameStart,entry.getValue().lastModified);
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    @Override
+    public void close() {
+        files.clear();
+    }
+
+    private NavigableMap<String, StoredFile> children(String path) {
+        String prefix = withSeparator(path);
+        // '/'+1 == '0', so [prefix, prefix with '/' replaced by '0') is exactly everything starting with prefix.
+        String end = prefix.substring(0,prefix.length()-1)+(char)(SEPARATOR+1);
+        return files.subMap(prefix,true,end,false);
+    }
+
+    private void simulateLatency() {
+        if(latencyNanos > 0){
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+    private static String withSeparator(String path) {
+        return path.endsWith("/") ? path : path+SEPARATOR;
+    }
+
+    private static String trimSeparator(String path) {
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0,path.length()-1) : path;
+    }
+
+    private static final class StoredFile {
+        private final String content;
+        private final long lastModified;
+
+        private StoredFile(String content, long lastModified) {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+    }
+}
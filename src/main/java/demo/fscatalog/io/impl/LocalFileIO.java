@@ -2,23 +2,66 @@ package demo.fscatalog.io.impl;
 
 import demo.fscatalog.io.FileIO;
 import demo.fscatalog.io.entity.FileEntity;
+import demo.fscatalog.io.entity.FileListing;
+import demo.fscatalog.io.util.GroupFsync;
 import demo.fscatalog.io.util.UniIdUtils;
 
 import java.io.*;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 
 public class LocalFileIO implements FileIO {
+    /**
+     * none: no fsync at all.
+     * file: fsync the file and its parent directory on every write.
+     * group: fsync the file, concurrent writers to the same directory share one directory fsync.
+     */
+    public static final String FSYNC_MODE = "fsyncMode";
+    public static final String FSYNC_NONE = "none";
+    public static final String FSYNC_FILE = "file";
+    public static final String FSYNC_GROUP = "group";
+    /**
+     * How long the leader of a group fsync waits for other writers to join, 0 means do not wait.
+     */
+    public static final String GROUP_FSYNC_WINDOW_MS = "groupFsyncWindowMs";
+    /**
+     * Number of threads used by recursive listings, 1 (default) walks the tree on the calling thread.
+     * Only worth it for wide trees, e.g. a commit root with many versions.
+     */
+    public static final String LIST_PARALLELISM = "listParallelism";
+    // Temp files live next to their target so the final rename never crosses a file system.
+    // They are hidden from listings.
+    private static final String TEMP_PREFIX = ".";
+    private static final String TEMP_SUFFIX = ".fsc-tmp";
     private String OS = null;
+    private String fsyncMode = FSYNC_FILE;
+    private GroupFsync groupFsync = null;
+    private ForkJoinPool listPool = null;
     @Override
     public void init(Map<String, String> properties) {
         OS = System.getProperty("os.name").toLowerCase();
+        fsyncMode = properties.getOrDefault(FSYNC_MODE,FSYNC_FILE);
+        if(FSYNC_GROUP.equals(fsyncMode)){
+            groupFsync = new GroupFsync(Long.parseLong(properties.getOrDefault(GROUP_FSYNC_WINDOW_MS,"0")));
+        }
+        int listParallelism = Integer.parseInt(properties.getOrDefault(LIST_PARALLELISM,"1"));
+        if(listParallelism > 1){
+            listPool = new ForkJoinPool(listParallelism);
+        }
     }
 
     @Override
@@ -32,8 +75,7 @@ public class LocalFileIO implements FileIO {
         File file = new File(path.getPath());
         StringBuilder sb = new StringBuilder();
         String line = null;
-        try(FileReader reader = new FileReader(file);
-            BufferedReader bufferedReader = new BufferedReader(reader)){
+        try(BufferedReader bufferedReader = Files.newBufferedReader(file.toPath(),StandardCharsets.UTF_8)){
             while((line = bufferedReader.readLine())!=null){
                 sb.append(line);
             }
@@ -47,37 +89,83 @@ public class LocalFileIO implements FileIO {
         if(file.isDirectory()){
             throw new IllegalArgumentException("can not write to a directory");
         }
-        file.getParentFile().mkdirs();
-        String uuid = UniIdUtils.getUniId(UniIdUtils.SNOW_FLAKE);
-        File tempFile = File.createTempFile(uuid,"");
-        try(FileWriter writer = new FileWriter(tempFile)){
-            writer.write(content);
-            writer.flush();
-        }
-        if(OS.contains("windows")){
-            if(atomicOverwrite){
-                String fileName = tempFile.getName();
-                File sameRootTmpFile = new File(file.getParentFile().toURI().resolve(fileName));
-                try{
-                    //In windows operating system, atomic renaming can only work under the same disk drive, that is, under the same disk letter.
-                    if(!tempFile.renameTo(sameRootTmpFile)){
-                        throw new FileAlreadyExistsException("Already exists :"+sameRootTmpFile.getAbsolutePath());
-                    }
-                    Files.move(sameRootTmpFile.toPath(),file.toPath(), StandardCopyOption.ATOMIC_MOVE);
-                }finally {
-                    Files.deleteIfExists(sameRootTmpFile.toPath());
+        File parent = file.getParentFile();
+        parent.mkdirs();
+        String uuid = UniIdUtils.getUniId();
+        Path tempFile = parent.toPath().resolve(TEMP_PREFIX+file.getName()+"."+uuid+TEMP_SUFFIX);
+        try{
+            try(FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)){
+                ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+                while(buffer.hasRemaining()){
+                    channel.write(buffer);
                 }
-            }else{
-                if(!tempFile.renameTo(file)){
-                    throw new FileAlreadyExistsException("Already exists :"+file.getAbsolutePath());
+                if(!FSYNC_NONE.equals(fsyncMode)){
+                    // Without this a crash right after the rename can leave an empty file behind.
+                    channel.force(true);
                 }
             }
+            if(atomicOverwrite){
+                Files.move(tempFile,file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }else{
+                publishExclusive(tempFile,file.toPath());
+            }
+        }finally {
+            Files.deleteIfExists(tempFile);
+        }
+        syncDirectory(parent.toPath());
+    }
+
+    /**
+     * Publish the temp file only if the target does not exist yet.
+     * A hard link fails atomically when the target exists (also on NFS), a plain rename on linux would silently replace it.
+     * On windows a rename without REPLACE_EXISTING is already exclusive.
+     */
+    private void publishExclusive(Path tempFile, Path target) throws IOException {
+        if(OS.contains("windows")){
+            Files.move(tempFile,target);
+            return;
+        }
+        try{
+            Files.createLink(target,tempFile);
+        }catch (UnsupportedOperationException e){
+            // The file system does not support hard links, fall back to a check-then-rename.
+            Files.move(tempFile,target);
+        }catch (FileSystemException e){
+            // Anything else than missing link support must fail the write, the fallback is not exclusive.
+            if(!linkUnsupported(e)){
+                throw e;
+            }
+            Files.move(tempFile,target);
+        }
+    }
+
+    /**
+     * The errors of link(2) on a file system without hard links: EPERM (e.g. FAT), ENOTSUP/EOPNOTSUPP and ENOSYS (some FUSE mounts).
+     * Subclasses such as FileAlreadyExistsException, NoSuchFileException or AccessDeniedException are real failures.
+     */
+    private static boolean linkUnsupported(FileSystemException e){
+        if(e.getClass() != FileSystemException.class || e.getReason() == null){
+            return false;
+        }
+        String reason = e.getReason();
+        return reason.equals("Operation not permitted") || reason.equals("Operation not supported")
+                || reason.equals("Function not implemented");
+    }
+
+    private void syncDirectory(Path directory) throws IOException {
+        if(FSYNC_NONE.equals(fsyncMode) || OS.contains("windows")){
+            return;
+        }
+        if(groupFsync != null){
+            groupFsync.sync(directory);
         }else{
-            CopyOption copyOption = atomicOverwrite?StandardCopyOption.REPLACE_EXISTING:StandardCopyOption.ATOMIC_MOVE;
-            Files.move(tempFile.toPath(),file.toPath(), copyOption);
+            GroupFsync.forceDirectory(directory);
         }
     }
 
+    private static boolean isTempFile(String name){
+        return name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX);
+    }
 
     @Override
     public void createDirectory(URI path) {
@@ -107,11 +195,18 @@ public class LocalFileIO implements FileIO {
 
     @Override
     public void close() throws IOException {
-        //do-nothing
+        if(listPool != null){
+            listPool.shutdown();
+        }
     }
 
     @Override
     public List<FileEntity> listAllFiles(URI path,boolean recursion) throws IOException {
+        return listFiles(path,recursion).toFileEntities();
+    }
+
+    @Override
+    public FileListing listFiles(URI path,boolean recursion) throws IOException {
         if(recursion){
             return getAllFilesWithRecursion(path);
         }else{
@@ -119,47 +214,122 @@ public class LocalFileIO implements FileIO {
         }
     }
 
-    private List<FileEntity> getAllFilesWithRecursion(URI path) throws IOException {
-        List<FileEntity> fileList = new ArrayList<>();
-        List<Path> walkResult = new ArrayList<>();
-        try (Stream<Path> walk = Files.walk(new File(path).toPath())) {
-            walk.sorted(Comparator.reverseOrder())
-                    .forEach(walkResult::add);
-        }catch (NoSuchFileException e){
-            //do-nothing
-        }
-        for (Path path1 : walkResult) {
-            File file1 = path1.toFile();
-            if(file1.isFile()){
-                String name = file1.getName();
-                long lastModified = file1.lastModified();
-                FileEntity entity = new FileEntity();
-                entity.setFileName(name);
-                entity.setLastModified(lastModified);
-                entity.setAbsolutePath(file1.getAbsolutePath());
-                fileList.add(entity);
+    private FileListing getAllFilesWithRecursion(URI path) throws IOException {
+        String prefix = new File(path).getAbsolutePath()+File.separator;
+        FileListing.Builder builder = new FileListing.Builder(prefix,64);
+        walk(path,(file,attrs)->{
+            String relativePath = file.toAbsolutePath().toString().substring(prefix.length());
+            int nameStart = relativePath.length()-file.getFileName().toString().length();
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            if(listPool != null){
+                synchronized (builder){
+                    builder.add(relativePath,nameStart,lastModified);
+                }
+            }else{
+                builder.add(relativePath,nameStart,lastModified);
+            }
+        });
+        return builder.build();
+    }
+
+    /**
+     * Hand every regular file under path to the consumer, in no particular order.
+     * The attributes of each entry are read only once. If listParallelism is set, the consumer is called from several threads.
+     */
+    public void walkFiles(URI path, Consumer<FileEntity> consumer) throws IOException {
+        walk(path,(file,attrs)->{
+            FileEntity entity = new FileEntity();
+            entity.setFileName(file.getFileName().toString());
+            entity.setLastModified(attrs.lastModifiedTime().toMillis());
+            entity.setAbsolutePath(file.toAbsolutePath().toString());
+            consumer.accept(entity);
+        });
+    }
+
+    private void walk(URI path, BiConsumer<Path,BasicFileAttributes> consumer) throws IOException {
+        Path root = new File(path).toPath();
+        if(listPool != null){
+            try{
+                listPool.invoke(new WalkDirectoryAction(root,consumer));
+            }catch (UncheckedIOException e){
+                throw e.getCause();
             }
+            return;
         }
-        return fileList;
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if(attrs.isRegularFile() && !isTempFile(file.getFileName().toString())){
+                    consumer.accept(file,attrs);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if(exc instanceof NoSuchFileException){
+                    // Deleted while we were walking (or the root does not exist).
+                    return FileVisitResult.CONTINUE;
+                }
+                throw exc;
+            }
+        });
     }
 
-    private List<FileEntity> getAllFilesWithOutRecursion(URI path){
-        List<FileEntity> fileList = new ArrayList<>();
+    private static class WalkDirectoryAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path directory;
+        private final BiConsumer<Path,BasicFileAttributes> consumer;
+
+        private WalkDirectoryAction(Path directory, BiConsumer<Path,BasicFileAttributes> consumer) {
+            this.directory = directory;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            List<WalkDirectoryAction> subTasks = new ArrayList<>();
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)){
+                for (Path entry : stream) {
+                    BasicFileAttributes attrs;
+                    try{
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    }catch (NoSuchFileException e){
+                        continue;
+                    }
+                    if(attrs.isDirectory()){
+                        WalkDirectoryAction subTask = new WalkDirectoryAction(entry,consumer);
+                        subTask.fork();
+                        subTasks.add(subTask);
+                    }else if(attrs.isRegularFile() && !isTempFile(entry.getFileName().toString())){
+                        consumer.accept(entry,attrs);
+                    }
+                }
+            }catch (NoSuchFileException | NotDirectoryException e){
+                //do-nothing
+            }catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+            for (WalkDirectoryAction subTask : subTasks) {
+                subTask.join();
+            }
+        }
+    }
+
+    private FileListing getAllFilesWithOutRecursion(URI path){
         File file = new File(path);
-        File [] files = file.listFiles();
-        if(files == null){
-            files = new File[0];
+        String [] names = file.list();
+        if(names == null){
+            names = new String[0];
         }
-        for (File file1 : files) {
-            String name = file1.getName();
-            long lastModified = file1.lastModified();
-            FileEntity entity = new FileEntity();
-            entity.setFileName(name);
-            entity.setLastModified(lastModified);
-            entity.setAbsolutePath(file1.getAbsolutePath());
-            fileList.add(entity);
+        FileListing.Builder builder = new FileListing.Builder(file.getAbsolutePath()+File.separator,names.length);
+        for (String name : names) {
+            if(isTempFile(name)){
+                continue;
+            }
+            builder.add(name,new File(file,name).lastModified());
         }
-        return fileList;
+        return builder.build();
     }
 
 }
@@ -4,25 +4,56 @@ import com.aliyun.oss.*;
 import com.aliyun.oss.internal.OSSHeaders;
 import com.aliyun.oss.model.*;
 import demo.fscatalog.io.entity.FileEntity;
+import demo.fscatalog.io.entity.FileListing;
 import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.ThrottledException;
 
 import java.io.*;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class OSSFileIO implements FileIO {
     private static final String OSS_SEPARATOR = "/";
+    private static final String FORBID_OVERWRITE = "x-oss-forbid-overwrite";
+    private static final String FILE_ALREADY_EXISTS = "FileAlreadyExists";
+    // Error codes of requests OSS rejected for the request rate or bandwidth of a bucket or prefix.
+    private static final Set<String> THROTTLING_CODES = new HashSet<>(Arrays.asList(
+            "SlowDown","ServerBusy","QpsLimitExceeded","TooManyRequests",
+            "UploadTrafficRateLimitExceeded","DownloadTrafficRateLimitExceeded"));
+    public static final String ACL = "acl";
+    public static final String STORAGE_CLASS = "storageClass";
+    public static final String CRC_CHECK = "crcCheck";
     private String bucketName;
     private OSS oss = null;
+    // null means the object inherits the bucket ACL.
+    private CannedAccessControlList objectAcl = null;
+    private StorageClass storageClass = StorageClass.Standard;
     @Override
     public void init(Map<String, String> properties) {
         String endpoint = properties.get("endpoint");
         String accessKeyId = properties.get("accessKeyId");
         String accessKeySecret =properties.get("accessKeySecret");
         bucketName = properties.get("bucketName");
+        String acl = properties.get(ACL);
+        if(acl != null){
+            objectAcl = CannedAccessControlList.parse(acl);
+        }
+        String storageClassName = properties.get(STORAGE_CLASS);
+        if(storageClassName != null){
+            storageClass = StorageClass.parse(storageClassName);
+        }
         final ClientBuilderConfiguration clientBuilderConfiguration = new ClientBuilderConfiguration();
+        // The client compares its own CRC64 of the body with x-oss-hash-crc64ecma of the PUT/GET response,
+        // so we do not need a second request to verify a write.
+        clientBuilderConfiguration.setCrcCheckEnabled(Boolean.parseBoolean(properties.getOrDefault(CRC_CHECK,"true")));
         oss = new OSSClientBuilder()
                 .build(endpoint, accessKeyId, accessKeySecret, clientBuilderConfiguration);
     }
@@ -32,11 +63,17 @@ public class OSSFileIO implements FileIO {
         StringBuilder sb = new StringBuilder();
         String line = null;
         try(OSSObject ossObject = oss.getObject(bucketName,getOssKey(path.getPath()));
-            BufferedReader br = new BufferedReader(new InputStreamReader(ossObject.getObjectContent()))){
+            BufferedReader br = new BufferedReader(new InputStreamReader(ossObject.getObjectContent(),StandardCharsets.UTF_8))){
             while((line = br.readLine())!=null){
                 sb.append(line);
             }
-        } catch (OSSException | ClientException oe) {
+        } catch (OSSException oe) {
+            if(OSSErrorCode.NO_SUCH_KEY.equals(oe.getErrorCode())){
+                throw new NoSuchFileException(path.getPath());
+            }
+            checkThrottled(oe,path);
+            throw new IOException(oe);
+        } catch (ClientException oe) {
             throw new IOException(oe);
         }
         return sb.toString();
@@ -46,19 +83,37 @@ public class OSSFileIO implements FileIO {
     public boolean exists(URI path) throws IOException {
         String pathStr = path.getPath();
         String key = getOssKey(pathStr);
-        return oss.doesObjectExist(bucketName,key);
+        try{
+            return oss.doesObjectExist(bucketName,key);
+        }catch (OSSException e){
+            checkThrottled(e,path);
+            throw e;
+        }
     }
 
+    /**
+     * A single PUT. With atomicOverwrite=false the request carries x-oss-forbid-overwrite,
+     * so OSS rejects it with FileAlreadyExists(409) when the object is already there.
+     * The PUT response is trusted, a mismatching CRC64 surfaces as InconsistentException from the client.
+     */
     @Override
-    public void writeFile(URI path, String content, boolean atomicOverwrite) {
+    public void writeFile(URI path, String content, boolean atomicOverwrite) throws IOException {
         String pathStr = path.getPath();
         String key = getOssKey(pathStr);
-        final PutObjectRequest request = new PutObjectRequest(bucketName, key, new ByteArrayInputStream(content.getBytes()));
-        request.setMetadata(getOssDefaultMetadata(atomicOverwrite));
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        final PutObjectRequest request = new PutObjectRequest(bucketName, key, new ByteArrayInputStream(bytes));
+        request.setMetadata(getOssMetadata(atomicOverwrite, bytes.length));
         request.addHeader("Cache-Control", "no-store");
-        oss.putObject(request);
-        if(!oss.doesObjectExist(bucketName,key)){
-            throw new RuntimeException("writeFailed?");
+        try{
+            oss.putObject(request);
+        }catch (OSSException e){
+            if(FILE_ALREADY_EXISTS.equals(e.getErrorCode())){
+                throw new FileAlreadyExistsException("Already exists :"+path);
+            }
+            checkThrottled(e,path);
+            throw new IOException(e);
+        }catch (InconsistentException | ClientException e){
+            throw new IOException(e);
         }
     }
 
@@ -67,13 +122,24 @@ public class OSSFileIO implements FileIO {
         if(!path.getPath().endsWith(OSS_SEPARATOR)){
             throw new IllegalArgumentException("not a directory path");
         }
-        if(!exists(path)){
+        try{
             writeFile(path,"",false);
+        }catch (FileAlreadyExistsException e){
+            //do-nothing, the directory marker is already there.
         }
     }
 
     @Override
     public void delete(URI path,boolean recursion) throws IOException {
+        try{
+            deleteKeys(path,recursion);
+        }catch (OSSException e){
+            checkThrottled(e,path);
+            throw e;
+        }
+    }
+
+    private void deleteKeys(URI path,boolean recursion) {
         if(!recursion){
             oss.deleteObject(bucketName,getOssKey(path.getPath()));
         }else{
@@ -101,6 +167,15 @@ public class OSSFileIO implements FileIO {
         }
     }
 
+    /**
+     * A throttled request was rejected by OSS, it is safe to retry, see ThrottlingFileIO.
+     */
+    private static void checkThrottled(OSSException e, URI path) throws ThrottledException {
+        if(THROTTLING_CODES.contains(e.getErrorCode())){
+            throw new ThrottledException("Throttled :"+path,e);
+        }
+    }
+
     private String getOssKey(String path) {
         String bucketPath = OSS_SEPARATOR+bucketName;
         if(path.startsWith(bucketPath)){
@@ -112,12 +187,15 @@ public class OSSFileIO implements FileIO {
         return path;
     }
 
-    private static ObjectMetadata getOssDefaultMetadata(boolean overwrite) {
+    private ObjectMetadata getOssMetadata(boolean overwrite, long contentLength) {
         ObjectMetadata metadata = new ObjectMetadata();
-        metadata.setHeader(OSSHeaders.OSS_STORAGE_CLASS, StorageClass.Standard.toString());
-        metadata.setObjectAcl(CannedAccessControlList.PublicRead);
+        metadata.setContentLength(contentLength);
+        metadata.setHeader(OSSHeaders.OSS_STORAGE_CLASS, storageClass.toString());
+        if (objectAcl != null) {
+            metadata.setObjectAcl(objectAcl);
+        }
         if (!overwrite) {
-            metadata.setHeader("x-oss-forbid-overwrite", "true");
+            metadata.setHeader(FORBID_OVERWRITE, "true");
             metadata.setHeader("Cache-Control", "no-store");
         }
         return metadata;
@@ -129,12 +207,26 @@ public class OSSFileIO implements FileIO {
     }
 
     @Override
-    public List<FileEntity> listAllFiles(URI path,boolean recursion) {
+    public List<FileEntity> listAllFiles(URI path,boolean recursion) throws IOException {
+        return listFiles(path,recursion).toFileEntities();
+    }
+
+    @Override
+    public FileListing listFiles(URI path,boolean recursion) throws IOException {
+        try{
+            return listKeys(path,recursion);
+        }catch (OSSException e){
+            checkThrottled(e,path);
+            throw e;
+        }
+    }
+
+    private FileListing listKeys(URI path,boolean recursion) {
         String nextMarker = null;
         ObjectListing objectListing;
-        List<FileEntity> result = new ArrayList<>();
         int maxKeys = 200;
         String pathStr = getOssKey(path.getPath());
+        FileListing.Builder result = new FileListing.Builder(OSS_SEPARATOR+pathStr,maxKeys);
         do {
             ListObjectsRequest listObjectsRequest =  new ListObjectsRequest(bucketName).withMarker(nextMarker).withMaxKeys(maxKeys);
             listObjectsRequest.addHeader("Cache-Control", "no-store");
@@ -145,30 +237,21 @@ public class OSSFileIO implements FileIO {
             for (OSSObjectSummary s : sums) {
                 String key = s.getKey();
                 long lastModified = s.getLastModified().getTime();
+                String suffix = key.substring(pathStr.length());
+                int nameStart = suffix.lastIndexOf(OSS_SEPARATOR)+1;
                 if(recursion){
-                    String fileName = key.substring(key.lastIndexOf(OSS_SEPARATOR)+1);
-                    if(fileName.isEmpty()){
+                    if(nameStart == suffix.length()){
                         continue;
                     }
-                    FileEntity entity = new FileEntity();
-                    entity.setFileName(fileName);
-                    entity.setLastModified(lastModified);
-                    entity.setAbsolutePath(OSS_SEPARATOR+key);
-                    result.add(entity);
+                    result.add(suffix,nameStart,lastModified);
                 }else{
-                    String rootPath = getOssKey(path.getPath());
-                    String suffix = key.substring(rootPath.length());
-                    if(!suffix.trim().isEmpty() && !suffix.contains(OSS_SEPARATOR)){
-                        FileEntity entity = new FileEntity();
-                        entity.setFileName(suffix);
-                        entity.setLastModified(lastModified);
-                        entity.setAbsolutePath(OSS_SEPARATOR+key);
-                        result.add(entity);
+                    if(!suffix.trim().isEmpty() && nameStart == 0){
+                        result.add(suffix,lastModified);
                     }
                 }
             }
             nextMarker = objectListing.getNextMarker();
         } while (objectListing.isTruncated());
-        return result;
+        return result.build();
     }
 }
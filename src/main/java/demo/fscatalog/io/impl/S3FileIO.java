@@ -2,8 +2,11 @@ package demo.fscatalog.io.impl;
 
 
 import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.ThrottledException;
 import demo.fscatalog.io.entity.FileEntity;
+import demo.fscatalog.io.entity.FileListing;
 import software.amazon.awssdk.auth.credentials.SystemPropertyCredentialsProvider;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
@@ -16,12 +19,18 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 public class S3FileIO implements FileIO {
     private static final String S3_SEPARATOR = "/";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final int PRECONDITION_FAILED = 412;
+    private static final int CONDITIONAL_REQUEST_CONFLICT = 409;
+    private static final int SLOW_DOWN = 503;
     private S3Client s3client;
     private String bucketName;
     @Override
@@ -41,17 +50,43 @@ public class S3FileIO implements FileIO {
         }
     }
 
+    /**
+     * Create-if-absent in a single request.
+     * <p>
+     * We send a conditional PUT with {@code If-None-Match: *}, so S3 itself rejects the write when the key already exists.
+     * Compared with HEAD + PUT this saves one round trip and closes the window in which another client's file could be overwritten.
+     * The header is set through the override configuration because the SDK version we use has no typed setter for it yet.
+     */
     @Override
     public void writeFileWithoutGuarantees(URI path, String content) throws IOException {
-        if(!exists(path)){
-            writeFile(path, content,true);
+        String key = getS3Key(path.getPath());
+        AwsRequestOverrideConfiguration overrideConfiguration = AwsRequestOverrideConfiguration.builder()
+                .putHeader(IF_NONE_MATCH, "*")
+                .build();
+        PutObjectRequest objectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .overrideConfiguration(overrideConfiguration)
+                .build();
+        RequestBody requestBody = RequestBody.fromString(content, StandardCharsets.UTF_8);
+        try{
+            s3client.putObject(objectRequest,requestBody);
+        }catch (S3Exception e){
+            checkThrottled(e,path);
+            // 412: the key already exists.
+            // 409: another conditional write on the same key is in flight. One of us will lose anyway, so we give up here.
+            if(e.statusCode() == PRECONDITION_FAILED || e.statusCode() == CONDITIONAL_REQUEST_CONFLICT){
+                throw new FileAlreadyExistsException("Already exists :"+path);
+            }
+            throw e;
         }
     }
 
     @Override
     public void writeFile(URI path, String content, boolean atomicOverwrite) throws IOException {
         if(!atomicOverwrite){
-            throw new UnsupportedOperationException("Only Atomic Overwrite are supported");
+            writeFileWithoutGuarantees(path, content);
+            return;
         }
         String key = getS3Key(path.getPath());
         PutObjectRequest objectRequest = PutObjectRequest.builder()
@@ -59,7 +94,12 @@ public class S3FileIO implements FileIO {
                 .key(key)
                 .build();
         RequestBody requestBody = RequestBody.fromString(content, StandardCharsets.UTF_8);
-        s3client.putObject(objectRequest,requestBody);
+        try{
+            s3client.putObject(objectRequest,requestBody);
+        }catch (S3Exception e){
+            checkThrottled(e,path);
+            throw e;
+        }
     }
 
     @Override
@@ -67,11 +107,24 @@ public class S3FileIO implements FileIO {
         if(!path.getPath().endsWith(S3_SEPARATOR)){
             throw new UnsupportedOperationException("Not a Directory path!");
         }
-        writeFileWithoutGuarantees(path,"");
+        try{
+            writeFileWithoutGuarantees(path,"");
+        }catch (FileAlreadyExistsException e){
+            //do-nothing, the directory marker is already there.
+        }
     }
 
     @Override
     public void delete(URI path, boolean recursion) throws IOException {
+        try{
+            deleteKeys(path,recursion);
+        }catch (S3Exception e){
+            checkThrottled(e,path);
+            throw e;
+        }
+    }
+
+    private void deleteKeys(URI path, boolean recursion) {
         String key = getS3Key(path.getPath());
         if(recursion){
             ListObjectsRequest listObjectsRequest = ListObjectsRequest.builder()
@@ -125,48 +178,58 @@ public class S3FileIO implements FileIO {
             while((line = bufferedReader.readLine()) != null){
                 sb.append(line);
             }
+        }catch (NoSuchKeyException e){
+            throw new NoSuchFileException(path.getPath());
+        }catch (S3Exception e){
+            checkThrottled(e,path);
+            throw e;
         }
         return sb.toString();
     }
 
     @Override
     public List<FileEntity> listAllFiles(URI path, boolean recursion) throws IOException {
+        return listFiles(path, recursion).toFileEntities();
+    }
+
+    @Override
+    public FileListing listFiles(URI path, boolean recursion) throws IOException {
+        try{
+            return listKeys(path,recursion);
+        }catch (S3Exception e){
+            checkThrottled(e,path);
+            throw e;
+        }
+    }
+
+    private FileListing listKeys(URI path, boolean recursion) {
         String key = getS3Key(path.getPath());
         ListObjectsV2Request initialRequest = ListObjectsV2Request.builder()
                 .bucket(bucketName)
                 .prefix(key)
                 .maxKeys(100)
                 .build();
-        List<FileEntity> result = new ArrayList<>();
+        FileListing.Builder result = new FileListing.Builder(S3_SEPARATOR+key,100);
         ListObjectsV2Iterable paginator = s3client.listObjectsV2Paginator(initialRequest);
         for (ListObjectsV2Response listObjectsV2Response : paginator) {
             for (S3Object content : listObjectsV2Response.contents()) {
                 String contentKey = content.key();
                 long lastModified = content.lastModified().toEpochMilli();
+                String suffix = contentKey.substring(key.length());
+                int nameStart = suffix.lastIndexOf(S3_SEPARATOR)+1;
                 if(recursion){
-                    String fileName = contentKey.substring(contentKey.lastIndexOf(S3_SEPARATOR)+1);
-                    if(fileName.isEmpty()){
+                    if(nameStart == suffix.length()){
                         continue;
                     }
-                    FileEntity entity = new FileEntity();
-                    entity.setFileName(fileName);
-                    entity.setLastModified(lastModified);
-                    entity.setAbsolutePath(S3_SEPARATOR+contentKey);
-                    result.add(entity);
+                    result.add(suffix,nameStart,lastModified);
                 }else{
-                    String rootPath = getS3Key(path.getPath());
-                    String suffix = contentKey.substring(rootPath.length());
-                    if(!suffix.trim().isEmpty() && !suffix.contains(S3_SEPARATOR)){
-                        FileEntity entity = new FileEntity();
-                        entity.setFileName(suffix);
-                        entity.setLastModified(lastModified);
-                        entity.setAbsolutePath(S3_SEPARATOR+contentKey);
-                        result.add(entity);
+                    if(!suffix.trim().isEmpty() && nameStart == 0){
+                        result.add(suffix,lastModified);
                     }
                 }
             }
         }
-        return result;
+        return result.build();
     }
 
     @Override
@@ -182,9 +245,18 @@ public class S3FileIO implements FileIO {
         } catch (S3Exception e) {
             if (e.statusCode() == 404) {
                 return false;
-            } else {
-                throw e;
             }
+            checkThrottled(e,path);
+            throw e;
+        }
+    }
+
+    /**
+     * 503 SlowDown (or another throttling code) means S3 rejected the request, it is safe to retry, see ThrottlingFileIO.
+     */
+    private static void checkThrottled(S3Exception e, URI path) throws ThrottledException {
+        if(e.statusCode() == SLOW_DOWN || e.isThrottlingException()){
+            throw new ThrottledException("Throttled :"+path,e);
         }
     }
 
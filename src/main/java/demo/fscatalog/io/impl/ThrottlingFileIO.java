@@ -0,0 +1,207 @@
+package demo.fscatalog.io.impl;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.ThrottledException;
+import demo.fscatalog.io.entity.FileEntity;
+import demo.fscatalog.io.entity.FileListing;
+import demo.fscatalog.io.util.AdaptiveLimiter;
+import demo.fscatalog.io.util.IoPriority;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the requests to each prefix of an object store below what the store accepts, and retries the ones it throttles.
+ * <p>
+ * Every prefix (the first prefixDepth directories of a path, e.g. one table) gets an {@link AdaptiveLimiter}:
+ * requests wait for it before they are sent, and the {@link ThrottledException}s of the wrapped FileIO (S3FileIO, OSSFileIO)
+ * steer it. So many clients of one bucket settle near the request rate the store allows, instead of failing commits with 503s.
+ * <p>
+ * A throttled request was rejected, not executed, so every call is retried after an exponential backoff with full jitter,
+ * up to MAX_ATTEMPTS times, conditional creates included. Other failures are not retried here.
+ * Calls made under {@link IoPriority#background()} (cleanup) only get capacity that foreground calls (commits) leave unused,
+ * if there is none for a while they fail with a ThrottledException without being sent.
+ * <p>
+ * A recursive delete is admitted as one request although it sends several.
+ */
+public class ThrottlingFileIO implements FileIO {
+    public static final int DEFAULT_PREFIX_DEPTH = 2;
+    // just demo,no config
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long BASE_BACKOFF_MS = 50;
+    private static final long MAX_BACKOFF_MS = 5000;
+
+    private final FileIO delegate;
+    private final int prefixDepth;
+    private final Map<String,AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+    private final LongAdder throttles = new LongAdder();
+
+    public ThrottlingFileIO(FileIO delegate) {
+        this(delegate,DEFAULT_PREFIX_DEPTH);
+    }
+
+    /**
+     * @param prefixDepth how many leading directories of a path form its prefix, e.g. 2 for /warehouse/table/...
+     */
+    public ThrottlingFileIO(FileIO delegate, int prefixDepth) {
+        if(prefixDepth < 1){
+            throw new IllegalArgumentException("prefixDepth must be positive");
+        }
+        this.delegate = delegate;
+        this.prefixDepth = prefixDepth;
+    }
+
+    /**
+     * Throttling responses seen, including the ones that were retried successfully.
+     */
+    public long getThrottleCount() {
+        return throttles.sum();
+    }
+
+    /**
+     * The limiter of the prefix of path, e.g. to watch its limits.
+     */
+    public AdaptiveLimiter getLimiter(URI path) {
+        return limiters.computeIfAbsent(prefixOf(path), k -> new AdaptiveLimiter());
+    }
+
+    String prefixOf(URI path) {
+        String pathStr = path.getPath();
+        int end = 0;
+        for (int i = 0; i < prefixDepth; i++) {
+            int next = pathStr.indexOf('/',end+1);
+            if(next < 0){
+                break;
+            }
+            end = next;
+        }
+        String authority = path.getAuthority() == null ? "" : path.getAuthority();
+        return authority+pathStr.substring(0,end+1);
+    }
+
+    private interface Call<T> {
+        T call() throws IOException;
+    }
+
+    private <T> T limited(URI path, Call<T> call) throws IOException {
+        AdaptiveLimiter limiter = getLimiter(path);
+        boolean background = IoPriority.isBackground();
+        for (int attempt = 1; ; attempt++) {
+            AdaptiveLimiter.Permit permit;
+            try{
+                permit = limiter.acquire(background);
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for "+path);
+            }
+            if(permit == null){
+                throw new ThrottledException("no capacity left for background calls to "+path,null);
+            }
+            boolean throttled = false;
+            try{
+                return call.call();
+            }catch (ThrottledException e){
+                throttled = true;
+                throttles.increment();
+                if(attempt >= MAX_ATTEMPTS){
+                    throw e;
+                }
+            }finally {
+                limiter.release(permit,throttled);
+            }
+            backoff(path,attempt);
+        }
+    }
+
+    private void backoff(URI path, int attempt) throws InterruptedIOException {
+        long ceiling = Math.min(MAX_BACKOFF_MS,BASE_BACKOFF_MS << Math.min(attempt-1,20));
+        try{
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling+1));
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while backing off from "+path);
+        }
+    }
+
+    @Override
+    public void init(Map<String, String> properties) throws Exception {
+        delegate.init(properties);
+    }
+
+    @Override
+    public void writeFileWithoutGuarantees(URI path, String content) throws IOException {
+        limited(path,() -> {
+            delegate.writeFileWithoutGuarantees(path,content);
+            return null;
+        });
+    }
+
+    @Override
+    public void writeFile(URI path, String content, boolean atomicOverwrite) throws IOException {
+        limited(path,() -> {
+            delegate.writeFile(path,content,atomicOverwrite);
+            return null;
+        });
+    }
+
+    @Override
+    public void createDirectory(URI path) throws IOException {
+        limited(path,() -> {
+            delegate.createDirectory(path);
+            return null;
+        });
+    }
+
+    @Override
+    public void delete(URI path, boolean recursion) throws IOException {
+        limited(path,() -> {
+            delegate.delete(path,recursion);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean exists(URI path) throws IOException {
+        return limited(path,() -> delegate.exists(path));
+    }
+
+    @Override
+    public String read(URI path) throws IOException {
+        return limited(path,() -> delegate.read(path));
+    }
+
+    @Override
+    @Deprecated
+    public List<FileEntity> listAllFiles(URI path) throws IOException {
+        return limited(path,() -> delegate.listAllFiles(path));
+    }
+
+    @Override
+    public List<FileEntity> listAllFiles(URI path, boolean recursion) throws IOException {
+        return limited(path,() -> delegate.listAllFiles(path,recursion));
+    }
+
+    @Override
+    public FileListing listFiles(URI path, boolean recursion) throws IOException {
+        return limited(path,() -> delegate.listFiles(path,recursion));
+    }
+
+    @Override
+    public void renameFile(URI src, URI dst, boolean overwrite) throws IOException {
+        limited(src,() -> {
+            delegate.renameFile(src,dst,overwrite);
+            return null;
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,187 @@
+package demo.fscatalog.io.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side limits for the requests to one prefix of an object store: a concurrency limit and a token bucket for the rate.
+ * Both follow AIMD on throttling responses:
+ * <ul>
+ *     <li>a throttling response cuts them by DECREASE_FACTOR. The rate is cut from the throughput we actually had when
+ *     the store pushed back, which is close to what the store allows right now;</li>
+ *     <li>they grow additively (about +1 concurrent call per round trip, and per second RATE_INCREASE_SHARE of the rate
+ *     set by the last decrease), but only while they are what holds the callers back, so an idle prefix does not drift
+ *     into the next burst.</li>
+ * </ul>
+ * So the rate climbs back to the store's limit within a few seconds after a decrease, and the throughput stays
+ * between DECREASE_FACTOR and 100% of it. Until the first throttling response the rate is not limited.
+ * One overload usually throttles many requests at once, only the first of them decreases:
+ * requests that were admitted before a decrease do not decrease again.
+ * <p>
+ * Background callers (see {@link IoPriority}) get at most BACKGROUND_SHARE of the concurrency limit,
+ * must leave BACKGROUND_SHARE of the burst in the bucket and wait for waiting foreground callers, the latter for at most
+ * MAX_BACKGROUND_DEFER_MILLIS so a steady stream of commits does not starve them. A background caller that still got
+ * no permit after MAX_BACKGROUND_WAIT_MILLIS gives up: background work is skipped under sustained load, it never holds
+ * up its caller (e.g. a commit cleaning up after itself) for long.
+ */
+public final class AdaptiveLimiter {
+    // just demo,no config
+    private static final double INITIAL_CONCURRENCY = 32;
+    private static final double MAX_CONCURRENCY = 512;
+    private static final double DECREASE_FACTOR = 0.9;
+    private static final double RATE_INCREASE_SHARE = 0.05;
+    private static final double MIN_RATE = 10;
+    private static final double BURST_SECONDS = 0.2;
+    private static final double BACKGROUND_SHARE = 0.5;
+    private static final long THROUGHPUT_WINDOW = TimeUnit.SECONDS.toNanos(1);
+    // The rate only grows if a caller had to wait for a token this recently.
+    private static final long RATE_LIMITED_RECENTLY = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_WAIT_MILLIS = 10;
+    private static final long MAX_BACKGROUND_DEFER_MILLIS = 100;
+    private static final long MAX_BACKGROUND_WAIT_MILLIS = 500;
+
+    /**
+     * One admitted request, hand it back to release().
+     */
+    public static final class Permit {
+        private final long epoch;
+        private final boolean concurrencyLimited;
+
+        private Permit(long epoch, boolean concurrencyLimited) {
+            this.epoch = epoch;
+            this.concurrencyLimited = concurrencyLimited;
+        }
+    }
+
+    private double concurrencyLimit = INITIAL_CONCURRENCY;
+    private int inFlight;
+    private int waitingForeground;
+    // Requests per second, infinite until the first throttling response.
+    private double rate = Double.POSITIVE_INFINITY;
+    // Requests per second added per second.
+    private double rateIncrease;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private long lastRateLimited = Long.MIN_VALUE;
+    // Counts the decreases, permits of an older epoch do not decrease again.
+    private long epoch;
+    private long windowStart = System.nanoTime();
+    private long windowCount;
+    private double lastWindowThroughput;
+
+    /**
+     * Blocks until the request may be sent.
+     *
+     * @return null if a background caller got no permit within MAX_BACKGROUND_WAIT_MILLIS.
+     */
+    public synchronized Permit acquire(boolean background) throws InterruptedException {
+        if(!background){
+            waitingForeground++;
+        }
+        boolean concurrencyLimited = false;
+        long start = System.nanoTime();
+        try{
+            while(true){
+                long now = System.nanoTime();
+                long waitedMillis = TimeUnit.NANOSECONDS.toMillis(now-start);
+                if(background && waitedMillis >= MAX_BACKGROUND_WAIT_MILLIS){
+                    return null;
+                }
+                refill(now);
+                int limit = Math.max(1,(int) (background ? concurrencyLimit*BACKGROUND_SHARE : concurrencyLimit));
+                double needed = 1+(background ? capacity()*BACKGROUND_SHARE : 0);
+                long waitMillis = MAX_WAIT_MILLIS;
+                if(background && waitingForeground > 0 && waitedMillis < MAX_BACKGROUND_DEFER_MILLIS){
+                    //do-nothing, foreground first.
+                }else if(inFlight >= limit){
+                    concurrencyLimited = true;
+                }else if(!Double.isInfinite(rate) && tokens < needed){
+                    lastRateLimited = now;
+                    waitMillis = Math.min(MAX_WAIT_MILLIS,(long) Math.ceil((needed-tokens)*1000/rate));
+                }else{
+                    inFlight++;
+                    tokens -= 1;
+                    return new Permit(epoch,concurrencyLimited || inFlight >= limit);
+                }
+                wait(Math.max(1L,waitMillis));
+            }
+        }finally {
+            if(!background){
+                waitingForeground--;
+            }
+        }
+    }
+
+    /**
+     * @param throttled whether the store answered with a throttling response.
+     */
+    public synchronized void release(Permit permit, boolean throttled) {
+        inFlight--;
+        long now = System.nanoTime();
+        if(throttled){
+            if(permit.epoch == epoch){
+                decrease(now);
+            }
+        }else{
+            countCompletion(now);
+            if(permit.concurrencyLimited){
+                concurrencyLimit = Math.min(MAX_CONCURRENCY,concurrencyLimit+1/concurrencyLimit);
+            }
+            if(!Double.isInfinite(rate) && now-lastRateLimited < RATE_LIMITED_RECENTLY){
+                rate += rateIncrease/rate;
+            }
+        }
+        notifyAll();
+    }
+
+    public synchronized double getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * @return requests per second, infinite if the store never throttled.
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void decrease(long now) {
+        epoch++;
+        concurrencyLimit = Math.max(1,Math.min(concurrencyLimit,inFlight+1)*DECREASE_FACTOR);
+        double throughput = Math.max(MIN_RATE,throughput(now));
+        rate = Math.max(MIN_RATE,Math.min(rate,throughput)*DECREASE_FACTOR);
+        rateIncrease = Math.max(1,rate*RATE_INCREASE_SHARE);
+        // An empty bucket, the store just told us it is overloaded.
+        tokens = 0;
+    }
+
+    private double capacity() {
+        return Math.max(1,rate*BURST_SECONDS);
+    }
+
+    private void refill(long now) {
+        if(Double.isInfinite(rate)){
+            tokens = Double.MAX_VALUE;
+        }else{
+            tokens = Math.min(capacity(),tokens+(now-lastRefill)*rate/TimeUnit.SECONDS.toNanos(1));
+        }
+        lastRefill = now;
+    }
+
+    private void countCompletion(long now) {
+        if(now-windowStart >= THROUGHPUT_WINDOW){
+            lastWindowThroughput = windowCount*(double) TimeUnit.SECONDS.toNanos(1)/(now-windowStart);
+            windowStart = now;
+            windowCount = 0;
+        }
+        windowCount++;
+    }
+
+    /**
+     * Completions per second over the last full window, or the current window if it already saw more.
+     */
+    private double throughput(long now) {
+        long elapsed = now-windowStart;
+        double current = elapsed > 0 ? windowCount*(double) TimeUnit.SECONDS.toNanos(1)/Math.max(elapsed,THROUGHPUT_WINDOW/10) : 0;
+        return Math.max(lastWindowThroughput,current);
+    }
+}
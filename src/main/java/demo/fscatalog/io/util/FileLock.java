@@ -0,0 +1,105 @@
+package demo.fscatalog.io.util;
+
+import demo.fscatalog.io.FileIO;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A lock held through {@link FileLockService}. Close it to release the lock.
+ */
+public class FileLock implements Closeable {
+    private final FileIO fileIO;
+    private final URI lockDir;
+    private final long ticket;
+    private volatile ScheduledFuture<?> renewal;
+    private volatile boolean valid = true;
+
+    FileLock(FileIO fileIO, URI lockDir, long ticket) {
+        this.fileIO = fileIO;
+        this.lockDir = lockDir;
+        this.ticket = ticket;
+    }
+
+    void setRenewal(ScheduledFuture<?> renewal) {
+        this.renewal = renewal;
+    }
+
+    /**
+     * Strictly increasing for every holder of the same lock. Storage or services guarded by the lock should remember
+     * the highest token they saw and reject requests with a lower one: a holder that was paused longer than the TTL
+     * may still believe it holds the lock.
+     */
+    public long getFencingToken() {
+        return ticket;
+    }
+
+    /**
+     * False once the lease was lost (not renewed within the TTL and taken over) or released.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    URI getTicketFile() {
+        return FileLockService.ticketFile(lockDir,ticket);
+    }
+
+    URI getBeatFile() {
+        return FileLockService.beatFile(lockDir,ticket);
+    }
+
+    /**
+     * Rewrite the beat file so its modification time moves forward. The ticket itself is never rewritten: once a waiter
+     * deleted it as stale it stays deleted, and we notice it is gone after the beat.
+     */
+    void renew() throws IOException {
+        if(!valid){
+            return;
+        }
+        fileIO.writeFile(getBeatFile(),FileLockService.owner(),true);
+        if(!fileIO.exists(getTicketFile())){
+            lost();
+            fileIO.delete(getBeatFile(),false);
+        }
+    }
+
+    private void lost() {
+        valid = false;
+        ScheduledFuture<?> current = renewal;
+        if(current != null){
+            current.cancel(false);
+        }
+    }
+
+    /**
+     * The RELEASED marker is written before the ticket is deleted, so the highest ticket number never disappears
+     * and the next ticket still gets a higher fencing token.
+     */
+    @Override
+    public void close() throws IOException {
+        if(!valid){
+            return;
+        }
+        lost();
+        try{
+            fileIO.writeFileWithoutGuarantees(FileLockService.releasedFile(lockDir,ticket),FileLockService.owner());
+        }catch (FileAlreadyExistsException e){
+            //do-nothing
+        }
+        fileIO.delete(getTicketFile(),false);
+        fileIO.delete(getBeatFile(),false);
+    }
+
+    @Override
+    public String toString() {
+        return "FileLock{" +
+                "lockDir=" + lockDir +
+                ", fencingToken=" + ticket +
+                ", valid=" + valid +
+                '}';
+    }
+}
@@ -0,0 +1,248 @@
+package demo.fscatalog.io.util;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileListing;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Named locks on top of any FileIO with exclusive create.
+ * <p>
+ * Layout of a lock: lockRoot/&lt;name&gt;/
+ * <ul>
+ *     <li>&lt;ticket&gt;.txt: a client waiting for or holding the lock. Tickets are numbered: max ticket (or RELEASED marker) + 1,
+ *     created exclusively, so every ticket number is handed out once. The number is the fencing token.</li>
+ *     <li>&lt;ticket&gt;.beat: the lease of a ticket, rewritten by its owner. The ticket itself is only created and deleted.</li>
+ *     <li>&lt;ticket&gt;.released: written before a ticket is deleted, keeps the highest number around.</li>
+ * </ul>
+ * The lowest live ticket holds the lock, the others queue behind it in ticket order (FIFO).
+ * Every ticket is a lease: its owner rewrites the beat file every TTL/3, a ticket whose ticket and beat file were both
+ * not modified for longer than the TTL is stale, it is skipped and deleted by the clients behind it.
+ * <p>
+ * Staleness compares the storage modification time with the earliest possible storage time (see StorageClock), so skew between
+ * clients and storage does not expire tickets early once the clock offset was sampled. A holder that was paused longer than the TTL loses the lock without noticing right away,
+ * use the fencing token where that matters.
+ */
+public class FileLockService {
+    public static final long DEFAULT_TTL = 30L * 1000;
+    private static final String TICKET_SUFFIX = ".txt";
+    private static final String RELEASED_SUFFIX = ".released";
+    private static final String BEAT_SUFFIX = ".beat";
+    private static final long MIN_POLL_INTERVAL = 10L;
+    private static final long MAX_POLL_INTERVAL = 200L;
+    private static final ScheduledExecutorService RENEWER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r,"file-lock-renewer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Locks taken through FileIO.lock, per thread and FileIO.
+    private static final ThreadLocal<Map<FileIO,FileLock>> THREAD_LOCKS = ThreadLocal.withInitial(IdentityHashMap::new);
+
+    private final FileIO fileIO;
+    private final URI lockRoot;
+    private final long ttlMs;
+
+    public FileLockService(FileIO fileIO, URI lockRoot, long ttlMs) {
+        this.fileIO = fileIO;
+        this.lockRoot = lockRoot;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Wait up to timeout for the lock.
+     *
+     * @return null if the lock could not be acquired in time.
+     */
+    public FileLock tryAcquire(String name, long timeout, TimeUnit unit) throws IOException {
+        URI lockDir = lockRoot.resolve(name+"/");
+        fileIO.createDirectory(lockDir);
+        long deadline = System.currentTimeMillis()+unit.toMillis(timeout);
+        FileLock lock = enqueue(lockDir);
+        try{
+            while(true){
+                FileListing listing = fileIO.listFiles(lockDir,false);
+                if(listing.indexOfName(ticketName(lock.getFencingToken())) < 0){
+                    // Our ticket went stale (we could not renew it) and was deleted, queue again.
+                    lock.close();
+                    lock = enqueue(lockDir);
+                    continue;
+                }
+                int ahead = countAhead(listing,lockDir,lock.getFencingToken());
+                if(ahead == 0){
+                    cleanReleased(listing,lockDir,lock.getFencingToken());
+                    return lock;
+                }
+                if(System.currentTimeMillis() >= deadline){
+                    lock.close();
+                    return null;
+                }
+                // The next in line polls fast so the hand over is quick, the others only need to keep their place.
+                long pollInterval = Math.min(MAX_POLL_INTERVAL,MIN_POLL_INTERVAL*ahead);
+                Thread.sleep(Math.min(pollInterval,Math.max(1L,deadline-System.currentTimeMillis())));
+            }
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            lock.close();
+            throw new InterruptedIOException("interrupted while waiting for "+lockDir);
+        }catch (IOException | RuntimeException e){
+            lock.close();
+            throw e;
+        }
+    }
+
+    private FileLock enqueue(URI lockDir) throws IOException {
+        while(true){
+            FileListing listing = fileIO.listFiles(lockDir,false);
+            long ticket = maxTicket(listing)+1;
+            try{
+                fileIO.writeFileWithoutGuarantees(ticketFile(lockDir,ticket),owner());
+            }catch (FileAlreadyExistsException e){
+                continue;
+            }
+            FileLock lock = new FileLock(fileIO,lockDir,ticket);
+            long interval = Math.max(1L,ttlMs/3);
+            lock.setRenewal(RENEWER.scheduleWithFixedDelay(()->{
+                try{
+                    lock.renew();
+                }catch (IOException | RuntimeException e){
+                    //do-nothing, retried on the next tick.
+                }
+            },interval,interval,TimeUnit.MILLISECONDS));
+            return lock;
+        }
+    }
+
+    /**
+     * Number of live tickets lower than ours, 0 means we hold the lock. Stale tickets ahead of us are deleted on the way,
+     * they are lower than ours, so the highest ticket number is not affected.
+     */
+    private int countAhead(FileListing listing, URI lockDir, long ticket) throws IOException {
+        long now = StorageTiming.of(fileIO).getClock().minStorageNow();
+        int ahead = 0;
+        for (int i = 0; i < listing.size(); i++) {
+            String name = listing.getFileName(i);
+            if(!name.endsWith(TICKET_SUFFIX)){
+                continue;
+            }
+            long other = parseTicket(name);
+            if(other < 0 || other >= ticket || listing.indexOfName(releasedName(other)) >= 0){
+                continue;
+            }
+            long lastModified = listing.getLastModified(i);
+            int beat = listing.indexOfName(beatName(other));
+            if(beat >= 0){
+                lastModified = Math.max(lastModified,listing.getLastModified(beat));
+            }
+            if(now-lastModified > ttlMs){
+                fileIO.delete(ticketFile(lockDir,other),false);
+                fileIO.delete(beatFile(lockDir,other),false);
+            }else{
+                ahead++;
+            }
+        }
+        return ahead;
+    }
+
+    private void cleanReleased(FileListing listing, URI lockDir, long ticket) throws IOException {
+        for (int i = 0; i < listing.size(); i++) {
+            String name = listing.getFileName(i);
+            long other = parseTicket(name);
+            if(other >= 0 && other < ticket){
+                // Our own ticket keeps the highest number, so all lower markers, beats and released tickets can go.
+                fileIO.delete(lockDir.resolve(name),false);
+            }
+        }
+    }
+
+    private static long maxTicket(FileListing listing) {
+        long max = 0L;
+        for (int i = 0; i < listing.size(); i++) {
+            max = Math.max(max,parseTicket(listing.getFileName(i)));
+        }
+        return max;
+    }
+
+    private static long parseTicket(String name) {
+        int dot = name.indexOf('.');
+        if(dot <= 0){
+            return -1L;
+        }
+        try{
+            return Long.parseLong(name.substring(0,dot));
+        }catch (NumberFormatException e){
+            return -1L;
+        }
+    }
+
+    private static String ticketName(long ticket) {
+        return ticket+TICKET_SUFFIX;
+    }
+
+    private static String releasedName(long ticket) {
+        return ticket+RELEASED_SUFFIX;
+    }
+
+    private static String beatName(long ticket) {
+        return ticket+BEAT_SUFFIX;
+    }
+
+    static URI ticketFile(URI lockDir, long ticket) {
+        return lockDir.resolve(ticketName(ticket));
+    }
+
+    static URI releasedFile(URI lockDir, long ticket) {
+        return lockDir.resolve(releasedName(ticket));
+    }
+
+    static URI beatFile(URI lockDir, long ticket) {
+        return lockDir.resolve(beatName(ticket));
+    }
+
+    static String owner() {
+        return ManagementFactory.getRuntimeMXBean().getName()+"@"+Thread.currentThread().getName();
+    }
+
+    /**
+     * Backs FileIO.lock: lockInfo is the URI of the lock directory. Not reentrant.
+     */
+    public static boolean lockForCurrentThread(FileIO fileIO, String lockInfo, long timeout, TimeUnit unit) throws IOException {
+        Map<FileIO,FileLock> locks = THREAD_LOCKS.get();
+        if(locks.containsKey(fileIO)){
+            throw new IllegalStateException("this thread already holds a lock of this FileIO");
+        }
+        URI lockDir = URI.create(lockInfo.endsWith("/") ? lockInfo : lockInfo+"/");
+        FileLockService service = new FileLockService(fileIO,lockDir.resolve("../"),DEFAULT_TTL);
+        String name = lockDir.getPath().substring(0,lockDir.getPath().length()-1);
+        FileLock lock = service.tryAcquire(name.substring(name.lastIndexOf('/')+1),timeout,unit);
+        if(lock == null){
+            return false;
+        }
+        locks.put(fileIO,lock);
+        return true;
+    }
+
+    /**
+     * Backs FileIO.unlock.
+     */
+    public static void unlockForCurrentThread(FileIO fileIO) {
+        FileLock lock = THREAD_LOCKS.get().remove(fileIO);
+        if(lock == null){
+            throw new IllegalMonitorStateException("this thread holds no lock of this FileIO");
+        }
+        try{
+            lock.close();
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+}
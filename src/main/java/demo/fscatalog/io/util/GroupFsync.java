@@ -0,0 +1,99 @@
+package demo.fscatalog.io.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches directory fsyncs of concurrent writers (group commit).
+ * <p>
+ * Every writer takes a ticket after its rename. One of the waiting writers becomes the leader, optionally waits for a short window
+ * so that more writers can join, and then fsyncs the directory once for all tickets taken so far. The other writers just wait
+ * until a sync covering their ticket has finished.
+ */
+public final class GroupFsync {
+    private final long windowNanos;
+    private final Map<Path, DirectoryState> states = new ConcurrentHashMap<>();
+
+    public GroupFsync(long windowMillis) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    public void sync(Path directory) throws IOException {
+        states.computeIfAbsent(directory, k -> new DirectoryState()).sync(directory);
+    }
+
+    /**
+     * Some platforms (e.g. windows) can not open a directory for fsync, we just skip it there.
+     */
+    public static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (java.nio.file.AccessDeniedException | UnsupportedOperationException e) {
+            //do-nothing
+        }
+    }
+
+    private final class DirectoryState {
+        private long requested;
+        private long completed;
+        private boolean running;
+
+        private void sync(Path directory) throws IOException {
+            synchronized (this) {
+                long ticket = ++requested;
+                while (true) {
+                    if (completed >= ticket) {
+                        return;
+                    }
+                    if (!running) {
+                        running = true;
+                        break;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while waiting for directory fsync");
+                    }
+                }
+            }
+            // We are the leader now.
+            long target = 0;
+            IOException error = null;
+            try {
+                if (windowNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(windowNanos);
+                }
+                synchronized (this) {
+                    target = requested;
+                }
+                forceDirectory(directory);
+            } catch (IOException e) {
+                error = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = new InterruptedIOException("interrupted while waiting for directory fsync");
+            }
+            synchronized (this) {
+                running = false;
+                if (error == null) {
+                    completed = Math.max(completed, target);
+                }
+                if (completed == requested) {
+                    // Nobody is waiting, do not keep one entry per directory forever.
+                    states.remove(directory, this);
+                }
+                notifyAll();
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package demo.fscatalog.io.util;
+
+/**
+ * Marks the storage calls of the current thread as background traffic (cleanup, compaction), which throttling FileIOs
+ * serve only with capacity that commits leave unused.
+ * <pre>
+ * try(IoPriority ignored = IoPriority.background()){
+ *     // cleanup calls
+ * }
+ * </pre>
+ */
+public final class IoPriority implements AutoCloseable {
+    private static final ThreadLocal<Boolean> BACKGROUND = ThreadLocal.withInitial(() -> false);
+
+    private final boolean previous;
+
+    private IoPriority(boolean previous) {
+        this.previous = previous;
+    }
+
+    public static IoPriority background() {
+        return enter(true);
+    }
+
+    /**
+     * Sets the priority of the current thread until close(), e.g. to carry the caller's priority to a pool thread.
+     */
+    public static IoPriority enter(boolean background) {
+        IoPriority scope = new IoPriority(BACKGROUND.get());
+        BACKGROUND.set(background);
+        return scope;
+    }
+
+    public static boolean isBackground() {
+        return BACKGROUND.get();
+    }
+
+    @Override
+    public void close() {
+        BACKGROUND.set(previous);
+    }
+}
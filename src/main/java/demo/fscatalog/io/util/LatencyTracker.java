@@ -0,0 +1,49 @@
+package demo.fscatalog.io.util;
+
+import java.util.Arrays;
+
+/**
+ * Percentiles over the most recent latencies of one kind of operation.
+ * <p>
+ * Recording is cheap (one slot of a ring), percentiles sort a copy of the ring, so ask for them on slow paths only.
+ * Any unit works, percentiles come back in the unit that was recorded.
+ */
+public final class LatencyTracker {
+    private final long[] samples;
+    private int count;
+    private int next;
+
+    public LatencyTracker(int window) {
+        if(window < 1){
+            throw new IllegalArgumentException("window must be positive");
+        }
+        this.samples = new long[window];
+    }
+
+    public synchronized void record(long latency) {
+        samples[next] = Math.max(0L,latency);
+        next = (next+1) % samples.length;
+        count = Math.min(count+1,samples.length);
+    }
+
+    public synchronized int getSampleCount() {
+        return count;
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.999.
+     * @return defaultValue if nothing was recorded yet.
+     */
+    public long percentile(double quantile, long defaultValue) {
+        long[] sorted;
+        synchronized (this){
+            if(count == 0){
+                return defaultValue;
+            }
+            sorted = Arrays.copyOf(samples,count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(quantile*sorted.length)-1;
+        return sorted[Math.max(0,Math.min(sorted.length-1,index))];
+    }
+}
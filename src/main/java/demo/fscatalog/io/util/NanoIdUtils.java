@@ -29,8 +29,9 @@ public final class NanoIdUtils {
     }
 
     /**
-     * The default random number generator used by this class.
-     * Creates cryptographically strong NanoId Strings.
+     * A shared random number generator, kept for callers that pass it explicitly.
+     * The factories without a Random argument use a per-thread generator ({@link ThreadLocalSecureRandom}) instead,
+     * so concurrent callers do not contend on this instance.
      */
     public static final SecureRandom DEFAULT_NUMBER_GENERATOR = new SecureRandom();
 
@@ -58,7 +59,7 @@ public final class NanoIdUtils {
      * @return A randomly generated NanoId String.
      */
     public static String randomNanoId() {
-        return randomNanoId(DEFAULT_NUMBER_GENERATOR, DEFAULT_ALPHABET, DEFAULT_SIZE);
+        return randomNanoId(ThreadLocalSecureRandom.current(), DEFAULT_ALPHABET, DEFAULT_SIZE);
     }
 
     /**
@@ -72,7 +73,7 @@ public final class NanoIdUtils {
      * @return A randomly generated NanoId String.
      */
     public static String randomNanoId(int size) {
-        return randomNanoId(DEFAULT_NUMBER_GENERATOR, DEFAULT_ALPHABET, size);
+        return randomNanoId(ThreadLocalSecureRandom.current(), DEFAULT_ALPHABET, size);
     }
 
     /**
@@ -90,7 +91,7 @@ public final class NanoIdUtils {
      */
     @Deprecated
     public static String randomNanoId(final char[] alphabet, int size) {
-        return randomNanoId(DEFAULT_NUMBER_GENERATOR, alphabet, size);
+        return randomNanoId(ThreadLocalSecureRandom.current(), alphabet, size);
     }
 
     /**
@@ -105,7 +106,7 @@ public final class NanoIdUtils {
      * @return A randomly generated NanoId String.
      */
     public static String randomNanoId(final String alphabet, int size) {
-        return randomNanoId(DEFAULT_NUMBER_GENERATOR, alphabet, size);
+        return randomNanoId(ThreadLocalSecureRandom.current(), alphabet, size);
     }
 
     /**
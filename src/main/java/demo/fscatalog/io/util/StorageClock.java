@@ -0,0 +1,108 @@
+package demo.fscatalog.io.util;
+
+/**
+ * Estimates the offset between the local clock and the clock that stamps modification times on the storage.
+ * <p>
+ * Every sample is one of our own writes: the local time right before and right after it, and the modification time
+ * the storage reported for the file afterwards. The storage stamped the file somewhere inside the request, so
+ * offset = storage - local lies in [lastModified - after, lastModified + granularity - before].
+ * The bounds of the recent samples are intersected (NTP style), fast round trips give tight bounds.
+ * If the intersection is empty (a clock jumped or drifted) the tightest single sample of the window wins.
+ * <p>
+ * Some storages (e.g. S3) report whole seconds. While every sample is a multiple of a second, the granularity is assumed to be a second.
+ * <p>
+ * Without samples the offset is 0 with no uncertainty, which is what the code assumed before.
+ */
+public final class StorageClock {
+    // just demo,no config
+    private static final int WINDOW = 64;
+    private static final long SECOND_GRANULARITY = 1000L;
+
+    private final long[] lows = new long[WINDOW];
+    private final long[] highs = new long[WINDOW];
+    private int count;
+    private int next;
+    private boolean wholeSeconds = true;
+    private volatile long lowerBound;
+    private volatile long upperBound;
+
+    /**
+     * @param localBefore local wall time right before the write was sent.
+     * @param localAfter local wall time right after it returned.
+     * @param lastModified the modification time the storage reported for the written file.
+     */
+    public synchronized void sample(long localBefore, long localAfter, long lastModified) {
+        if(lastModified <= 0 || localAfter < localBefore){
+            return;
+        }
+        if(lastModified % SECOND_GRANULARITY != 0){
+            if(wholeSeconds){
+                // The older samples were widened for nothing, tighten them.
+                for (int i = 0; i < count; i++) {
+                    highs[i] -= SECOND_GRANULARITY-1;
+                }
+            }
+            wholeSeconds = false;
+        }
+        long granularity = wholeSeconds ? SECOND_GRANULARITY : 1L;
+        lows[next] = lastModified-localAfter;
+        highs[next] = lastModified+granularity-1-localBefore;
+        next = (next+1) % WINDOW;
+        count = Math.min(count+1,WINDOW);
+        recompute();
+    }
+
+    private void recompute() {
+        long low = Long.MIN_VALUE;
+        long high = Long.MAX_VALUE;
+        int tightest = 0;
+        for (int i = 0; i < count; i++) {
+            low = Math.max(low,lows[i]);
+            high = Math.min(high,highs[i]);
+            if(highs[i]-lows[i] < highs[tightest]-lows[tightest]){
+                tightest = i;
+            }
+        }
+        if(low > high){
+            low = lows[tightest];
+            high = highs[tightest];
+        }
+        lowerBound = low;
+        upperBound = high;
+    }
+
+    public synchronized int getSampleCount() {
+        return count;
+    }
+
+    /**
+     * Best guess of storage time - local time.
+     */
+    public long getOffset() {
+        long low = lowerBound;
+        long high = upperBound;
+        return low+(high-low)/2;
+    }
+
+    /**
+     * Half the width of the offset interval.
+     */
+    public long getUncertainty() {
+        return (upperBound-lowerBound)/2;
+    }
+
+    /**
+     * Best guess of the current storage time.
+     */
+    public long storageNow() {
+        return System.currentTimeMillis()+getOffset();
+    }
+
+    /**
+     * The earliest the storage clock can read right now. Use it to decide that a storage timestamp is older than a TTL:
+     * minStorageNow() - lastModified > ttl never fires early, whatever the skew.
+     */
+    public long minStorageNow() {
+        return System.currentTimeMillis()+lowerBound;
+    }
+}
@@ -0,0 +1,66 @@
+package demo.fscatalog.io.util;
+
+import demo.fscatalog.io.FileIO;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * What we learned about the timing of one storage backend (one FileIO instance): its clock offset, its write latency
+ * and how far apart our heartbeats actually land.
+ * Shared by everything that uses the same FileIO, so commits, heartbeats and locks learn from each other's writes.
+ */
+public final class StorageTiming {
+    // just demo,no config
+    private static final int LATENCY_WINDOW = 1024;
+    private static final Map<FileIO,StorageTiming> TIMINGS = new WeakHashMap<>();
+
+    private final StorageClock clock = new StorageClock();
+    private final LatencyTracker writeLatency = new LatencyTracker(LATENCY_WINDOW);
+    private final LatencyTracker beatSpacing = new LatencyTracker(LATENCY_WINDOW);
+
+    public static StorageTiming of(FileIO fileIO) {
+        synchronized (TIMINGS){
+            return TIMINGS.computeIfAbsent(fileIO, k -> new StorageTiming());
+        }
+    }
+
+    public StorageClock getClock() {
+        return clock;
+    }
+
+    public LatencyTracker getWriteLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * Time between two consecutive beats of one heartbeat, including failed and skipped beats in between.
+     */
+    public LatencyTracker getBeatSpacing() {
+        return beatSpacing;
+    }
+
+    /**
+     * @param localBefore local wall time right before the write.
+     * @param localAfter local wall time right after it.
+     */
+    public void recordWrite(long localBefore, long localAfter) {
+        writeLatency.record(localAfter-localBefore);
+    }
+
+    public void recordBeat(long spacing) {
+        beatSpacing.record(spacing);
+    }
+
+    @Override
+    public String toString() {
+        return "StorageTiming{" +
+                "offset=" + clock.getOffset() +
+                ", uncertainty=" + clock.getUncertainty() +
+                ", clockSamples=" + clock.getSampleCount() +
+                ", writeP99=" + writeLatency.percentile(0.99,-1L) +
+                ", writeSamples=" + writeLatency.getSampleCount() +
+                ", beatSpacingP99=" + beatSpacing.percentile(0.99,-1L) +
+                '}';
+    }
+}
@@ -0,0 +1,37 @@
+package demo.fscatalog.io.util;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * One SecureRandom per thread.
+ * <p>
+ * A shared SecureRandom (what UUID.randomUUID uses) serializes every caller on its lock, and the default NativePRNG
+ * additionally reads /dev/urandom under a global lock. Here every thread gets its own SHA1PRNG instance,
+ * seeded once from the shared generator, so generating IDs does not contend after the first call of a thread.
+ */
+public final class ThreadLocalSecureRandom {
+    private static final SecureRandom SEED_SOURCE = new SecureRandom();
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(ThreadLocalSecureRandom::create);
+
+    private ThreadLocalSecureRandom() {
+        throw new IllegalStateException();
+    }
+
+    public static SecureRandom current() {
+        return RANDOM.get();
+    }
+
+    private static SecureRandom create() {
+        byte[] seed = new byte[32];
+        // nextBytes never blocks, unlike generateSeed.
+        SEED_SOURCE.nextBytes(seed);
+        try {
+            SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+            random.setSeed(seed);
+            return random;
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom(seed);
+        }
+    }
+}
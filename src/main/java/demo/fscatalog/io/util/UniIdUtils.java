@@ -2,28 +2,88 @@ package demo.fscatalog.io.util;
 
 import com.github.yitter.contract.IdGeneratorOptions;
 import com.github.yitter.idgen.YitIdHelper;
+import demo.fscatalog.io.FileIO;
 
+import java.io.IOException;
+import java.net.URI;
+import java.security.SecureRandom;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class UniIdUtils {
     public static final String UU_ID = "UUID";
     public static final String NANO_ID = "NANOID";
     public static final String SNOW_FLAKE = "SNOW_FLAKE";
+    /**
+     * UUID version 7 layout: the first 48 bits are the unix timestamp in milliseconds,
+     * so IDs (and file names built from them) sort by creation time.
+     */
+    public static final String TIME_ORDERED = "TIME_ORDERED";
 
-    static {
-        // todo:just for fun,do not use it directly, because I have not initialized the globally unique server ID.
-        //  You can only use it in a single-machine scenario.
-        IdGeneratorOptions options = new IdGeneratorOptions((short)(System.currentTimeMillis()%Short.MAX_VALUE));
+    private static final byte WORKER_ID_BIT_LENGTH = 10;
+    private static final byte SEQ_BIT_LENGTH = 10;
+    public static final int MAX_WORKER_ID = (1 << WORKER_ID_BIT_LENGTH) - 1;
+    public static final long DEFAULT_WORKER_ID_TTL = 60L * 1000;
+
+    private static volatile boolean snowflakeInitialized = false;
+    // The lease behind the worker id, null if the id was given by hand or picked at random.
+    private static volatile WorkerIdLease workerIdLease;
+    // (unix millis << 12) | counter of the last time ordered id of this process.
+    private static final AtomicLong LAST_TIME_ORDERED_TICK = new AtomicLong();
+
+    /**
+     * Use a worker id that is known to be unique in the cluster.
+     */
+    public static synchronized void initSnowflake(short workerId){
+        if(workerId < 0 || workerId > MAX_WORKER_ID){
+            throw new IllegalArgumentException("workerId must be between 0 and "+MAX_WORKER_ID);
+        }
+        IdGeneratorOptions options = new IdGeneratorOptions(workerId);
+        options.WorkerIdBitLength = WORKER_ID_BIT_LENGTH;
+        options.SeqBitLength = SEQ_BIT_LENGTH;
         YitIdHelper.setIdGenerator(options);
+        snowflakeInitialized = true;
+        workerIdLease = null;
+    }
+
+    /**
+     * Lease a worker id through the catalog's file system and use it. Keep the lease open as long as Snowflake IDs are generated.
+     * Once the lease is no longer valid, Snowflake IDs fail with IllegalStateException until a new one is leased.
+     */
+    public static WorkerIdLease initSnowflake(FileIO fileIO, URI leaseDir) throws IOException {
+        WorkerIdLease lease = WorkerIdLease.acquire(fileIO,leaseDir,MAX_WORKER_ID,DEFAULT_WORKER_ID_TTL);
+        synchronized (UniIdUtils.class){
+            initSnowflake(lease.getWorkerId());
+            workerIdLease = lease;
+        }
+        return lease;
+    }
+
+    private static void ensureSnowflake(){
+        if(!snowflakeInitialized){
+            synchronized (UniIdUtils.class){
+                if(!snowflakeInitialized){
+                    // Nobody leased a worker id: a random one is only safe in a single-machine scenario.
+                    initSnowflake((short) ThreadLocalSecureRandom.current().nextInt(MAX_WORKER_ID+1));
+                }
+            }
+        }
     }
 
     public static String getUniId(String type){
         if(UU_ID.equals(type)){
-            return UUID.randomUUID().toString();
+            return randomUUID().toString();
         }else if(SNOW_FLAKE.equals(type)){
+            ensureSnowflake();
+            WorkerIdLease lease = workerIdLease;
+            if(lease != null && !lease.isValid()){
+                throw new IllegalStateException("the lease of worker id "+lease.getWorkerId()+" was lost or closed, Snowflake ids could collide");
+            }
             return String.valueOf(YitIdHelper.nextId());
         }else if(NANO_ID.equals(type)){
             return NanoIdUtils.randomNanoId();
+        }else if(TIME_ORDERED.equals(type)){
+            return timeOrderedUUID().toString();
         }
         throw new UnsupportedOperationException();
     }
@@ -31,4 +91,35 @@ public class UniIdUtils {
     public static String getUniId(){
         return getUniId(UU_ID);
     }
+
+    /**
+     * Same as UUID.randomUUID, but without funneling every thread through one shared SecureRandom.
+     */
+    public static UUID randomUUID(){
+        SecureRandom random = ThreadLocalSecureRandom.current();
+        long msb = random.nextLong();
+        long lsb = random.nextLong();
+        msb = (msb & ~0xF000L) | 0x4000L;
+        lsb = (lsb & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb,lsb);
+    }
+
+    /**
+     * 48 bits of unix millis, 12 bits of a per-process counter (so IDs of one process are strictly increasing,
+     * also within the same millisecond), 62 random bits.
+     */
+    public static UUID timeOrderedUUID(){
+        long now = System.currentTimeMillis() << 12;
+        long tick;
+        while(true){
+            long last = LAST_TIME_ORDERED_TICK.get();
+            tick = Math.max(last+1,now);
+            if(LAST_TIME_ORDERED_TICK.compareAndSet(last,tick)){
+                break;
+            }
+        }
+        long msb = ((tick >>> 12) << 16) | 0x7000L | (tick & 0xFFFL);
+        long lsb = (ThreadLocalSecureRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb,lsb);
+    }
 }
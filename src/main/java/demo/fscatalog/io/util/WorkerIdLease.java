@@ -0,0 +1,173 @@
+package demo.fscatalog.io.util;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileListing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Snowflake worker id leased through the catalog's own file system, so no two processes of a cluster share one.
+ * <p>
+ * Every lease is a file "&lt;workerId&gt;@&lt;generation&gt;" under the lease directory. A worker id is free if it has no file,
+ * or if the modification time of its highest generation is older than the TTL (in storage time). Taking an id means creating
+ * the next generation exclusively, so of two processes racing for the same stale id only one wins. The holder keeps the lease
+ * alive by rewriting its file every TTL/3.
+ * <p>
+ * A renewal can race a takeover, so both sides check after they wrote: the holder gives the lease up if the next generation
+ * exists after its rewrite, and the new holder backs off if the old generation was rewritten before its create.
+ * Without a confirmed renewal for a TTL the holder stops trusting the lease on its own, before anybody may take it.
+ * <p>
+ * This needs a FileIO with exclusive create (see FileIO.writeFileWithoutGuarantees).
+ */
+public class WorkerIdLease implements Closeable {
+    private static final char GENERATION_SEPARATOR = '@';
+    private final FileIO fileIO;
+    private final URI leaseDir;
+    private final short workerId;
+    private final long generation;
+    private final long ttlMs;
+    private final ScheduledExecutorService renewer;
+    private volatile boolean lost;
+    // System.nanoTime() before the last write of the lease file that was confirmed by renew().
+    private volatile long lastRenewed;
+
+    private WorkerIdLease(FileIO fileIO, URI leaseDir, short workerId, long generation, long ttlMs, long written) {
+        this.fileIO = fileIO;
+        this.leaseDir = leaseDir;
+        this.workerId = workerId;
+        this.generation = generation;
+        this.ttlMs = ttlMs;
+        this.lastRenewed = written;
+        this.renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r,"worker-id-lease-"+workerId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1L,ttlMs/3);
+        this.renewer.scheduleWithFixedDelay(() -> {
+            try{
+                renew();
+            }catch (IOException | RuntimeException e){
+                //do-nothing, we retry on the next tick, isValid() turns false if that takes longer than the TTL.
+            }
+        },interval,interval,TimeUnit.MILLISECONDS);
+    }
+
+    public static WorkerIdLease acquire(FileIO fileIO, URI leaseDir, int maxWorkerId, long ttlMs) throws IOException {
+        fileIO.createDirectory(leaseDir);
+        FileListing listing = fileIO.listFiles(leaseDir,false);
+        long[] generations = new long[maxWorkerId+1];
+        long[] lastModified = new long[maxWorkerId+1];
+        Arrays.fill(generations,-1L);
+        for (int i = 0; i < listing.size(); i++) {
+            String name = listing.getFileName(i);
+            int separator = name.indexOf(GENERATION_SEPARATOR);
+            if(separator <= 0){
+                continue;
+            }
+            int id;
+            long generation;
+            try{
+                id = Integer.parseInt(name.substring(0,separator));
+                generation = Long.parseLong(name.substring(separator+1));
+            }catch (NumberFormatException e){
+                continue;
+            }
+            if(id < 0 || id > maxWorkerId || generation < generations[id]){
+                continue;
+            }
+            generations[id] = generation;
+            lastModified[id] = listing.getLastModified(i);
+        }
+        StorageClock clock = StorageTiming.of(fileIO).getClock();
+        // Start at a random id, so that processes starting together do not all fight for id 0.
+        int start = ThreadLocalSecureRandom.current().nextInt(maxWorkerId+1);
+        for (int k = 0; k <= maxWorkerId; k++) {
+            int id = (start+k) % (maxWorkerId+1);
+            if(generations[id] >= 0 && clock.minStorageNow()-lastModified[id] <= ttlMs){
+                continue;
+            }
+            long nextGeneration = generations[id]+1;
+            long written = System.nanoTime();
+            try{
+                fileIO.writeFileWithoutGuarantees(leaseFile(leaseDir,id,nextGeneration),owner());
+            }catch (FileAlreadyExistsException e){
+                continue;
+            }
+            if(generations[id] >= 0){
+                if(renewedSince(fileIO,clock,leaseDir,id,generations[id],ttlMs)){
+                    // The holder was alive after all, it sees our generation and gives up unless we remove it first.
+                    fileIO.delete(leaseFile(leaseDir,id,nextGeneration),false);
+                    continue;
+                }
+                fileIO.delete(leaseFile(leaseDir,id,generations[id]),false);
+            }
+            return new WorkerIdLease(fileIO,leaseDir,(short) id,nextGeneration,ttlMs,written);
+        }
+        throw new IOException("no free worker id under "+leaseDir);
+    }
+
+    /**
+     * Whether the old generation was rewritten after the listing that found it stale.
+     */
+    private static boolean renewedSince(FileIO fileIO, StorageClock clock, URI leaseDir, int id, long generation, long ttlMs) throws IOException {
+        FileListing listing = fileIO.listFiles(leaseDir,false);
+        int index = listing.indexOfName(id+""+GENERATION_SEPARATOR+generation);
+        return index >= 0 && clock.minStorageNow()-listing.getLastModified(index) <= ttlMs;
+    }
+
+    private static URI leaseFile(URI leaseDir, int workerId, long generation) {
+        return leaseDir.resolve(workerId+""+GENERATION_SEPARATOR+generation);
+    }
+
+    private static String owner() {
+        return ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    public short getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * False once another process took over this worker id, after close(), and while the lease was not renewed for a TTL
+     * (from then on another process may take it). Ids generated while it is false are not guaranteed to be unique.
+     */
+    public boolean isValid() {
+        return !lost && System.nanoTime()-lastRenewed < TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    public void renew() throws IOException {
+        if(lost){
+            return;
+        }
+        long written = System.nanoTime();
+        // Rewriting the file moves its modification time forward.
+        fileIO.writeFile(leaseFile(leaseDir,workerId,generation),owner(),true);
+        // Checked after the write: a new holder that created the next generation before it may have deleted our file,
+        // which the write brought back.
+        if(fileIO.exists(leaseFile(leaseDir,workerId,generation+1))){
+            lost = true;
+            renewer.shutdown();
+            fileIO.delete(leaseFile(leaseDir,workerId,generation),false);
+            return;
+        }
+        lastRenewed = written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        renewer.shutdownNow();
+        if(!lost){
+            lost = true;
+            fileIO.delete(leaseFile(leaseDir,workerId,generation),false);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.FileIO;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out every committed version of a table in order, in batches, for CDC style consumers.
+ * <p>
+ * A poll resolves the versions of the next batch through the {@link TimeTravelIndex} and reads their commit files
+ * on a small pool, so catching up after downtime costs about batchSize/parallelism round trips per batch instead of one per version.
+ * A version that was cleaned before we got to it is returned as EXPIRED, not silently skipped.
+ * <p>
+ * The position (next version to return) advances with every poll. It is persisted only by {@link #checkpoint()},
+ * so after a crash the versions since the last checkpoint are returned again: at-least-once.
+ * <p>
+ * Not thread safe.
+ */
+public class ChangelogConsumer implements Closeable {
+    private final FileIO fileIO;
+    private final URI rootPath;
+    private final URI checkpointFile;
+    private final TableLayout layout;
+    private final int batchSize;
+    private final ExecutorService prefetchPool;
+    private TimeTravelIndex index;
+    private long position;
+    private long checkpointedPosition;
+
+    /**
+     * @param checkpointFile where the position is persisted, null to not persist it.
+     *                       If the file exists, consuming resumes from it and startVersion is ignored.
+     * @param startVersion the first version to return.
+     * @param parallelism how many versions are fetched at the same time.
+     */
+    public ChangelogConsumer(FileIO fileIO, URI rootPath, URI checkpointFile, long startVersion, int batchSize, int parallelism) throws IOException {
+        if(batchSize < 1 || parallelism < 1){
+            throw new IllegalArgumentException("batchSize and parallelism must be positive");
+        }
+        this.fileIO = fileIO;
+        this.rootPath = rootPath;
+        this.checkpointFile = checkpointFile;
+        this.batchSize = batchSize;
+        this.layout = TableLayout.load(fileIO,rootPath);
+        this.position = readCheckpoint(startVersion);
+        this.checkpointedPosition = position;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.prefetchPool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r,"changelog-prefetch-"+threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private long readCheckpoint(long startVersion) throws IOException {
+        if(checkpointFile == null){
+            return startVersion;
+        }
+        try{
+            return Long.parseLong(fileIO.read(checkpointFile).trim());
+        }catch (FileNotFoundException | NoSuchFileException e){
+            return startVersion;
+        }
+    }
+
+    /**
+     * The next version poll() will return.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public void seek(long version) {
+        this.position = version;
+    }
+
+    /**
+     * Persist the position, everything returned by poll() so far is considered consumed.
+     */
+    public void checkpoint() throws IOException {
+        if(checkpointFile == null || checkpointedPosition == position){
+            return;
+        }
+        fileIO.writeFile(checkpointFile,String.valueOf(position),true);
+        checkpointedPosition = position;
+    }
+
+    /**
+     * The next versions in order, at most batchSize of them, COMMITTED or EXPIRED.
+     *
+     * @return an empty list if there is no newer committed version.
+     */
+    public List<ChangelogEntry> poll() throws IOException {
+        long latest = TimeTravelIndex.latestCommittedVersion(fileIO,rootPath,layout);
+        if(position > latest){
+            return new ArrayList<>();
+        }
+        if(index == null || position > index.maxVersion(-1L)){
+            index = TimeTravelIndex.load(fileIO,rootPath,layout);
+        }
+        TimeTravelIndex current = index;
+        long end = Math.min(position+batchSize,latest+1);
+        List<Future<ChangelogEntry>> futures = new ArrayList<>((int)(end-position));
+        for (long version = position; version < end; version++) {
+            final long v = version;
+            futures.add(prefetchPool.submit(()->fetch(current,v)));
+        }
+        List<ChangelogEntry> batch = new ArrayList<>(futures.size());
+        try{
+            for (Future<ChangelogEntry> future : futures) {
+                batch.add(future.get());
+            }
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while fetching versions");
+        }catch (ExecutionException e){
+            if(e.getCause() instanceof IOException){
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }finally {
+            for (Future<ChangelogEntry> future : futures) {
+                future.cancel(true);
+            }
+        }
+        if(!batch.isEmpty()){
+            position = batch.get(batch.size()-1).getVersion()+1;
+        }
+        return batch;
+    }
+
+    /**
+     * The state of a single version, without moving the position.
+     */
+    public ChangelogEntry lookup(long version) throws IOException {
+        if(version > TimeTravelIndex.latestCommittedVersion(fileIO,rootPath,layout)){
+            return new ChangelogEntry(version,ChangelogEntry.State.NOT_COMMITTED,null,null);
+        }
+        if(index == null || version > index.maxVersion(-1L)){
+            index = TimeTravelIndex.load(fileIO,rootPath,layout);
+        }
+        return fetch(index,version);
+    }
+
+    /**
+     * Only for versions that are known to be committed.
+     */
+    private ChangelogEntry fetch(TimeTravelIndex current, long version) throws IOException {
+        VersionLocation location = version < current.getMinRetainedVersion() ? null : current.get(version);
+        if(location == null){
+            location = TimeTravelIndex.lookup(fileIO,rootPath,layout,version);
+        }
+        if(location == null){
+            // Below the latest committed version, so it was committed: without index record and hint it can only have been cleaned.
+            return new ChangelogEntry(version,ChangelogEntry.State.EXPIRED,null,null);
+        }
+        try{
+            return new ChangelogEntry(version,ChangelogEntry.State.COMMITTED,location,fileIO.read(location.getCommitFile(rootPath,layout)));
+        }catch (FileNotFoundException | NoSuchFileException e){
+            return new ChangelogEntry(version,ChangelogEntry.State.EXPIRED,null,null);
+        }
+    }
+
+    @Override
+    public void close() {
+        prefetchPool.shutdownNow();
+    }
+}
@@ -0,0 +1,64 @@
+package demo.fscatalog.process;
+
+/**
+ * One version as seen by the {@link ChangelogConsumer}.
+ */
+public final class ChangelogEntry {
+    public enum State {
+        /**
+         * Committed and still readable, the payload is set.
+         */
+        COMMITTED,
+        /**
+         * Committed, but cleaned before we read it: the consumer fell behind the retention and this change is lost to it.
+         */
+        EXPIRED,
+        /**
+         * Not committed (yet), there is no such version.
+         */
+        NOT_COMMITTED
+    }
+
+    private final long version;
+    private final State state;
+    private final VersionLocation location;
+    private final String payload;
+
+    ChangelogEntry(long version, State state, VersionLocation location, String payload) {
+        this.version = version;
+        this.state = state;
+        this.location = location;
+        this.payload = payload;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Null unless COMMITTED.
+     */
+    public VersionLocation getLocation() {
+        return location;
+    }
+
+    /**
+     * The content of the commit file, null unless COMMITTED.
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangelogEntry{" +
+                "version=" + version +
+                ", state=" + state +
+                ", location=" + location +
+                '}';
+    }
+}
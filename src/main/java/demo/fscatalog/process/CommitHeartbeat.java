@@ -0,0 +1,119 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.util.StorageTiming;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shows competitors that the writer of an in-flight commit is still alive.
+ * <p>
+ * The heartbeat file is rewritten every interval, so its modification time stays fresh while the commit is running.
+ * Once the writer gives up, finishes or dies the file is left alone and goes stale.
+ * It is not deleted: a missing heartbeat means "written by a client without heartbeats", see FileTrackerCommitStrategyV2.
+ * <p>
+ * One thread only ticks, the beats are written on a pool that grows with the commits in flight (each has at most one
+ * beat running), so a slow write never delays the beats of other commits. A tick while the previous beat is still
+ * being written is skipped. The spacing of the beats we actually managed to write is recorded in the StorageTiming,
+ * competitors judge liveness by it.
+ */
+final class CommitHeartbeat implements Closeable {
+    private static final ScheduledExecutorService TICKER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r,"commit-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AtomicInteger WRITER_NUMBER = new AtomicInteger();
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r,"commit-heartbeat-writer-"+WRITER_NUMBER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FileIO fileIO;
+    private final StorageTiming timing;
+    private final URI heartbeatFile;
+    private final AtomicBoolean writing = new AtomicBoolean();
+    // Local time the last beat was written.
+    private volatile long lastBeat;
+    private volatile boolean closed;
+    private ScheduledFuture<?> renewal;
+
+    private CommitHeartbeat(FileIO fileIO, StorageTiming timing, URI heartbeatFile) {
+        this.fileIO = fileIO;
+        this.timing = timing;
+        this.heartbeatFile = heartbeatFile;
+    }
+
+    /**
+     * @param timing every beat is a write, its latency and the spacing of the beats feed the TTLs derived from it.
+     */
+    static CommitHeartbeat start(FileIO fileIO, StorageTiming timing, URI heartbeatFile, long intervalMs) throws IOException {
+        CommitHeartbeat heartbeat = new CommitHeartbeat(fileIO,timing,heartbeatFile);
+        // Overwrites the beat of an earlier attempt with the same commit id.
+        fileIO.writeFile(heartbeatFile,String.valueOf(System.currentTimeMillis()),true);
+        heartbeat.lastBeat = System.currentTimeMillis();
+        heartbeat.renewal = TICKER.scheduleAtFixedRate(heartbeat::tick,intervalMs,intervalMs,TimeUnit.MILLISECONDS);
+        return heartbeat;
+    }
+
+    private void tick() {
+        if(closed || !writing.compareAndSet(false,true)){
+            return;
+        }
+        WRITERS.execute(this::beat);
+    }
+
+    private void beat() {
+        try{
+            // close() may have run since the tick, it waits for us only once we got here.
+            if(closed){
+                return;
+            }
+            long writeStart = System.currentTimeMillis();
+            fileIO.writeFile(heartbeatFile,String.valueOf(writeStart),true);
+            long writeEnd = System.currentTimeMillis();
+            timing.recordWrite(writeStart,writeEnd);
+            timing.recordBeat(writeEnd-lastBeat);
+            lastBeat = writeEnd;
+        }catch (IOException | RuntimeException e){
+            //do-nothing, a missed beat only makes us look dead a little earlier, and widens the next spacing.
+        }finally {
+            synchronized (this){
+                writing.set(false);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Stops the beats and waits for a beat being written, so the heartbeat file is not touched after this returns.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        renewal.cancel(false);
+        boolean interrupted = false;
+        synchronized (this){
+            while(writing.get()){
+                try{
+                    wait();
+                }catch (InterruptedException e){
+                    interrupted = true;
+                }
+            }
+        }
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.util.GroupFsync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The local write-ahead journal of a {@link JournaledCommitter}: one text file of checksummed records.
+ * <ul>
+ *     <li>B &lt;version&gt;: the latest committed version of the table when the journal was started, written once.</li>
+ *     <li>C &lt;id&gt; &lt;base64 content or -&gt;: a commit request.</li>
+ *     <li>A &lt;id&gt; &lt;version&gt;: the request was committed as version.</li>
+ * </ul>
+ * Requests are written with writeRequest() and made durable with sync(), concurrent writers share one fsync (group commit).
+ * Acks are not fsynced: a lost ack only makes the replay check whether the request was committed.
+ * A torn record at the end (a crash during the append) is cut off on open, its request was never acknowledged to anyone.
+ */
+final class CommitJournal implements Closeable {
+    static final String JOURNAL_FILE = "journal.log";
+    private static final String LOCK_FILE = "journal.lock";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final char BASE = 'B';
+    private static final char REQUEST = 'C';
+    private static final char ACK = 'A';
+    private static final String NO_CONTENT = "-";
+
+    /**
+     * A request that was appended but not acknowledged.
+     */
+    static final class Entry {
+        final String id;
+        final String content;
+        // The end of its record, durable once synced covers it.
+        final long position;
+
+        Entry(String id, String content, long position) {
+            this.id = id;
+            this.content = content;
+            this.position = position;
+        }
+    }
+
+    private final Path file;
+    private FileChannel channel;
+    // Held as long as the journal is open, so that two processes never drain one journal.
+    private FileChannel lockChannel;
+    private long lastAckedVersion = -1L;
+    private final Map<String,Entry> pending = new LinkedHashMap<>();
+    // Group commit: bytes written, bytes known to be on disk (both count on across rewrites), and whether somebody is fsyncing.
+    private long written;
+    private long synced;
+    private boolean syncing;
+
+    private CommitJournal(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @param latestCommitted asked only if the journal does not exist yet, becomes its B record.
+     * @throws IllegalStateException if another process has the journal open.
+     */
+    static CommitJournal open(Path dir, LatestVersion latestCommitted) throws IOException {
+        Files.createDirectories(dir);
+        CommitJournal journal = new CommitJournal(dir.resolve(JOURNAL_FILE));
+        journal.lockChannel = FileChannel.open(dir.resolve(LOCK_FILE),StandardOpenOption.CREATE,StandardOpenOption.WRITE);
+        try{
+            FileLock processLock = journal.lockChannel.tryLock();
+            if(processLock == null){
+                throw new IllegalStateException("journal "+journal.file+" is used by another process");
+            }
+            // The temp file of an interrupted rewrite, the journal it was meant to replace is still complete.
+            Files.deleteIfExists(dir.resolve(JOURNAL_FILE+TEMP_SUFFIX));
+            boolean created = !Files.exists(journal.file);
+            journal.channel = FileChannel.open(journal.file,StandardOpenOption.CREATE,StandardOpenOption.READ,StandardOpenOption.WRITE);
+            if(created || journal.channel.size() == 0){
+                journal.append(BASE+" "+latestCommitted.get(),true);
+            }else{
+                journal.recover();
+            }
+        }catch (IOException | RuntimeException e){
+            journal.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    interface LatestVersion {
+        long get() throws IOException;
+    }
+
+    private void recover() throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        int start = 0;
+        while(start < bytes.length){
+            int end = start;
+            while(end < bytes.length && bytes[end] != '\n'){
+                end++;
+            }
+            String record = end < bytes.length ? verify(new String(bytes,start,end-start,StandardCharsets.UTF_8)) : null;
+            if(record == null){
+                break;
+            }
+            apply(record);
+            start = end+1;
+        }
+        if(start < bytes.length){
+            // A torn tail.
+            channel.truncate(start);
+            channel.force(true);
+        }
+        written = start;
+        synced = start;
+        channel.position(start);
+    }
+
+    private void apply(String record) {
+        String[] fields = record.split(" ");
+        switch (fields[0].charAt(0)){
+            case BASE:
+                lastAckedVersion = Math.max(lastAckedVersion,Long.parseLong(fields[1]));
+                break;
+            case REQUEST:
+                String content = NO_CONTENT.equals(fields[2]) ? null : new String(Base64.getDecoder().decode(fields[2]),StandardCharsets.UTF_8);
+                pending.put(fields[1],new Entry(fields[1],content,0L));
+                break;
+            case ACK:
+                pending.remove(fields[1]);
+                lastAckedVersion = Math.max(lastAckedVersion,Long.parseLong(fields[2]));
+                break;
+            default:
+                throw new IllegalStateException("unknown journal record: "+record);
+        }
+    }
+
+    /**
+     * @return the record without its checksum, null if the checksum does not match.
+     */
+    private static String verify(String line) {
+        int separator = line.lastIndexOf(' ');
+        if(separator <= 0){
+            return null;
+        }
+        String record = line.substring(0,separator);
+        return checksum(record).equals(line.substring(separator+1)) ? record : null;
+    }
+
+    private static String checksum(String record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Requests of the previous run that were not acknowledged, in append order.
+     */
+    synchronized List<Entry> getPending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * Every version up to this one was committed before the oldest pending request could have been.
+     */
+    synchronized long getLastAckedVersion() {
+        return lastAckedVersion;
+    }
+
+    /**
+     * Writes the request, it is durable once {@link #sync(long)} returned for its position.
+     */
+    synchronized Entry writeRequest(String id, String content) throws IOException {
+        String encoded = content == null ? NO_CONTENT : Base64.getEncoder().encodeToString(content.getBytes(StandardCharsets.UTF_8));
+        long position = append(REQUEST+" "+id+" "+encoded,false);
+        Entry entry = new Entry(id,content,position);
+        pending.put(id,entry);
+        return entry;
+    }
+
+    synchronized boolean isDurable(Entry entry) {
+        return synced >= entry.position;
+    }
+
+    void appendAck(String id, long version) throws IOException {
+        synchronized (this){
+            pending.remove(id);
+            lastAckedVersion = Math.max(lastAckedVersion,version);
+        }
+        append(ACK+" "+id+" "+version,false);
+    }
+
+    private long append(String record, boolean durable) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((record+" "+checksum(record)+"\n").getBytes(StandardCharsets.UTF_8));
+        long target;
+        synchronized (this){
+            written += buffer.remaining();
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            target = written;
+        }
+        if(durable){
+            sync(target);
+        }
+        return target;
+    }
+
+    /**
+     * The first caller that finds nobody syncing fsyncs everything written so far, the others wait for it.
+     */
+    void sync(long target) throws IOException {
+        synchronized (this){
+            while(synced < target){
+                if(!syncing){
+                    syncing = true;
+                    break;
+                }
+                try{
+                    wait();
+                }catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for the journal fsync");
+                }
+            }
+            if(synced >= target){
+                return;
+            }
+        }
+        long covered;
+        synchronized (this){
+            covered = written;
+        }
+        try{
+            channel.force(false);
+            synchronized (this){
+                synced = Math.max(synced,covered);
+            }
+        }finally {
+            synchronized (this){
+                syncing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Replaces the journal by one that only holds the pending requests, so it does not grow forever.
+     * The new file is complete and on disk before it replaces the old one.
+     */
+    synchronized void rewrite() throws IOException {
+        // Wait for a running group fsync before taking the snapshot, it must not force the channel we are about to close.
+        // From here on we keep the monitor until the swap, so no request is written to the old file after the snapshot.
+        while(syncing){
+            try{
+                wait();
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for the journal fsync");
+            }
+        }
+        Path temp = file.resolveSibling(JOURNAL_FILE+TEMP_SUFFIX);
+        StringBuilder content = new StringBuilder();
+        String base = BASE+" "+lastAckedVersion;
+        content.append(base).append(' ').append(checksum(base)).append('\n');
+        for (Entry entry : pending.values()) {
+            String encoded = entry.content == null ? NO_CONTENT : Base64.getEncoder().encodeToString(entry.content.getBytes(StandardCharsets.UTF_8));
+            String record = REQUEST+" "+entry.id+" "+encoded;
+            content.append(record).append(' ').append(checksum(record)).append('\n');
+        }
+        try(FileChannel out = FileChannel.open(temp,StandardOpenOption.CREATE_NEW,StandardOpenOption.WRITE)){
+            ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while(buffer.hasRemaining()){
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temp,file,StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+        GroupFsync.forceDirectory(file.getParent());
+        channel.close();
+        channel = FileChannel.open(file,StandardOpenOption.READ,StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        // Every request written so far is in the new file, which is on disk.
+        synced = written;
+    }
+
+    /**
+     * The size of the journal file.
+     */
+    synchronized long size() throws IOException {
+        return channel.position();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try{
+            if(channel != null){
+                channel.close();
+            }
+        }finally {
+            // Closing the channel releases the lock.
+            lockChannel.close();
+        }
+    }
+}
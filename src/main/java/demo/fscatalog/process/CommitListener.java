@@ -0,0 +1,50 @@
+package demo.fscatalog.process;
+
+/**
+ * Observes the decisions FileTrackerCommitStrategyV2 takes during one commit attempt.
+ * Used by the ContentionSimulator, every method is called on the committing thread and must be cheap.
+ */
+public interface CommitListener {
+    CommitListener NONE = new CommitListener() {
+    };
+
+    /**
+     * Where a commit attempt gave up with a ConcurrentModificationException.
+     */
+    enum ConflictPhase {
+        /**
+         * The sub-version already had commit files when we arrived, someone else is (or was) committing it.
+         */
+        EXISTING_COMMIT,
+        /**
+         * After writing our PRE_COMMIT file, another client's file showed up next to it.
+         */
+        AFTER_PRE_COMMIT,
+        /**
+         * After writing our commit file, another client's file showed up next to it.
+         */
+        AFTER_COMMIT,
+        /**
+         * The COMMIT-HINT of the version was already written by somebody else.
+         */
+        COMMIT_HINT
+    }
+
+    default void onConflict(ConflictPhase phase, long version, long subVersion) {
+    }
+
+    /**
+     * We wrote the EXPIRED-HINT of a sub-version. Not called if another client had already written it.
+     */
+    default void onSubVersionExpired(long version, long subVersion) {
+    }
+
+    /**
+     * We wrote the COMMIT-HINT for a commit another client completed but did not finish.
+     */
+    default void onCommitHintRepaired(long version, long subVersion) {
+    }
+
+    default void onCommitted(long version, long subVersion) {
+    }
+}
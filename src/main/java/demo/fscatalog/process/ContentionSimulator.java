@@ -0,0 +1,377 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileListing;
+import demo.fscatalog.io.impl.CountingFileIO;
+import demo.fscatalog.io.impl.LocalFileIO;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets N clients commit against one table root at the same time and reports what the contention cost.
+ * This is the testLocalFileTrackerWithConcurrent experiment of readme.md (10 clients x 100 commits), made repeatable.
+ * <p>
+ * Every client makes the same number of commit attempts, a failed attempt is not retried.
+ * Clients are threads of this JVM (mode=threads), or one forked JVM each (mode=processes), which is closer to real clients:
+ * no shared FileIO, no shared id generator, separate clocks for the JIT.
+ * <p>
+ * Usage: ContentionSimulator [--root=dir] [--clients=10] [--commits=100] [--mode=threads|processes] [--fsyncMode=file] [--lock=false]
+ * <br>
+ * Without --root a new temp directory is used. With --lock=true clients use the LockingCommitStrategy.
+ */
+public class ContentionSimulator {
+    public static final String MODE_THREADS = "threads";
+    public static final String MODE_PROCESSES = "processes";
+    private static final String WORKER = "--worker";
+    private static final String RESULT_PREFIX = "RESULT ";
+    private static final long LOCK_TTL = 10L * 1000;
+    private static final long LOCK_TIMEOUT = 60L * 1000;
+
+    public static void main(String[] args) throws Exception {
+        Map<String,String> options = parseOptions(args);
+        if(options.containsKey(WORKER)){
+            runWorker(options);
+            return;
+        }
+        String root = options.get("root");
+        if(root == null){
+            root = Files.createTempDirectory("fscatalog-contention").toString();
+        }
+        File tableDir = new File(root,"table");
+        // Created first: File.toURI() only ends with '/' for an existing directory, and every path of the table is resolved against it.
+        tableDir.mkdirs();
+        URI tableRoot = tableDir.toURI();
+        int clients = Integer.parseInt(options.getOrDefault("clients","10"));
+        int commits = Integer.parseInt(options.getOrDefault("commits","100"));
+        String mode = options.getOrDefault("mode",MODE_THREADS);
+        Map<String,String> properties = new HashMap<>();
+        properties.put(LocalFileIO.FSYNC_MODE,options.getOrDefault("fsyncMode",LocalFileIO.FSYNC_FILE));
+        boolean lock = Boolean.parseBoolean(options.getOrDefault("lock","false"));
+
+        Report report;
+        long start = System.nanoTime();
+        if(MODE_PROCESSES.equals(mode)){
+            report = runProcesses(tableRoot,clients,commits,properties,lock);
+        }else if(MODE_THREADS.equals(mode)){
+            report = runThreads(tableRoot,clients,commits,properties,lock);
+        }else{
+            throw new IllegalArgumentException("unknown mode "+mode);
+        }
+        long elapsed = System.nanoTime()-start;
+        System.out.println("table: "+tableRoot);
+        System.out.println("mode: "+mode+", clients: "+clients+", commits per client: "+commits+(lock ? ", lock-then-commit" : ""));
+        System.out.println(report.format(TimeUnit.NANOSECONDS.toMillis(elapsed)));
+        System.out.println(verify(tableRoot,properties,report));
+    }
+
+    private static Report runThreads(URI tableRoot, int clients, int commits, Map<String,String> properties, boolean lock) throws Exception {
+        LocalFileIO localFileIO = new LocalFileIO();
+        localFileIO.init(properties);
+        CountingFileIO fileIO = new CountingFileIO(localFileIO);
+        fileIO.createDirectory(tableRoot);
+        CountDownLatch start = new CountDownLatch(1);
+        Report[] reports = new Report[clients];
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            final int client = i;
+            reports[client] = new Report(commits);
+            threads[client] = new Thread(()->{
+                try{
+                    start.await();
+                    runClient(fileIO,tableRoot,reports[client],lock);
+                }catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+            },"contention-client-"+client);
+            threads[client].start();
+        }
+        start.countDown();
+        Report report = new Report(0);
+        for (int i = 0; i < clients; i++) {
+            threads[i].join();
+            report.merge(reports[i]);
+        }
+        report.storageOperations = fileIO.getTotalCount();
+        fileIO.close();
+        return report;
+    }
+
+    private static Report runProcesses(URI tableRoot, int clients, int commits, Map<String,String> properties, boolean lock) throws Exception {
+        new File(tableRoot).mkdirs();
+        String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+        // Give every JVM time to start, so that they really commit at the same time.
+        long startAt = System.currentTimeMillis()+2000L+clients*100L;
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            ProcessBuilder builder = new ProcessBuilder(java,
+                    "-cp",System.getProperty("java.class.path"),
+                    ContentionSimulator.class.getName(),
+                    WORKER,
+                    "--table="+tableRoot,
+                    "--commits="+commits,
+                    "--startAt="+startAt,
+                    "--fsyncMode="+properties.get(LocalFileIO.FSYNC_MODE),
+                    "--lock="+lock);
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            processes.add(builder.start());
+        }
+        Report report = new Report(0);
+        for (Process process : processes) {
+            String result = null;
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),StandardCharsets.UTF_8))){
+                String line;
+                while((line = reader.readLine())!=null){
+                    if(line.startsWith(RESULT_PREFIX)){
+                        result = line.substring(RESULT_PREFIX.length());
+                    }
+                }
+            }
+            int exitCode = process.waitFor();
+            if(exitCode != 0 || result == null){
+                throw new IllegalStateException("worker failed, exit code "+exitCode);
+            }
+            report.merge(Report.parse(result));
+        }
+        return report;
+    }
+
+    private static void runWorker(Map<String,String> options) throws Exception {
+        URI tableRoot = URI.create(options.get("table"));
+        int commits = Integer.parseInt(options.get("commits"));
+        long startAt = Long.parseLong(options.get("startAt"));
+        Map<String,String> properties = new HashMap<>();
+        properties.put(LocalFileIO.FSYNC_MODE,options.get("fsyncMode"));
+        LocalFileIO localFileIO = new LocalFileIO();
+        localFileIO.init(properties);
+        CountingFileIO fileIO = new CountingFileIO(localFileIO);
+        long wait = startAt-System.currentTimeMillis();
+        if(wait > 0){
+            Thread.sleep(wait);
+        }
+        Report report = new Report(commits);
+        runClient(fileIO,tableRoot,report,Boolean.parseBoolean(options.get("lock")));
+        report.storageOperations = fileIO.getTotalCount();
+        fileIO.close();
+        System.out.println(RESULT_PREFIX+report.serialize());
+    }
+
+    private static void runClient(FileIO fileIO, URI tableRoot, Report report, boolean lock) {
+        CommitStrategy strategy = new FileTrackerCommitStrategyV2(report);
+        if(lock){
+            strategy = new LockingCommitStrategy((FileTrackerCommitStrategyV2) strategy,LOCK_TTL,LOCK_TIMEOUT);
+        }
+        for (int i = 0; i < report.commitLatencies.length; i++) {
+            long start = System.nanoTime();
+            boolean committed = false;
+            try{
+                strategy.commit(fileIO,tableRoot);
+                committed = true;
+            }catch (ConcurrentModificationException e){
+                // The phase is counted by the listener, the rest are lock timeouts.
+                report.rejections++;
+            }catch (Exception e){
+                report.otherErrors++;
+            }
+            long latency = System.nanoTime()-start;
+            report.attemptLatencies[report.attempts++] = latency;
+            if(committed){
+                report.commitLatencies[report.successes++] = latency;
+            }
+        }
+    }
+
+    /**
+     * Compare the report with what is on disk: every success and every repaired hint must have left exactly one COMMIT-HINT.
+     * Old commit directories are only cleaned after 10 minutes, so for a normal run nothing is missing.
+     */
+    private static String verify(URI tableRoot, Map<String,String> properties, Report report) throws IOException {
+        LocalFileIO fileIO = new LocalFileIO();
+        fileIO.init(properties);
+        FileListing listing = fileIO.listFiles(tableRoot.resolve("commit/"),true);
+        long hints = listing.select(i->listing.nameEquals(i,FileTrackerCommitStrategyV2.COMMIT_HINT)).size();
+        long expected = report.successes+report.hintRepairs;
+        fileIO.close();
+        return "COMMIT-HINT files on disk: "+hints+", expected (successes + repairs): "+expected
+                +(hints == expected ? " OK" : " MISMATCH");
+    }
+
+    private static Map<String,String> parseOptions(String[] args) {
+        Map<String,String> options = new HashMap<>();
+        for (String arg : args) {
+            if(WORKER.equals(arg)){
+                options.put(WORKER,"true");
+                continue;
+            }
+            if(!arg.startsWith("--") || arg.indexOf('=') < 0){
+                throw new IllegalArgumentException("expected --key=value, got "+arg);
+            }
+            int separator = arg.indexOf('=');
+            options.put(arg.substring(2,separator),arg.substring(separator+1));
+        }
+        return options;
+    }
+
+    /**
+     * The numbers of one client, or the merged numbers of all clients.
+     * Listener callbacks come from the client's own thread, so no synchronization is needed.
+     */
+    private static final class Report implements CommitListener {
+        private long[] attemptLatencies;
+        private long[] commitLatencies;
+        private int attempts;
+        private int successes;
+        private long otherErrors;
+        private long rejections;
+        private final long[] conflicts = new long[ConflictPhase.values().length];
+        private long expiredSubVersions;
+        private long hintRepairs;
+        private long storageOperations;
+
+        private Report(int commits) {
+            this.attemptLatencies = new long[commits];
+            this.commitLatencies = new long[commits];
+        }
+
+        @Override
+        public void onConflict(ConflictPhase phase, long version, long subVersion) {
+            conflicts[phase.ordinal()]++;
+        }
+
+        @Override
+        public void onSubVersionExpired(long version, long subVersion) {
+            expiredSubVersions++;
+        }
+
+        @Override
+        public void onCommitHintRepaired(long version, long subVersion) {
+            hintRepairs++;
+        }
+
+        private void merge(Report other) {
+            attemptLatencies = concat(attemptLatencies,attempts,other.attemptLatencies,other.attempts);
+            commitLatencies = concat(commitLatencies,successes,other.commitLatencies,other.successes);
+            attempts += other.attempts;
+            successes += other.successes;
+            otherErrors += other.otherErrors;
+            rejections += other.rejections;
+            for (int i = 0; i < conflicts.length; i++) {
+                conflicts[i] += other.conflicts[i];
+            }
+            expiredSubVersions += other.expiredSubVersions;
+            hintRepairs += other.hintRepairs;
+            storageOperations += other.storageOperations;
+        }
+
+        private static long[] concat(long[] a, int aLength, long[] b, int bLength) {
+            long[] result = Arrays.copyOf(a,aLength+bLength);
+            System.arraycopy(b,0,result,aLength,bLength);
+            return result;
+        }
+
+        private String serialize() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(otherErrors).append(' ')
+                    .append(rejections).append(' ')
+                    .append(expiredSubVersions).append(' ')
+                    .append(hintRepairs).append(' ')
+                    .append(storageOperations);
+            for (long conflict : conflicts) {
+                sb.append(' ').append(conflict);
+            }
+            sb.append(" |");
+            for (int i = 0; i < attempts; i++) {
+                sb.append(' ').append(attemptLatencies[i]);
+            }
+            sb.append(" |");
+            for (int i = 0; i < successes; i++) {
+                sb.append(' ').append(commitLatencies[i]);
+            }
+            return sb.toString();
+        }
+
+        private static Report parse(String line) {
+            String[] parts = line.split("\\|",-1);
+            long[] counters = parseLongs(parts[0]);
+            long[] attemptLatencies = parseLongs(parts[1]);
+            long[] commitLatencies = parseLongs(parts[2]);
+            Report report = new Report(0);
+            report.otherErrors = counters[0];
+            report.rejections = counters[1];
+            report.expiredSubVersions = counters[2];
+            report.hintRepairs = counters[3];
+            report.storageOperations = counters[4];
+            System.arraycopy(counters,5,report.conflicts,0,report.conflicts.length);
+            report.attemptLatencies = attemptLatencies;
+            report.attempts = attemptLatencies.length;
+            report.commitLatencies = commitLatencies;
+            report.successes = commitLatencies.length;
+            return report;
+        }
+
+        private static long[] parseLongs(String part) {
+            String trimmed = part.trim();
+            if(trimmed.isEmpty()){
+                return new long[0];
+            }
+            String[] values = trimmed.split(" ");
+            long[] result = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = Long.parseLong(values[i]);
+            }
+            return result;
+        }
+
+        private String format(long elapsedMs) {
+            StringBuilder sb = new StringBuilder();
+            long phaseConflicts = 0;
+            for (long conflict : conflicts) {
+                phaseConflicts += conflict;
+            }
+            sb.append(String.format(Locale.ROOT,"attempts: %d, committed: %d (%.1f%%), conflicts: %d, other errors: %d, elapsed: %d ms%n",
+                    attempts,successes,attempts == 0 ? 0.0 : 100.0*successes/attempts,rejections,otherErrors,elapsedMs));
+            sb.append("conflicts by phase:");
+            for (ConflictPhase phase : ConflictPhase.values()) {
+                sb.append(' ').append(phase).append('=').append(conflicts[phase.ordinal()]);
+            }
+            sb.append(" LOCK_TIMEOUT=").append(rejections-phaseConflicts);
+            sb.append(System.lineSeparator());
+            sb.append("EXPIRED sub-versions: ").append(expiredSubVersions)
+                    .append(", COMMIT-HINT repairs: ").append(hintRepairs).append(System.lineSeparator());
+            sb.append(String.format(Locale.ROOT,"storage operations: %d, per committed: %s%n",storageOperations,
+                    successes == 0 ? "-" : String.format(Locale.ROOT,"%.1f",(double)storageOperations/successes)));
+            sb.append("committed latency ").append(percentiles(commitLatencies,successes)).append(System.lineSeparator());
+            sb.append("attempt latency   ").append(percentiles(attemptLatencies,attempts));
+            return sb.toString();
+        }
+
+        private static String percentiles(long[] latencies, int length) {
+            if(length == 0){
+                return "-";
+            }
+            long[] sorted = Arrays.copyOf(latencies,length);
+            Arrays.sort(sorted);
+            return String.format(Locale.ROOT,"p50: %.2f ms, p99: %.2f ms, p999: %.2f ms, max: %.2f ms",
+                    percentile(sorted,0.5),percentile(sorted,0.99),percentile(sorted,0.999),sorted[length-1]/1e6);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            int index = (int)Math.ceil(p*sorted.length)-1;
+            return sorted[Math.max(0,index)]/1e6;
+        }
+    }
+}
@@ -1,12 +1,21 @@
 package demo.fscatalog.process;
 
 import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.ThrottledException;
 import demo.fscatalog.io.entity.FileEntity;
+import demo.fscatalog.io.entity.FileListing;
+import demo.fscatalog.io.util.IoPriority;
+import demo.fscatalog.io.util.StorageTiming;
 import demo.fscatalog.io.util.UniIdUtils;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -27,27 +36,87 @@ public class FileTrackerCommitStrategyV2 implements CommitStrategy{
     private static final Integer archiveBatchCleanMaxSize = 20;
     private static final long TTL_PRE_COMMIT = 30*1000L;
     // just demo,no config
+    private static final long HEARTBEAT_INTERVAL = 500L;
+    private static final long HEARTBEAT_TTL = 3*HEARTBEAT_INTERVAL;
+    // just demo,no config
+    private static final int MIN_TIMING_SAMPLES = 32;
+    private static final double LATENCY_QUANTILE = 0.999;
+    private static final long LATENCY_SAFETY_FACTOR = 4L;
+    private static final long MIN_TTL_PRE_COMMIT = 5*1000L;
+    // Writes and listings of a live writer between its PRE_COMMIT and the COMMIT-HINT.
+    private static final long COMMIT_ROUND_TRIPS = 5L;
+    // just demo,no config
     private static final long CLEAN_TTL = 60L * 1000 * 10;
+    // just demo,no config
+    private static final long INDEX_COMPACT_INTERVAL = 50L;
+    private static final long SHARD_RETIRE_INTERVAL = 100L;
+    private static final Pattern COMMIT_ID = Pattern.compile("[0-9A-Za-z_-]+");
+    // Compaction reads the log records of INDEX_COMPACT_INTERVAL versions, too slow for the commit path.
+    // One thread per JVM, a table that is already waiting for it is not queued again.
+    private static final ExecutorService INDEX_COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r,"index-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Set<URI> COMPACTING = ConcurrentHashMap.newKeySet();
+
+    private final CommitListener listener;
+    // The layout of a table is read once per root, changing it needs all writers stopped (see TableLayoutMigrator).
+    private final Map<URI,TableLayout> layouts = new ConcurrentHashMap<>();
+
+    public FileTrackerCommitStrategyV2() {
+        this(CommitListener.NONE);
+    }
+
+    public FileTrackerCommitStrategyV2(CommitListener listener) {
+        this.listener = listener;
+    }
 
     @Override
     public void commit(FileIO fileIO, URI rootPath) throws Exception {
-        URI trackerDir = rootPath.resolve("tracker/");
+        commit(fileIO,rootPath,null);
+    }
+
+    /**
+     * @param content what the commit file contains, its own name if null.
+     * @return the committed version.
+     */
+    public long commit(FileIO fileIO, URI rootPath, String content) throws Exception {
+        return commit(fileIO,rootPath,content,null,Long.MAX_VALUE);
+    }
+
+    /**
+     * Idempotent retries, e.g. for JournaledCommitter. An earlier attempt with the same commit id that failed after writing
+     * its commit file may still become committed (another client repairs its COMMIT-HINT). So before retrying, the caller
+     * looks for the id among the versions committed so far (VersionLocation.getCommitFileName()), and if it is not there,
+     * retries with maxVersion set to the version after the last one it looked at. The earlier attempt can only be pending
+     * in that version, so the retry either finds it there (and repairs it right away, it is known to be dead) or would
+     * commit a later version only after that one got committed by somebody, which maxVersion refuses.
+     *
+     * @param commitId names the commit file (commitId.txt), a new time ordered id if null.
+     *                 A previous attempt with the same id must have ended, it is treated as abandoned.
+     * @param maxVersion fail with ConcurrentModificationException instead of committing a later version, Long.MAX_VALUE for no limit.
+     * @return the committed version.
+     */
+    public long commit(FileIO fileIO, URI rootPath, String content, String commitId, long maxVersion) throws Exception {
+        if(commitId != null && (!COMMIT_ID.matcher(commitId).matches() || commitId.startsWith(PRE_COMMIT_PREFIX))){
+            throw new IllegalArgumentException("invalid commit id: "+commitId);
+        }
+        URI trackerDir = rootPath.resolve(TableLayout.TRACKER);
         URI commitDirRoot = rootPath.resolve("commit/");
-        URI archiveDir = rootPath.resolve("archive/");
+        URI archiveDir = rootPath.resolve(TableLayout.ARCHIVE);
 
+        StorageTiming timing = StorageTiming.of(fileIO);
+        TableLayout layout = layoutOf(fileIO,rootPath);
         fileIO.createDirectory(trackerDir);
         fileIO.createDirectory(commitDirRoot);
         fileIO.createDirectory(archiveDir);
 
-        List<FileEntity> trackerList = fileIO.listAllFiles(trackerDir,false);
-        long maxCommitVersion = trackerList
-                .stream()
-                .map(x->Long.parseLong(x.getFileName().split("\\.")[0]))
-                .max(Long::compareTo)
-                .orElse(0L);
+        VersionIndex trackerList = layout.listNewest(fileIO,rootPath,TableLayout.TRACKER);
+        long maxCommitVersion = trackerList.maxVersion(0L);
 
-        URI trackerFile = trackerDir.resolve(maxCommitVersion+".txt");
-        URI commitRootDirWithTracker = commitDirRoot.resolve(maxCommitVersion+"/");
+        URI trackerFile = layout.versionDir(rootPath,TableLayout.TRACKER,maxCommitVersion).resolve(maxCommitVersion+".txt");
+        URI commitRootDirWithTracker = layout.commitDir(rootPath,maxCommitVersion);
 
         URI commitSubTrackerDir = commitRootDirWithTracker.resolve("sub-tracker/");
         URI commitSubHintDir = commitRootDirWithTracker.resolve("sub-hint/");
@@ -66,29 +135,29 @@ public class FileTrackerCommitStrategyV2 implements CommitStrategy{
         if(fileIO.exists(commitSubHintFile)){
             maxCommitVersion++;
             // Scroll forward once.
-            trackerFile = trackerDir.resolve(maxCommitVersion+".txt");
-            commitRootDirWithTracker = commitDirRoot.resolve(maxCommitVersion+"/");
+            trackerFile = layout.versionDir(rootPath,TableLayout.TRACKER,maxCommitVersion).resolve(maxCommitVersion+".txt");
+            commitRootDirWithTracker = layout.commitDir(rootPath,maxCommitVersion);
 
             commitSubTrackerDir = commitRootDirWithTracker.resolve("sub-tracker/");
             commitSubHintDir = commitRootDirWithTracker.resolve("sub-hint/");
             commitSubHintFile = commitSubHintDir.resolve(COMMIT_HINT);
         }
+        if(maxCommitVersion > maxVersion){
+            throw new ConcurrentModificationException("Version "+maxVersion+" was committed by another client!");
+        }
 
 
         if(!fileIO.exists(trackerFile)){
-            fileIO.writeFileWithoutGuarantees(trackerFile,maxCommitVersion+"");
+            layout.prepareWrite(fileIO,rootPath,TableLayout.TRACKER,maxCommitVersion);
+            writeIfAbsent(fileIO,trackerFile,maxCommitVersion+"");
         }
 
         fileIO.createDirectory(commitRootDirWithTracker);
         fileIO.createDirectory(commitSubTrackerDir);
         fileIO.createDirectory(commitSubHintDir);
 
-        List<FileEntity> subTrackerList =fileIO.listAllFiles(commitSubTrackerDir,false);
-        long subCommitVersion = subTrackerList
-                .stream()
-                .map(x->Long.parseLong(x.getFileName().split("\\.")[0]))
-                .max(Long::compareTo)
-                .orElse(0L);
+        VersionIndex subTrackerList = VersionIndex.fromListing(fileIO.listFiles(commitSubTrackerDir,false));
+        long subCommitVersion = subTrackerList.maxVersion(0L);
 
         URI subTrackerFile = commitSubTrackerDir.resolve(subCommitVersion+".txt");
         URI commitDetailDir = commitRootDirWithTracker.resolve(subCommitVersion+"/");
@@ -100,84 +169,266 @@ public class FileTrackerCommitStrategyV2 implements CommitStrategy{
             commitDetailDir = commitRootDirWithTracker.resolve(subCommitVersion+"/");
             commitDetailExpireHint = commitDetailDir.resolve(EXPIRED_HINT);
         }
+        URI heartbeatDir = commitRootDirWithTracker.resolve("heartbeat/"+subCommitVersion+"/");
 
         if(!fileIO.exists(subTrackerFile)){
-            fileIO.writeFileWithoutGuarantees(subTrackerFile,subCommitVersion+"");
+            writeIfAbsent(fileIO,subTrackerFile,subCommitVersion+"");
         }
         fileIO.createDirectory(commitDetailDir);
-        List<FileEntity> commitDetails = fileIO.listAllFiles(commitDetailDir,false);
+        FileListing commitDetails = fileIO.listFiles(commitDetailDir,false);
         if(!commitDetails.isEmpty()){
-            Map<String,List<FileEntity>> groupedCommitInfo = getCommitInfoByCommitGroup(commitDetails);
+            Map<String,List<FileEntity>> groupedCommitInfo = getCommitInfoByCommitGroup(commitDetails.toFileEntities());
             List<List<FileEntity>> counter = groupedCommitInfo.values().stream().filter(x->x.size()==1).collect(Collectors.toList());
 
             // If we find multiple files starting with PRE-COMMIT, it means multiple clients are submitting simultaneously.
             // This submission will definitely fail. After writing EXPIRE, we will roll back.
             if(counter.size()==groupedCommitInfo.size() && groupedCommitInfo.size()>1){
-                fileIO.writeFileWithoutGuarantees(commitDetailExpireHint,"EXPIRED!");
+                if(writeIfAbsent(fileIO,commitDetailExpireHint,"EXPIRED!")){
+                    listener.onSubVersionExpired(maxCommitVersion,subCommitVersion);
+                }
+                listener.onConflict(CommitListener.ConflictPhase.EXISTING_COMMIT,maxCommitVersion,subCommitVersion);
                 throw new ConcurrentModificationException("ConcurrentModificationException!");
             }
 
-            long latestCommitTimestamp = commitDetails.stream().map(FileEntity::getLastModified).max(Long::compareTo).orElse(Long.MAX_VALUE);
-            String commitFileName = groupedCommitInfo.keySet().stream().findAny().orElse(null);
+            long latestCommitTimestamp = commitDetails.maxLastModified();
             //If a client completes the two-phase commit but fails to write the VERSION-HINT,
             // and if only one client has written the two-phase commit file, then supplementally write the VERSION-HINT once.
             // Otherwise, write an EXPIRE marker and roll over to the next commit space.
-            if(System.currentTimeMillis() - latestCommitTimestamp > TTL_PRE_COMMIT && !fileIO.exists(commitSubHintFile)){
-                if(groupedCommitInfo.size()==1 && groupedCommitInfo.get(commitFileName).size()==2){
+            // We do not have to wait for the pre-commit TTL if the heartbeats show that no writer of this sub-version is alive any more.
+            // Storage timestamps are compared with the earliest possible storage time, so clock skew never makes us expire early.
+            long now = timing.getClock().minStorageNow();
+            boolean abandoned = (commitId != null && groupedCommitInfo.containsKey(commitId+".txt"))
+                    || now - latestCommitTimestamp > preCommitTtl(timing)
+                    || !hasLiveWriter(fileIO,timing,heartbeatDir,groupedCommitInfo,now);
+            if(abandoned && !fileIO.exists(commitSubHintFile)){
+                String commitFileName = groupedCommitInfo.size()==1 ? groupedCommitInfo.keySet().iterator().next() : null;
+                if(commitFileName != null && groupedCommitInfo.get(commitFileName).size()==2){
                     // If there is only one group, it may indicate that the previous client encountered an IO exception and failed.
                     // Since there is no concurrency issue,
                     // we will supplement the HINT information once. Then, exit with a failure.
                     String hintInfo = commitFileName+"@"+subCommitVersion;
-                    fileIO.writeFileWithoutGuarantees(commitSubHintFile,hintInfo);
+                    if(writeIfAbsent(fileIO,commitSubHintFile,hintInfo)){
+                        listener.onCommitHintRepaired(maxCommitVersion,subCommitVersion);
+                    }
                     URI debugFile = commitSubHintDir.resolve(commitFileName);
                     // Debug which clients successfully submitted in the end.
                     // If we find that the number of debug files in the commit folder is greater than 1, then there is an issue.
-                    fileIO.writeFileWithoutGuarantees(debugFile,commitFileName);
-                }else{
-                    fileIO.writeFileWithoutGuarantees(commitDetailExpireHint,"EXPIRED!");
+                    writeIfAbsent(fileIO,debugFile,commitFileName);
+                    recordInIndex(fileIO,rootPath,new VersionLocation(maxCommitVersion,subCommitVersion,commitFileName,latestCommitTimestamp));
+                }else if(writeIfAbsent(fileIO,commitDetailExpireHint,"EXPIRED!")){
+                    listener.onSubVersionExpired(maxCommitVersion,subCommitVersion);
                 }
             }
+            listener.onConflict(CommitListener.ConflictPhase.EXISTING_COMMIT,maxCommitVersion,subCommitVersion);
             throw new ConcurrentModificationException("ConcurrentModificationException!");
         }
-        String commitFileName = UniIdUtils.getUniId()+".txt";
+        String commitFileName = (commitId == null ? UniIdUtils.getUniId(UniIdUtils.TIME_ORDERED) : commitId)+".txt";
         String preCommitFileName = PRE_COMMIT_PREFIX+commitFileName;
         URI preCommitFile = commitDetailDir.resolve(preCommitFileName);
         URI commitFile = commitDetailDir.resolve(commitFileName);
-        fileIO.writeFileWithoutGuarantees(preCommitFile,preCommitFileName);
-        commitDetails = fileIO.listAllFiles(commitDetailDir,false)
-                .stream()
-                .filter(x->!x.getFileName().equals(preCommitFileName))
-                .collect(Collectors.toList());
-        if(!commitDetails.isEmpty()){
-//            long latestCommitTimestamp = commitDetails.stream().map(FileEntity::getLastModified).max(Long::compareTo).orElse(Long.MAX_VALUE);
-//            if(System.currentTimeMillis() - latestCommitTimestamp > TTL_PRE_COMMIT){
-//                fileIO.writeFile(commitDetailExpireHint,"EXPIRED!",false);
-//            }
-            throw new ConcurrentModificationException("ConcurrentModificationException!");
-        }
-        fileIO.writeFileWithoutGuarantees(commitFile,commitFileName);
-        commitDetails = fileIO.listAllFiles(commitDetailDir,false)
-                .stream()
-                .filter(x->!x.getFileName().equals(preCommitFileName))
-                .filter(x->!x.getFileName().equals(commitFileName))
-                .collect(Collectors.toList());
-        if(!commitDetails.isEmpty()){
-//            long latestCommitTimestamp = commitDetails.stream().map(FileEntity::getLastModified).max(Long::compareTo).orElse(Long.MAX_VALUE);
-//            if(System.currentTimeMillis() - latestCommitTimestamp > TTL_PRE_COMMIT){
-//                fileIO.writeFile(commitDetailExpireHint,"EXPIRED!",false);
-//            }
-            throw new ConcurrentModificationException("ConcurrentModificationException!");
+        // Started before the PRE_COMMIT file, so a competitor never sees our files without a heartbeat.
+        fileIO.createDirectory(heartbeatDir);
+        CommitHeartbeat heartbeat = CommitHeartbeat.start(fileIO,timing,heartbeatDir.resolve(commitFileName),HEARTBEAT_INTERVAL);
+        try{
+            long writeStart = System.currentTimeMillis();
+            fileIO.writeFileWithoutGuarantees(preCommitFile,preCommitFileName);
+            long writeEnd = System.currentTimeMillis();
+            commitDetails = listAndSampleClock(fileIO,timing,commitDetailDir,preCommitFileName,writeStart,writeEnd)
+                    .excludeName(preCommitFileName);
+            if(!commitDetails.isEmpty()){
+//                long latestCommitTimestamp = commitDetails.maxLastModified();
+//                if(System.currentTimeMillis() - latestCommitTimestamp > TTL_PRE_COMMIT){
+//                    fileIO.writeFile(commitDetailExpireHint,"EXPIRED!",false);
+//                }
+                listener.onConflict(CommitListener.ConflictPhase.AFTER_PRE_COMMIT,maxCommitVersion,subCommitVersion);
+                throw new ConcurrentModificationException("ConcurrentModificationException!");
+            }
+            writeStart = System.currentTimeMillis();
+            fileIO.writeFileWithoutGuarantees(commitFile,content == null ? commitFileName : content);
+            writeEnd = System.currentTimeMillis();
+            commitDetails = listAndSampleClock(fileIO,timing,commitDetailDir,commitFileName,writeStart,writeEnd)
+                    .excludeName(preCommitFileName)
+                    .excludeName(commitFileName);
+            if(!commitDetails.isEmpty()){
+//                long latestCommitTimestamp = commitDetails.maxLastModified();
+//                if(System.currentTimeMillis() - latestCommitTimestamp > TTL_PRE_COMMIT){
+//                    fileIO.writeFile(commitDetailExpireHint,"EXPIRED!",false);
+//                }
+                listener.onConflict(CommitListener.ConflictPhase.AFTER_COMMIT,maxCommitVersion,subCommitVersion);
+                throw new ConcurrentModificationException("ConcurrentModificationException!");
+            }
+            String hintInfo = commitFileName+"@"+subCommitVersion;
+            try{
+                writeStart = System.currentTimeMillis();
+                fileIO.writeFileWithoutGuarantees(commitSubHintFile,hintInfo);
+                timing.recordWrite(writeStart,System.currentTimeMillis());
+            }catch (FileAlreadyExistsException e){
+                // A competitor may have repaired our own hint (it took us for dead), or a retried conditional PUT
+                // found its first attempt. Then our commit file is the committed one.
+                if(!hintInfo.equals(fileIO.read(commitSubHintFile).trim())){
+                    listener.onConflict(CommitListener.ConflictPhase.COMMIT_HINT,maxCommitVersion,subCommitVersion);
+                    throw new ConcurrentModificationException("ConcurrentModificationException!");
+                }
+            }
+        }finally {
+            heartbeat.close();
         }
-        String hintInfo = commitFileName+"@"+subCommitVersion;
-        fileIO.writeFileWithoutGuarantees(commitSubHintFile,hintInfo);
         URI debugFile = commitSubHintDir.resolve(commitFileName);
         // debug一下哪些客户端最终成功提交了,如果我们发现commit文件夹中debug文件数量大于1,则存在问题
-        fileIO.writeFileWithoutGuarantees(debugFile,commitFileName);
+        writeIfAbsent(fileIO,debugFile,commitFileName);
+        listener.onCommitted(maxCommitVersion,subCommitVersion);
+        // In storage time like the modification times a repairing client records, see recordInIndex.
+        recordInIndex(fileIO,rootPath,new VersionLocation(maxCommitVersion,subCommitVersion,commitFileName,timing.getClock().storageNow()));
+
+        cleanUp(fileIO,timing,layout,rootPath,maxCommitVersion);
+        return maxCommitVersion;
+    }
+
+    /**
+     * The version is committed, what follows is cleanup and must not slow down the commits of other clients.
+     * A throttling FileIO fails background calls it has no capacity for, then the cleanup is left to a later commit.
+     */
+    @SuppressWarnings("try")
+    private void cleanUp(FileIO fileIO, StorageTiming timing, TableLayout layout, URI rootPath, long maxCommitVersion) throws IOException {
+        try(IoPriority ignored = IoPriority.background()){
+            VersionIndex trackerList = layout.listOldest(fileIO,rootPath,TableLayout.TRACKER);
+
+            moveTooOldTracker2Archive(fileIO,timing,layout,rootPath,trackerList,maxCommitVersion);
+            cleanTooOldCommit(fileIO,timing,layout,rootPath);
+            if(maxCommitVersion % SHARD_RETIRE_INTERVAL == 0){
+                layout.retire(fileIO,rootPath,TableLayout.TRACKER,maxCommitVersion-maxSaveNum);
+                // Archive entries are written in tracker order, once every tracker of a shard is gone it gets no new entries.
+                layout.retire(fileIO,rootPath,TableLayout.ARCHIVE,trackerList.minVersion(0L));
+            }
+        }catch (ThrottledException e){
+            //do-nothing
+        }
+    }
+
+    /**
+     * Drops what is cached for rootPath, once the table there was deleted.
+     */
+    public void forget(URI rootPath) {
+        layouts.remove(rootPath);
+    }
+
+    private TableLayout layoutOf(FileIO fileIO, URI rootPath) throws IOException {
+        TableLayout layout = layouts.get(rootPath);
+        if(layout == null){
+            layout = TableLayout.load(fileIO,rootPath);
+            layouts.putIfAbsent(rootPath,layout);
+        }
+        return layout;
+    }
+
+    /**
+     * The version is committed once the COMMIT-HINT exists, the time travel index is only a shortcut for readers
+     * (they fall back to the hint), so failing to write it must not fail the commit.
+     */
+    private void recordInIndex(FileIO fileIO, URI rootPath, VersionLocation location) {
+        try{
+            TimeTravelIndex.append(fileIO,rootPath,location);
+            if(location.getVersion() > 0 && location.getVersion() % INDEX_COMPACT_INTERVAL == 0){
+                compactInBackground(fileIO,rootPath,layoutOf(fileIO,rootPath));
+            }
+        }catch (IOException | RuntimeException e){
+            //do-nothing
+        }
+    }
+
+    @SuppressWarnings("try")
+    private static void compactInBackground(FileIO fileIO, URI rootPath, TableLayout layout) {
+        if(!COMPACTING.add(rootPath)){
+            return;
+        }
+        INDEX_COMPACTOR.execute(() -> {
+            try(IoPriority ignored = IoPriority.background()){
+                TimeTravelIndex.compact(fileIO,rootPath,layout);
+            }catch (IOException | RuntimeException e){
+                //do-nothing, the next interval compacts again.
+            }finally {
+                COMPACTING.remove(rootPath);
+            }
+        });
+    }
+
+    /**
+     * Tracker, archive and EXPIRED files only need to exist, it does not matter which client wrote them.
+     * FileIOs with exclusive create (e.g. S3 conditional PUT) report a lost race as FileAlreadyExistsException, which is fine here.
+     *
+     * @return false if another client had written the file.
+     */
+    private boolean writeIfAbsent(FileIO fileIO, URI path, String content) throws IOException {
+        try{
+            fileIO.writeFileWithoutGuarantees(path,content);
+            return true;
+        }catch (FileAlreadyExistsException e){
+            return false;
+        }
+    }
+
+    /**
+     * The listing right after our own write also tells when the storage stamped it, which is a free clock sample.
+     */
+    private FileListing listAndSampleClock(FileIO fileIO, StorageTiming timing, URI dir, String writtenName, long writeStart, long writeEnd) throws IOException {
+        timing.recordWrite(writeStart,writeEnd);
+        FileListing listing = fileIO.listFiles(dir,false);
+        int written = listing.indexOfName(writtenName);
+        if(written >= 0){
+            timing.getClock().sample(writeStart,writeEnd,listing.getLastModified(written));
+        }
+        return listing;
+    }
+
+    /**
+     * How long PRE_COMMIT files without a live heartbeat are waited for: a few times the slowest observed round trips of a commit,
+     * between MIN_TTL_PRE_COMMIT and TTL_PRE_COMMIT. TTL_PRE_COMMIT until we have seen enough writes.
+     */
+    private long preCommitTtl(StorageTiming timing) {
+        if(timing.getWriteLatency().getSampleCount() < MIN_TIMING_SAMPLES){
+            return TTL_PRE_COMMIT;
+        }
+        long slowWrite = timing.getWriteLatency().percentile(LATENCY_QUANTILE,TTL_PRE_COMMIT);
+        return Math.max(MIN_TTL_PRE_COMMIT,Math.min(TTL_PRE_COMMIT,COMMIT_ROUND_TRIPS*LATENCY_SAFETY_FACTOR*slowWrite));
+    }
 
-        trackerList = fileIO.listAllFiles(trackerDir,false);
+    /**
+     * Two beats are at most an interval plus one (slow) write apart, or as far apart as our own beats were seen to land
+     * (plus a write, the storage stamps a file somewhere inside the request) if that is more.
+     * Never below two intervals, so a single failed beat does not make a writer look dead.
+     */
+    private long heartbeatTtl(StorageTiming timing) {
+        if(timing.getWriteLatency().getSampleCount() < MIN_TIMING_SAMPLES){
+            return HEARTBEAT_TTL;
+        }
+        long slowWrite = timing.getWriteLatency().percentile(LATENCY_QUANTILE,TTL_PRE_COMMIT);
+        long slowBeat = timing.getBeatSpacing().percentile(LATENCY_QUANTILE,0L)+slowWrite;
+        long ttl = Math.max(HEARTBEAT_INTERVAL+LATENCY_SAFETY_FACTOR*slowWrite,slowBeat);
+        return Math.max(2*HEARTBEAT_INTERVAL,Math.min(TTL_PRE_COMMIT,ttl));
+    }
 
-        moveTooOldTracker2Archive(fileIO,trackerList,maxCommitVersion,archiveDir,trackerDir);
-        cleanTooOldCommit(fileIO,archiveDir,commitDirRoot);
+    /**
+     * A group (PRE_COMMIT and commit file of one client) is alive while its heartbeat is fresh.
+     * Groups without a heartbeat were written by clients that do not send one, for them only the pre-commit TTL tells.
+     */
+    private boolean hasLiveWriter(FileIO fileIO, StorageTiming timing, URI heartbeatDir, Map<String,List<FileEntity>> groupedCommitInfo, long now) throws IOException {
+        FileListing heartbeats = fileIO.listFiles(heartbeatDir,false);
+        long heartbeatTtl = heartbeatTtl(timing);
+        long preCommitTtl = preCommitTtl(timing);
+        for (Map.Entry<String,List<FileEntity>> group : groupedCommitInfo.entrySet()) {
+            int heartbeat = heartbeats.indexOfName(group.getKey());
+            if(heartbeat >= 0){
+                if(now - heartbeats.getLastModified(heartbeat) <= heartbeatTtl){
+                    return true;
+                }
+            }else{
+                long lastModified = group.getValue().stream().mapToLong(FileEntity::getLastModified).max().orElse(0L);
+                if(now - lastModified <= preCommitTtl){
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     private Map<String,List<FileEntity>> getCommitInfoByCommitGroup(List<FileEntity> fileEntityList){
@@ -197,55 +448,51 @@ public class FileTrackerCommitStrategyV2 implements CommitStrategy{
     }
 
 
-    private void moveTooOldTracker2Archive(FileIO fileIO, List<FileEntity> trackerList, long maxVersionAfterCommit, URI archiveDir, URI trackerDir) throws IOException {
+    private void moveTooOldTracker2Archive(FileIO fileIO, StorageTiming timing, TableLayout layout, URI rootPath, VersionIndex trackerList, long maxVersionAfterCommit) throws IOException {
         //TODO: Minor issue: The client may need to write to the archive once regardless of whether the submission
         // succeeds or fails, because outdated submissions always need to be cleaned up.
         // In extreme cases, if submissions keep failing, the outdated submissions won't be able to be cleaned up.
-        List<FileEntity> needMove2Archive = trackerList.stream()
-                .filter(x->{
-                    String name = x.getFileName();
-                    String versionStr = name.split("\\.")[0];
-                    long fileVersion = Long.parseLong(versionStr);
-                    return maxVersionAfterCommit -fileVersion > maxSaveNum;
-                }).collect(Collectors.toList());
-
-        for (FileEntity archiveFile : needMove2Archive) {
-            String expireTimeStamp = String.valueOf(System.currentTimeMillis()+CLEAN_TTL);
+        // maxVersionAfterCommit - fileVersion > maxSaveNum
+        int needMove2Archive = trackerList.countOlderThan(maxVersionAfterCommit - maxSaveNum);
+
+        for (int i = 0; i < needMove2Archive; i++) {
+            String trackerFileName = trackerList.getFileName(i);
+            // In storage time, so clients with skewed clocks agree on it.
+            String expireTimeStamp = String.valueOf(timing.getClock().storageNow()+CLEAN_TTL);
             //todo: Add a timestamp to the file name so key information like expiration time can be extracted directly
             // from the filename, mainly to save IO by avoiding an extra read. However, this approach has an issue—if
             // multiple clients execute move2Archive simultaneously, since their execution times may differ,
             // the same tracker could generate multiple archive records. This might slightly interfere with cleanup.
             // For now, we'll leave this issue unaddressed.
-            String archiveFileName = archiveFile.getFileName()+"@"+expireTimeStamp;
-            URI dropTracker = trackerDir.resolve(archiveFile.getFileName());
-            URI archiveEntity = archiveDir.resolve(archiveFileName);
+            String archiveFileName = trackerFileName+"@"+expireTimeStamp;
+            long version = trackerList.getVersion(i);
+            URI dropTracker = layout.versionDir(rootPath,TableLayout.TRACKER,version).resolve(trackerFileName);
+            URI archiveEntity = layout.versionDir(rootPath,TableLayout.ARCHIVE,version).resolve(archiveFileName);
             if(!fileIO.exists(archiveEntity)){
-                fileIO.writeFileWithoutGuarantees(archiveEntity,expireTimeStamp);
+                layout.prepareWrite(fileIO,rootPath,TableLayout.ARCHIVE,version);
+                writeIfAbsent(fileIO,archiveEntity,expireTimeStamp);
             }
             fileIO.delete(dropTracker,false);
         }
     }
 
-    private void cleanTooOldCommit(FileIO fileIO, URI archiveDir, URI commitDirRoot) throws IOException {
-        List<FileEntity> archiveList = fileIO.listAllFiles(archiveDir,false);
-        archiveList.sort(Comparator.comparing(x-> Long.parseLong(x.getFileName().split("\\.")[0])));
+    private void cleanTooOldCommit(FileIO fileIO, StorageTiming timing, TableLayout layout, URI rootPath) throws IOException {
+        // Sorted by version.
+        VersionIndex archiveList = layout.listOldest(fileIO,rootPath,TableLayout.ARCHIVE);
         int maxCleanTimes = Math.min(1,archiveList.size());
         if(archiveList.size()>maxArchiveSize){
             //In a multithreaded scenario, deleting items one by one may not keep up with the write speed. That's why batch processing is implemented here.
             maxCleanTimes = Math.min(archiveBatchCleanMaxSize,archiveList.size());
         }
+        long now = timing.getClock().minStorageNow();
         for(int i=0;i<maxCleanTimes;i++){
-            FileEntity cleanFile = archiveList.get(i);
-            if(cleanFile!=null){
-                String fileName = cleanFile.getFileName();
-                URI archiveFile = archiveDir.resolve(fileName);
-                long expireTimestamp = Long.parseLong(fileName.split("@")[1]);
-                if(System.currentTimeMillis()>expireTimestamp){
-                    String dropVersion = fileName.split("\\.")[0];
-                    URI oldCommitDir = commitDirRoot.resolve(dropVersion+"/");
-                    fileIO.delete(oldCommitDir,true);
-                    fileIO.delete(archiveFile,false);
-                }
+            long expireTimestamp = archiveList.getExpireTimestamp(i);
+            if(expireTimestamp != VersionIndex.NO_EXPIRE_TIMESTAMP && now>expireTimestamp){
+                long version = archiveList.getVersion(i);
+                URI archiveFile = layout.versionDir(rootPath,TableLayout.ARCHIVE,version).resolve(archiveList.getFileName(i));
+                URI oldCommitDir = layout.commitDir(rootPath,version);
+                fileIO.delete(oldCommitDir,true);
+                fileIO.delete(archiveFile,false);
             }
         }
     }
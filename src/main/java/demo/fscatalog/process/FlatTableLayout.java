@@ -0,0 +1,64 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.FileIO;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The original layout: tracker/&lt;v&gt;.txt, archive/&lt;v&gt;.txt@&lt;expire&gt; and commit/&lt;v&gt;/, each area one flat directory.
+ */
+public final class FlatTableLayout implements TableLayout {
+    public static final FlatTableLayout INSTANCE = new FlatTableLayout();
+    static final String DESCRIPTOR = "flat";
+
+    private FlatTableLayout() {
+    }
+
+    @Override
+    public URI versionDir(URI rootPath, String area, long version) {
+        return rootPath.resolve(area);
+    }
+
+    @Override
+    public URI commitDir(URI rootPath, long version) {
+        return rootPath.resolve("commit/"+version+"/");
+    }
+
+    @Override
+    public VersionIndex listNewest(FileIO fileIO, URI rootPath, String area) throws IOException {
+        return VersionIndex.fromListing(fileIO.listFiles(rootPath.resolve(area),false));
+    }
+
+    @Override
+    public VersionIndex listOldest(FileIO fileIO, URI rootPath, String area) throws IOException {
+        return listNewest(fileIO,rootPath,area);
+    }
+
+    @Override
+    public List<URI> listDirs(FileIO fileIO, URI rootPath, String area) {
+        return Collections.singletonList(rootPath.resolve(area));
+    }
+
+    @Override
+    public void prepareWrite(FileIO fileIO, URI rootPath, String area, long version) {
+        //do-nothing
+    }
+
+    @Override
+    public void retire(FileIO fileIO, URI rootPath, String area, long belowVersion) {
+        //do-nothing
+    }
+
+    @Override
+    public String toDescriptor() {
+        return DESCRIPTOR;
+    }
+
+    @Override
+    public String toString() {
+        return DESCRIPTOR;
+    }
+}
@@ -0,0 +1,131 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileListing;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Writes version 0 of a new table directly, without the commit protocol, for bulk imports of existing tables.
+ * <p>
+ * The files are the ones {@link FileTrackerCommitStrategyV2} leaves behind for an uncontended first commit (sub-version 0).
+ * They are independent of each other except that the COMMIT-HINT, which makes the version committed, must come after
+ * the tracker and the commit file. So they are written in four rounds of concurrent writes (directories, files, hint, index) instead of 10-15 sequential round trips.
+ * <p>
+ * Nobody else may commit to the table meanwhile. Writing the same version again with the same commit id and content
+ * completes an interrupted write; files that already exist are left as they are.
+ */
+public final class InitialVersionWriter {
+    private static final long VERSION = 0L;
+    private static final long SUB_VERSION = 0L;
+
+    private InitialVersionWriter() {
+    }
+
+    /**
+     * @param commitTimestamp when the version was committed at the source, recorded in the time travel index.
+     * @param executor runs the writes of a round concurrently.
+     */
+    public static void write(FileIO fileIO, URI rootPath, TableLayout layout, String content, String commitId,
+                             long commitTimestamp, Executor executor) throws IOException {
+        String commitFileName = commitId+".txt";
+        String preCommitFileName = FileTrackerCommitStrategyV2.PRE_COMMIT_PREFIX+commitFileName;
+        URI commitDir = layout.commitDir(rootPath,VERSION);
+        URI subTrackerDir = commitDir.resolve("sub-tracker/");
+        URI subHintDir = commitDir.resolve("sub-hint/");
+        URI detailDir = commitDir.resolve(SUB_VERSION+"/");
+        URI trackerDir = layout.versionDir(rootPath,TableLayout.TRACKER,VERSION);
+
+        layout.prepareWrite(fileIO,rootPath,TableLayout.TRACKER,VERSION);
+        runAll(executor,
+                () -> fileIO.createDirectory(trackerDir),
+                () -> fileIO.createDirectory(rootPath.resolve(TableLayout.ARCHIVE)),
+                () -> fileIO.createDirectory(subTrackerDir),
+                () -> fileIO.createDirectory(subHintDir),
+                () -> fileIO.createDirectory(detailDir));
+        runAll(executor,
+                () -> writeIfAbsent(fileIO,trackerDir.resolve(VERSION+".txt"),VERSION+""),
+                () -> writeIfAbsent(fileIO,subTrackerDir.resolve(SUB_VERSION+".txt"),SUB_VERSION+""),
+                () -> writeIfAbsent(fileIO,detailDir.resolve(preCommitFileName),preCommitFileName),
+                () -> writeIfAbsent(fileIO,detailDir.resolve(commitFileName),content == null ? commitFileName : content));
+        writeIfAbsent(fileIO,subHintDir.resolve(FileTrackerCommitStrategyV2.COMMIT_HINT),commitFileName+"@"+SUB_VERSION);
+        runAll(executor,
+                () -> writeIfAbsent(fileIO,subHintDir.resolve(commitFileName),commitFileName),
+                () -> TimeTravelIndex.append(fileIO,rootPath,new VersionLocation(VERSION,SUB_VERSION,commitFileName,commitTimestamp)));
+    }
+
+    /**
+     * The commit id of an interrupted write of version 0, to complete it with {@link #write}.
+     *
+     * @return null if version 0 has no commit files yet.
+     * @throws IllegalStateException if version 0 was touched by the commit protocol (several commit ids, or an EXPIRED-HINT).
+     */
+    public static String pendingCommitId(FileIO fileIO, URI rootPath, TableLayout layout) throws IOException {
+        FileListing details = fileIO.listFiles(layout.commitDir(rootPath,VERSION).resolve(SUB_VERSION+"/"),false);
+        Set<String> commitFileNames = new HashSet<>();
+        for (int i = 0; i < details.size(); i++) {
+            String name = details.getFileName(i);
+            if(FileTrackerCommitStrategyV2.EXPIRED_HINT.equals(name)){
+                throw new IllegalStateException("version 0 of "+rootPath+" expired, it was not written by an import");
+            }
+            commitFileNames.add(name.startsWith(FileTrackerCommitStrategyV2.PRE_COMMIT_PREFIX)
+                    ? name.substring(FileTrackerCommitStrategyV2.PRE_COMMIT_PREFIX.length()) : name);
+        }
+        if(commitFileNames.size() > 1){
+            throw new IllegalStateException("version 0 of "+rootPath+" has several commits: "+commitFileNames);
+        }
+        if(commitFileNames.isEmpty()){
+            return null;
+        }
+        String commitFileName = commitFileNames.iterator().next();
+        return commitFileName.endsWith(".txt") ? commitFileName.substring(0,commitFileName.length()-".txt".length()) : commitFileName;
+    }
+
+    private static void writeIfAbsent(FileIO fileIO, URI path, String content) throws IOException {
+        try{
+            fileIO.writeFileWithoutGuarantees(path,content);
+        }catch (FileAlreadyExistsException e){
+            //do-nothing, written by the interrupted attempt.
+        }
+    }
+
+    private interface Write {
+        void run() throws IOException;
+    }
+
+    private static void runAll(Executor executor, Write... writes) throws IOException {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(writes.length);
+        for (Write write : writes) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                try{
+                    write.run();
+                }catch (IOException e){
+                    throw new UncheckedIOException(e);
+                }
+            },executor));
+        }
+        try{
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while writing the first version");
+        }catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            if(cause instanceof UncheckedIOException){
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("failed to write the first version",cause);
+        }
+    }
+}
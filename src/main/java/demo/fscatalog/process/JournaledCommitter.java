@@ -0,0 +1,299 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.util.UniIdUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous commits for writers that can accept seconds of visibility lag, but not the 10-15 storage round trips of a commit.
+ * <p>
+ * {@link #commit(String)} appends the request to a local journal (see CommitJournal), fsyncs it and returns a future.
+ * One background thread drains the journal into {@link FileTrackerCommitStrategyV2} in append order, one version per request,
+ * retrying conflicts and storage errors until the request is committed, and then completes the future with the version.
+ * The table stays the source of truth: a request is visible to readers only once the drain committed it.
+ * <p>
+ * Every request is committed with its journal id as commit id, so after a crash (or a failed attempt whose outcome is unknown)
+ * the drain first looks for the id among the versions committed since the last acknowledged one, and does not commit it twice
+ * (see {@link FileTrackerCommitStrategyV2#commit(FileIO, URI, String, String, long)} for why that is enough).
+ * Requests of a previous run are drained on open, their futures are gone with that run.
+ * A request committed right before a crash is found as long as its version is retained, a process that stays down longer than
+ * the table's retention may commit it a second time.
+ * <p>
+ * One journal directory per table, used by one process at a time.
+ */
+public class JournaledCommitter implements Closeable {
+    // just demo,no config
+    private static final long MIN_RETRY_DELAY_MS = 10L;
+    private static final long MAX_RETRY_DELAY_MS = 5000L;
+    private static final long REWRITE_THRESHOLD_BYTES = 4L*1024*1024;
+    private static final long MAX_WAIT_MS = 100L;
+
+    private final FileTrackerCommitStrategyV2 strategy;
+    // Where the last attempt of the drain gave up, null if it did not reach a conflict check.
+    private volatile CommitListener.ConflictPhase lastConflict;
+    private final FileIO fileIO;
+    private final URI rootPath;
+    private final TableLayout layout;
+    private final CommitJournal journal;
+    private final Thread drainThread;
+    private final Deque<CommitJournal.Entry> queue = new ArrayDeque<>();
+    private final Map<String,CompletableFuture<Long>> futures = new HashMap<>();
+    private volatile boolean closed;
+    // The drain looked at every version up to this one for ids of pending requests.
+    private long scannedVersion;
+    // The oldest queued request of a previous run may have been committed before the crash.
+    private boolean outcomeUnknown;
+
+    public JournaledCommitter(FileIO fileIO, URI rootPath, Path journalDir) throws IOException {
+        this(fileIO,rootPath,journalDir,CommitListener.NONE);
+    }
+
+    /**
+     * @param listener observes the commit attempts of the drain.
+     */
+    public JournaledCommitter(FileIO fileIO, URI rootPath, Path journalDir, CommitListener listener) throws IOException {
+        this.strategy = new FileTrackerCommitStrategyV2(new CommitListener() {
+            @Override
+            public void onConflict(ConflictPhase phase, long version, long subVersion) {
+                lastConflict = phase;
+                listener.onConflict(phase,version,subVersion);
+            }
+
+            @Override
+            public void onSubVersionExpired(long version, long subVersion) {
+                listener.onSubVersionExpired(version,subVersion);
+            }
+
+            @Override
+            public void onCommitHintRepaired(long version, long subVersion) {
+                listener.onCommitHintRepaired(version,subVersion);
+            }
+
+            @Override
+            public void onCommitted(long version, long subVersion) {
+                listener.onCommitted(version,subVersion);
+            }
+        });
+        this.fileIO = fileIO;
+        this.rootPath = rootPath;
+        this.layout = TableLayout.load(fileIO,rootPath);
+        this.journal = CommitJournal.open(journalDir,() -> TimeTravelIndex.latestCommittedVersion(fileIO,rootPath,layout));
+        this.queue.addAll(journal.getPending());
+        this.scannedVersion = journal.getLastAckedVersion();
+        this.outcomeUnknown = !queue.isEmpty();
+        this.drainThread = new Thread(this::drain,"journal-drain-"+rootPath);
+        this.drainThread.setDaemon(true);
+        this.drainThread.start();
+    }
+
+    /**
+     * Returns once the request is durable in the local journal.
+     *
+     * @param content what the commit file contains, see {@link FileTrackerCommitStrategyV2#commit(FileIO, URI, String)}.
+     * @return completes with the committed version.
+     * @throws IOException if the journal failed, the request may or may not be committed later.
+     * @throws IllegalStateException if the committer is closed.
+     */
+    public CompletableFuture<Long> commit(String content) throws IOException {
+        String id = UniIdUtils.getUniId(UniIdUtils.TIME_ORDERED);
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        CommitJournal.Entry entry;
+        // Journal order is queue order, the drain takes an entry only once the fsync covered it.
+        synchronized (queue){
+            if(closed){
+                throw new IllegalStateException("committer of "+rootPath+" is closed");
+            }
+            entry = journal.writeRequest(id,content);
+            synchronized (futures){
+                futures.put(id,future);
+            }
+            queue.addLast(entry);
+        }
+        journal.sync(entry.position);
+        synchronized (queue){
+            queue.notifyAll();
+        }
+        return future;
+    }
+
+    /**
+     * Requests appended but not committed yet.
+     */
+    public int getPendingCount() {
+        synchronized (queue){
+            return queue.size();
+        }
+    }
+
+    /**
+     * @return false if requests were still pending after timeout.
+     */
+    public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime()+unit.toNanos(timeout);
+        synchronized (queue){
+            while(!queue.isEmpty()){
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline-System.nanoTime());
+                if(remaining <= 0){
+                    return false;
+                }
+                queue.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    private void drain() {
+        int failures = 0;
+        boolean priorUnknown = false;
+        while(!closed){
+            CommitJournal.Entry entry;
+            synchronized (queue){
+                while(!closed && (queue.isEmpty() || !journal.isDurable(queue.peekFirst()))){
+                    try{
+                        queue.wait(MAX_WAIT_MS);
+                    }catch (InterruptedException e){
+                        return;
+                    }
+                }
+                if(closed){
+                    return;
+                }
+                entry = queue.peekFirst();
+            }
+            try{
+                long version = -1L;
+                long maxVersion = Long.MAX_VALUE;
+                if(outcomeUnknown){
+                    version = findCommitted(entry.id);
+                    maxVersion = scannedVersion+1;
+                }
+                if(version < 0){
+                    lastConflict = null;
+                    // From here until it returns, the attempt may leave a commit file that gets committed later.
+                    priorUnknown = outcomeUnknown;
+                    outcomeUnknown = true;
+                    version = strategy.commit(fileIO,rootPath,entry.content,entry.id,maxVersion);
+                }
+                outcomeUnknown = false;
+                scannedVersion = Math.max(scannedVersion,version);
+                acknowledge(entry,version);
+                failures = 0;
+            }catch (ConcurrentModificationException e){
+                // Conflicts before our commit file was written leave nothing that could be committed later.
+                CommitListener.ConflictPhase phase = lastConflict;
+                if(phase == null || phase == CommitListener.ConflictPhase.EXISTING_COMMIT
+                        || phase == CommitListener.ConflictPhase.AFTER_PRE_COMMIT){
+                    outcomeUnknown = priorUnknown;
+                }
+                // Lost a race, retry soon. Every client waits for the winner, backing off further does not help.
+                if(!sleep(retryDelay(1))){
+                    return;
+                }
+            }catch (Exception e){
+                failures++;
+                if(!sleep(retryDelay(failures))){
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks at the versions committed since the last scan for the commit id.
+     *
+     * @return the version, -1 if it was not committed.
+     */
+    private long findCommitted(String id) throws IOException {
+        long latest = TimeTravelIndex.latestCommittedVersion(fileIO,rootPath,layout);
+        String commitFileName = id+".txt";
+        for (long version = scannedVersion+1; version <= latest; version++) {
+            VersionLocation location = TimeTravelIndex.lookup(fileIO,rootPath,layout,version);
+            if(location != null && commitFileName.equals(location.getCommitFileName())){
+                return version;
+            }
+            scannedVersion = version;
+        }
+        return -1L;
+    }
+
+    private void acknowledge(CommitJournal.Entry entry, long version) {
+        try{
+            journal.appendAck(entry.id,version);
+            if(journal.size() > REWRITE_THRESHOLD_BYTES){
+                journal.rewrite();
+            }
+        }catch (IOException e){
+            //do-nothing, without the ack a restart finds the version with findCommitted().
+        }
+        CompletableFuture<Long> future;
+        synchronized (futures){
+            future = futures.remove(entry.id);
+        }
+        synchronized (queue){
+            queue.removeFirst();
+            queue.notifyAll();
+        }
+        if(future != null){
+            future.complete(version);
+        }
+    }
+
+    private static long retryDelay(int failures) {
+        long ceiling = Math.min(MAX_RETRY_DELAY_MS,MIN_RETRY_DELAY_MS << Math.min(failures,20));
+        return ThreadLocalRandom.current().nextLong(MIN_RETRY_DELAY_MS,ceiling+1);
+    }
+
+    /**
+     * @return false if the committer was closed meanwhile.
+     */
+    private boolean sleep(long millis) {
+        long deadline = System.currentTimeMillis()+millis;
+        synchronized (queue){
+            long remaining;
+            while(!closed && (remaining = deadline-System.currentTimeMillis()) > 0){
+                try{
+                    queue.wait(remaining);
+                }catch (InterruptedException e){
+                    return false;
+                }
+            }
+            return !closed;
+        }
+    }
+
+    /**
+     * Stops the drain after the commit attempt in progress. Requests not committed by then stay in the journal and are drained
+     * by the next committer opened on it, their futures fail here.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (queue){
+            closed = true;
+            queue.notifyAll();
+        }
+        try{
+            drainThread.join();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        synchronized (futures){
+            for (CompletableFuture<Long> future : futures.values()) {
+                future.completeExceptionally(new IOException("committer of "+rootPath+" closed, the request stays in the journal"));
+            }
+            futures.clear();
+        }
+        journal.close();
+    }
+}
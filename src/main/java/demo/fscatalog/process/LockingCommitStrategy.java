@@ -0,0 +1,47 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.util.FileLock;
+import demo.fscatalog.io.util.FileLockService;
+
+import java.net.URI;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lock-then-commit: clients queue on a file lock (rootPath/lock/commit/) and commit one at a time.
+ * <p>
+ * For very hot tables. Optimistic commits waste most attempts there, with the lock every attempt that got the lock commits,
+ * at the price of the lock round trips. Correctness still comes from FileTrackerCommitStrategyV2 alone:
+ * if a holder loses its lease while committing, the two commits conflict as they would without the lock.
+ */
+public class LockingCommitStrategy implements CommitStrategy {
+    private static final String LOCK_NAME = "commit";
+    private final FileTrackerCommitStrategyV2 delegate;
+    private final long lockTtlMs;
+    private final long lockTimeoutMs;
+
+    public LockingCommitStrategy(FileTrackerCommitStrategyV2 delegate, long lockTtlMs, long lockTimeoutMs) {
+        this.delegate = delegate;
+        this.lockTtlMs = lockTtlMs;
+        this.lockTimeoutMs = lockTimeoutMs;
+    }
+
+    @Override
+    public void commit(FileIO fileIO, URI rootPath) throws Exception {
+        commit(fileIO,rootPath,null);
+    }
+
+    /**
+     * @throws ConcurrentModificationException if the lock was not acquired within the timeout.
+     */
+    public long commit(FileIO fileIO, URI rootPath, String content) throws Exception {
+        FileLockService lockService = new FileLockService(fileIO,rootPath.resolve("lock/"),lockTtlMs);
+        try(FileLock lock = lockService.tryAcquire(LOCK_NAME,lockTimeoutMs,TimeUnit.MILLISECONDS)){
+            if(lock == null){
+                throw new ConcurrentModificationException("Timed out waiting for the commit lock!");
+            }
+            return delegate.commit(fileIO,rootPath,content);
+        }
+    }
+}
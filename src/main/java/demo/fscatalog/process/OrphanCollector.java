@@ -0,0 +1,404 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileListing;
+import demo.fscatalog.io.util.IoPriority;
+import demo.fscatalog.io.util.StorageTiming;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Incremental mark and sweep of the metadata that slow, failed or killed committers leave behind in versions that stay retained
+ * (see process/readme.md item 3). Commits only reclaim whole versions, and only while the table gets commits.
+ * <p>
+ * A committed version is marked against its COMMIT-HINT (winning sub-version S, commit file F). Everything else in its commit directory is garbage:
+ * <ul>
+ *     <li>sub-version directories other than S (expired, or written after the version was committed), and their sub-tracker entries;</li>
+ *     <li>PRE_COMMIT and commit files of losers in S;</li>
+ *     <li>sub-hint files other than the COMMIT-HINT and F: debug files of other clients that believed they committed (dirty commits);</li>
+ *     <li>heartbeats, a committed version is never checked for live writers again.</li>
+ * </ul>
+ * Only versions up to the latest committed one are swept, and a version is swept only once all its garbage is older than GRACE_PERIOD
+ * (in storage time, see StorageClock), so nothing a committer could still be working on is touched.
+ * <p>
+ * The swept versions are remembered in rootPath/gc/cursor.txt, so a run lists only the versions committed since the last one:
+ * the cost of a run does not grow with the history of the table. Each run also checks the archive:
+ * duplicate entries of a version (concurrent moveTooOldTracker2Archive) are dropped, keeping the one that expires first,
+ * and expired versions are deleted like a commit would, so tables without commits are cleaned as well.
+ * Once every FULL_SWEEP_INTERVAL a run lists all commit directories, for directories of versions below the retention
+ * that a slow client re-created after the version was cleaned.
+ * <p>
+ * Deletes are sent in batches of DELETE_BATCH_SIZE, at most maxDeletesPerSecond, with background priority (see {@link IoPriority}).
+ * Runs are idempotent, concurrent runs on one table only duplicate work.
+ */
+public class OrphanCollector {
+    public static final String CURSOR_FILE = "gc/cursor.txt";
+    public static final long DEFAULT_MAX_DELETES_PER_SECOND = 100L;
+    // just demo,no config
+    private static final long GRACE_PERIOD = 10*60*1000L;
+    private static final long FULL_SWEEP_INTERVAL = 24*60*60*1000L;
+    private static final int MAX_VERSIONS_PER_RUN = 1000;
+    private static final int DELETE_BATCH_SIZE = 50;
+    // <version>/... or <shard>/<version>/... below commit/.
+    private static final Pattern COMMIT_PATH = Pattern.compile("((\\d+x+/)?(\\d+))/.+");
+    private static final String SUB_HINT = "sub-hint";
+    private static final String SUB_TRACKER = "sub-tracker";
+    private static final String HEARTBEAT = "heartbeat";
+
+    /**
+     * What one run found and deleted, counted in files.
+     */
+    public static final class Report {
+        private long cursor;
+        private long versionsSwept;
+        private long filesListed;
+        private long expiredSubVersionFiles;
+        private long abandonedCommitFiles;
+        private long extraDebugFiles;
+        private long heartbeatFiles;
+        private long duplicateArchiveEntries;
+        private long expiredVersions;
+        private long orphanVersionDirs;
+        private long deleteCalls;
+
+        /**
+         * Every version up to this one was swept.
+         */
+        public long getCursor() {
+            return cursor;
+        }
+
+        public long getVersionsSwept() {
+            return versionsSwept;
+        }
+
+        public long getFilesListed() {
+            return filesListed;
+        }
+
+        /**
+         * Files of other sub-versions than the committed one, including their sub-tracker entries.
+         */
+        public long getExpiredSubVersionFiles() {
+            return expiredSubVersionFiles;
+        }
+
+        /**
+         * PRE_COMMIT and commit files of losers in the committed sub-version.
+         */
+        public long getAbandonedCommitFiles() {
+            return abandonedCommitFiles;
+        }
+
+        /**
+         * More than zero means some client believed it committed a version that another client won.
+         */
+        public long getExtraDebugFiles() {
+            return extraDebugFiles;
+        }
+
+        public long getHeartbeatFiles() {
+            return heartbeatFiles;
+        }
+
+        public long getDuplicateArchiveEntries() {
+            return duplicateArchiveEntries;
+        }
+
+        public long getExpiredVersions() {
+            return expiredVersions;
+        }
+
+        public long getOrphanVersionDirs() {
+            return orphanVersionDirs;
+        }
+
+        public long getDeleteCalls() {
+            return deleteCalls;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{" +
+                    "cursor=" + cursor +
+                    ", versionsSwept=" + versionsSwept +
+                    ", filesListed=" + filesListed +
+                    ", expiredSubVersionFiles=" + expiredSubVersionFiles +
+                    ", abandonedCommitFiles=" + abandonedCommitFiles +
+                    ", extraDebugFiles=" + extraDebugFiles +
+                    ", heartbeatFiles=" + heartbeatFiles +
+                    ", duplicateArchiveEntries=" + duplicateArchiveEntries +
+                    ", expiredVersions=" + expiredVersions +
+                    ", orphanVersionDirs=" + orphanVersionDirs +
+                    ", deleteCalls=" + deleteCalls +
+                    '}';
+        }
+    }
+
+    private final FileIO fileIO;
+    private final URI rootPath;
+    private final long maxDeletesPerSecond;
+
+    public OrphanCollector(FileIO fileIO, URI rootPath) {
+        this(fileIO,rootPath,DEFAULT_MAX_DELETES_PER_SECOND);
+    }
+
+    public OrphanCollector(FileIO fileIO, URI rootPath, long maxDeletesPerSecond) {
+        if(maxDeletesPerSecond < 1){
+            throw new IllegalArgumentException("maxDeletesPerSecond must be positive");
+        }
+        this.fileIO = fileIO;
+        this.rootPath = rootPath;
+        this.maxDeletesPerSecond = maxDeletesPerSecond;
+    }
+
+    /**
+     * One run: at most MAX_VERSIONS_PER_RUN versions after the cursor, the archive, and the full sweep if it is due.
+     *
+     * @throws demo.fscatalog.io.ThrottledException if a throttling FileIO has no capacity left for background calls, run again later.
+     */
+    @SuppressWarnings("try")
+    public Report collect() throws IOException {
+        try(IoPriority ignored = IoPriority.background()){
+            return run();
+        }
+    }
+
+    private Report run() throws IOException {
+        TableLayout layout = TableLayout.load(fileIO,rootPath);
+        long now = StorageTiming.of(fileIO).getClock().minStorageNow();
+        long horizon = now-GRACE_PERIOD;
+        Report report = new Report();
+        Deleter deleter = new Deleter(report);
+        URI cursorFile = rootPath.resolve(CURSOR_FILE);
+        long[] cursor = readCursor(cursorFile);
+        long swept = cursor[0];
+        long lastFullSweep = cursor[1];
+
+        long latest = TimeTravelIndex.latestCommittedVersion(fileIO,rootPath,layout);
+        long minRetained = TimeTravelIndex.minRetainedVersion(fileIO,rootPath,layout);
+        if(now-lastFullSweep > FULL_SWEEP_INTERVAL){
+            sweepOrphanVersions(layout,minRetained,horizon,report,deleter);
+            lastFullSweep = now;
+        }
+        // Versions below the retention were deleted as a whole, the full sweep covers what came back.
+        swept = Math.max(swept,minRetained-1);
+        long end = Math.min(latest,swept+MAX_VERSIONS_PER_RUN);
+        for (long version = swept+1; version <= end; version++) {
+            if(!sweepVersion(layout,version,horizon,report,deleter)){
+                break;
+            }
+            swept = version;
+            report.versionsSwept++;
+        }
+        sweepArchive(layout,now,report,deleter);
+        deleter.flush();
+
+        fileIO.createDirectory(cursorFile.resolve("."));
+        fileIO.writeFile(cursorFile,swept+","+lastFullSweep,true);
+        report.cursor = swept;
+        return report;
+    }
+
+    /**
+     * @return {swept version, storage time of the last full sweep}.
+     */
+    private long[] readCursor(URI cursorFile) throws IOException {
+        try{
+            String[] fields = fileIO.read(cursorFile).trim().split(",");
+            return new long[]{Long.parseLong(fields[0]),Long.parseLong(fields[1])};
+        }catch (FileNotFoundException | NoSuchFileException e){
+            //do-nothing, the first run.
+        }catch (RuntimeException e){
+            //do-nothing, start over, sweeping is idempotent.
+        }
+        return new long[]{-1L,Long.MIN_VALUE/2};
+    }
+
+    /**
+     * @return false if the version has garbage younger than GRACE_PERIOD, it is swept by a later run.
+     */
+    private boolean sweepVersion(TableLayout layout, long version, long horizon, Report report, Deleter deleter) throws IOException {
+        URI commitDir = layout.commitDir(rootPath,version);
+        FileListing files = fileIO.listFiles(commitDir,true);
+        report.filesListed += files.size();
+        if(files.isEmpty()){
+            return true;
+        }
+        VersionLocation location = TimeTravelIndex.lookup(fileIO,rootPath,layout,version);
+        if(location == null){
+            // Cleaned since we looked at the retention, what is left is for the full sweep.
+            return true;
+        }
+        String committedSub = String.valueOf(location.getSubVersion());
+        String commitFileName = location.getCommitFileName();
+        String preCommitFileName = FileTrackerCommitStrategyV2.PRE_COMMIT_PREFIX+commitFileName;
+
+        List<String> garbageFiles = new ArrayList<>();
+        // Whole directories (other sub-versions, heartbeats) with their number of files.
+        Map<String,Integer> garbageDirs = new HashMap<>();
+        long expiredSubVersionFiles = 0, abandonedCommitFiles = 0, extraDebugFiles = 0, heartbeatFiles = 0;
+        for (int i = 0; i < files.size(); i++) {
+            String relativePath = files.getRelativePath(i).replace('\\','/');
+            int separator = relativePath.indexOf('/');
+            if(separator <= 0){
+                continue;
+            }
+            String dir = relativePath.substring(0,separator);
+            String name = relativePath.substring(separator+1);
+            boolean garbage = true;
+            if(SUB_HINT.equals(dir)){
+                if(FileTrackerCommitStrategyV2.COMMIT_HINT.equals(name) || commitFileName.equals(name)){
+                    garbage = false;
+                }else{
+                    garbageFiles.add(relativePath);
+                    extraDebugFiles++;
+                }
+            }else if(SUB_TRACKER.equals(dir)){
+                if(VersionIndex.parseVersion(name) == location.getSubVersion()){
+                    garbage = false;
+                }else{
+                    garbageFiles.add(relativePath);
+                    expiredSubVersionFiles++;
+                }
+            }else if(HEARTBEAT.equals(dir)){
+                garbageDirs.merge(dir,1,Integer::sum);
+                heartbeatFiles++;
+            }else if(committedSub.equals(dir)){
+                if(commitFileName.equals(name) || preCommitFileName.equals(name)){
+                    garbage = false;
+                }else{
+                    garbageFiles.add(relativePath);
+                    abandonedCommitFiles++;
+                }
+            }else if(VersionIndex.parseVersion(dir) >= 0){
+                garbageDirs.merge(dir,1,Integer::sum);
+                expiredSubVersionFiles++;
+            }else{
+                // Not ours, leave it.
+                garbage = false;
+            }
+            if(garbage && files.getLastModified(i) >= horizon){
+                return false;
+            }
+        }
+        for (String dir : garbageDirs.keySet()) {
+            deleter.delete(commitDir.resolve(dir+"/"),true);
+        }
+        for (String file : garbageFiles) {
+            deleter.delete(commitDir.resolve(file),false);
+        }
+        report.expiredSubVersionFiles += expiredSubVersionFiles;
+        report.abandonedCommitFiles += abandonedCommitFiles;
+        report.extraDebugFiles += extraDebugFiles;
+        report.heartbeatFiles += heartbeatFiles;
+        return true;
+    }
+
+    /**
+     * Archive entries are sorted by version, then by expire timestamp: the first entry of a version expires first and is kept.
+     */
+    private void sweepArchive(TableLayout layout, long now, Report report, Deleter deleter) throws IOException {
+        for (URI archiveDir : layout.listDirs(fileIO,rootPath,TableLayout.ARCHIVE)) {
+            VersionIndex archives = VersionIndex.fromListing(fileIO.listFiles(archiveDir,false));
+            report.filesListed += archives.size();
+            for (int i = 0; i < archives.size(); i++) {
+                long version = archives.getVersion(i);
+                URI archiveFile = archiveDir.resolve(archives.getFileName(i));
+                if(i > 0 && archives.getVersion(i-1) == version){
+                    deleter.delete(archiveFile,false);
+                    report.duplicateArchiveEntries++;
+                    continue;
+                }
+                long expireTimestamp = archives.getExpireTimestamp(i);
+                if(expireTimestamp != VersionIndex.NO_EXPIRE_TIMESTAMP && now > expireTimestamp){
+                    // Same order as a commit: the commit directory first, the archive entry keeps it retained until then.
+                    deleter.delete(layout.commitDir(rootPath,version),true);
+                    deleter.delete(archiveFile,false);
+                    report.expiredVersions++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Commit directories of versions below the retention: cleaned versions that a slow client wrote to again.
+     */
+    private void sweepOrphanVersions(TableLayout layout, long minRetained, long horizon, Report report, Deleter deleter) throws IOException {
+        FileListing files = fileIO.listFiles(rootPath.resolve("commit/"),true);
+        report.filesListed += files.size();
+        Set<String> orphans = new LinkedHashSet<>();
+        Set<String> young = new LinkedHashSet<>();
+        for (int i = 0; i < files.size(); i++) {
+            Matcher matcher = COMMIT_PATH.matcher(files.getRelativePath(i).replace('\\','/'));
+            if(!matcher.matches() || Long.parseLong(matcher.group(3)) >= minRetained){
+                continue;
+            }
+            orphans.add(matcher.group(1));
+            if(files.getLastModified(i) >= horizon){
+                young.add(matcher.group(1));
+            }
+        }
+        orphans.removeAll(young);
+        for (String dir : orphans) {
+            deleter.delete(rootPath.resolve("commit/"+dir+"/"),true);
+            report.orphanVersionDirs++;
+        }
+    }
+
+    /**
+     * Sends deletes in batches, spaced so that at most maxDeletesPerSecond are sent.
+     */
+    private final class Deleter {
+        private final Report report;
+        private final List<URI> paths = new ArrayList<>();
+        private final List<Boolean> recursions = new ArrayList<>();
+
+        private Deleter(Report report) {
+            this.report = report;
+        }
+
+        void delete(URI path, boolean recursion) throws IOException {
+            paths.add(path);
+            recursions.add(recursion);
+            if(paths.size() >= DELETE_BATCH_SIZE){
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            if(paths.isEmpty()){
+                return;
+            }
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < paths.size(); i++) {
+                fileIO.delete(paths.get(i),recursions.get(i));
+            }
+            long minDuration = paths.size()*1000L/maxDeletesPerSecond;
+            report.deleteCalls += paths.size();
+            paths.clear();
+            recursions.clear();
+            long remaining = minDuration-(System.currentTimeMillis()-start);
+            if(remaining > 0){
+                try{
+                    Thread.sleep(remaining);
+                }catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while collecting orphans of "+rootPath);
+                }
+            }
+        }
+    }
+}
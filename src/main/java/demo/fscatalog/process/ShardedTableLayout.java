@@ -0,0 +1,172 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileListing;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Buckets entries by version range, so no listing grows with the history of the table and hot prefixes are spread out.
+ * With a shard size of 1000, version 12345 lives in:
+ * <ul>
+ *     <li>tracker/12xxx/12345.txt</li>
+ *     <li>archive/12xxx/12345.txt@&lt;expire&gt;</li>
+ *     <li>commit/12xxx/12345/</li>
+ * </ul>
+ * Which shards exist is recorded in a small registry per area: &lt;area&gt;/_shards/&lt;first version&gt;.txt, written before the first
+ * entry of the shard. Finding the newest tracker lists the registry and the newest shard, finding the oldest archive entries lists
+ * the registry and the oldest shard. Shards are retired from the registry once they are empty for good.
+ * <p>
+ * Shard names end in 'x', they never collide with the version directories of the flat layout.
+ */
+public final class ShardedTableLayout implements TableLayout {
+    static final String DESCRIPTOR_PREFIX = "sharded:";
+    private static final String REGISTRY = "_shards/";
+
+    private final long shardSize;
+    private final String shardSuffix;
+    // Registry entries this instance already wrote or saw, to not write them again for every entry.
+    private final Set<URI> registered = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param shardSize versions per shard, a power of 10 (at least 10), so that shard names read like version ranges.
+     */
+    public ShardedTableLayout(long shardSize) {
+        StringBuilder suffix = new StringBuilder();
+        long size = shardSize;
+        while(size >= 10 && size % 10 == 0){
+            suffix.append('x');
+            size /= 10;
+        }
+        if(size != 1 || suffix.length() == 0){
+            throw new IllegalArgumentException("shardSize must be a power of 10: "+shardSize);
+        }
+        this.shardSize = shardSize;
+        this.shardSuffix = suffix.toString();
+    }
+
+    public long getShardSize() {
+        return shardSize;
+    }
+
+    private long shardStart(long version) {
+        return version-version % shardSize;
+    }
+
+    private String shardName(long version) {
+        return (version/shardSize)+shardSuffix;
+    }
+
+    private URI registryFile(URI rootPath, String area, long shardStart) {
+        return rootPath.resolve(area+REGISTRY+shardStart+".txt");
+    }
+
+    @Override
+    public URI versionDir(URI rootPath, String area, long version) {
+        return rootPath.resolve(area+shardName(version)+"/");
+    }
+
+    @Override
+    public URI commitDir(URI rootPath, long version) {
+        return rootPath.resolve("commit/"+shardName(version)+"/"+version+"/");
+    }
+
+    private VersionIndex listShards(FileIO fileIO, URI rootPath, String area) throws IOException {
+        return VersionIndex.fromListing(fileIO.listFiles(rootPath.resolve(area+REGISTRY),false));
+    }
+
+    @Override
+    public VersionIndex listNewest(FileIO fileIO, URI rootPath, String area) throws IOException {
+        VersionIndex shards = listShards(fileIO,rootPath,area);
+        // The newest shard is empty between its registration and its first entry, then the one before it is the newest.
+        for (int i = shards.size()-1; i >= 0; i--) {
+            VersionIndex entries = VersionIndex.fromListing(fileIO.listFiles(versionDir(rootPath,area,shards.getVersion(i)),false));
+            if(!entries.isEmpty()){
+                return entries;
+            }
+        }
+        return VersionIndex.fromListing(FileListing.empty());
+    }
+
+    @Override
+    public VersionIndex listOldest(FileIO fileIO, URI rootPath, String area) throws IOException {
+        VersionIndex shards = listShards(fileIO,rootPath,area);
+        for (int i = 0; i < shards.size(); i++) {
+            VersionIndex entries = VersionIndex.fromListing(fileIO.listFiles(versionDir(rootPath,area,shards.getVersion(i)),false));
+            if(!entries.isEmpty()){
+                return entries;
+            }
+        }
+        return VersionIndex.fromListing(FileListing.empty());
+    }
+
+    @Override
+    public List<URI> listDirs(FileIO fileIO, URI rootPath, String area) throws IOException {
+        VersionIndex shards = listShards(fileIO,rootPath,area);
+        List<URI> dirs = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            dirs.add(versionDir(rootPath,area,shards.getVersion(i)));
+        }
+        return dirs;
+    }
+
+    @Override
+    public void prepareWrite(FileIO fileIO, URI rootPath, String area, long version) throws IOException {
+        URI registryFile = registryFile(rootPath,area,shardStart(version));
+        if(!registered.add(registryFile)){
+            return;
+        }
+        try{
+            fileIO.createDirectory(rootPath.resolve(area+REGISTRY));
+            fileIO.createDirectory(versionDir(rootPath,area,version));
+            fileIO.writeFileWithoutGuarantees(registryFile,shardName(version));
+        }catch (FileAlreadyExistsException e){
+            //do-nothing, registered by another client.
+        }catch (IOException | RuntimeException e){
+            registered.remove(registryFile);
+            throw e;
+        }
+    }
+
+    /**
+     * A late writer (e.g. of a tracker behind the newest version) could still put an entry into a retired shard.
+     * Such an entry is invisible to discovery, it is a stray file, not a correctness problem: the newest entries are never retired.
+     */
+    @Override
+    public void retire(FileIO fileIO, URI rootPath, String area, long belowVersion) throws IOException {
+        VersionIndex shards = listShards(fileIO,rootPath,area);
+        for (int i = 0; i < shards.size(); i++) {
+            long shardStart = shards.getVersion(i);
+            if(shardStart+shardSize > belowVersion){
+                break;
+            }
+            URI shardDir = versionDir(rootPath,area,shardStart);
+            if(!fileIO.listFiles(shardDir,false).isEmpty()){
+                continue;
+            }
+            if(ARCHIVE.equals(area)){
+                fileIO.delete(rootPath.resolve("commit/"+shardName(shardStart)+"/"),true);
+            }
+            fileIO.delete(shardDir,true);
+            URI registryFile = registryFile(rootPath,area,shardStart);
+            fileIO.delete(registryFile,false);
+            registered.remove(registryFile);
+        }
+    }
+
+    @Override
+    public String toDescriptor() {
+        return DESCRIPTOR_PREFIX+shardSize;
+    }
+
+    @Override
+    public String toString() {
+        return toDescriptor();
+    }
+}
@@ -0,0 +1,89 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.FileIO;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+
+/**
+ * Where the versioned entries of a table live: tracker files, archive entries and commit directories.
+ * <p>
+ * The layout of a table is recorded in rootPath/_layout, a table without it is flat (the original layout).
+ * Write it with {@link #create(FileIO, URI, TableLayout)} before the first commit, or convert an existing table with {@link TableLayoutMigrator}.
+ */
+public interface TableLayout {
+    String LAYOUT_FILE = "_layout";
+    String TRACKER = "tracker/";
+    String ARCHIVE = "archive/";
+
+    /**
+     * The directory holding the entry of version in area ({@link #TRACKER} or {@link #ARCHIVE}).
+     */
+    URI versionDir(URI rootPath, String area, long version);
+
+    /**
+     * commit/&lt;version&gt;/ with its sub-tracker, sub-hint, heartbeat and sub-version directories.
+     */
+    URI commitDir(URI rootPath, long version);
+
+    /**
+     * Entries of the newest part of area, enough to find its max version.
+     */
+    VersionIndex listNewest(FileIO fileIO, URI rootPath, String area) throws IOException;
+
+    /**
+     * Entries of the oldest non-empty part of area, enough to find its min version and the next entries to move or clean.
+     */
+    VersionIndex listOldest(FileIO fileIO, URI rootPath, String area) throws IOException;
+
+    /**
+     * The directories holding entries of area, oldest first. The flat layout has exactly one.
+     */
+    List<URI> listDirs(FileIO fileIO, URI rootPath, String area) throws IOException;
+
+    /**
+     * Must be called before the entry of version is written to area.
+     */
+    void prepareWrite(FileIO fileIO, URI rootPath, String area, long version) throws IOException;
+
+    /**
+     * Drop the bookkeeping of parts of area that are empty and only hold versions below belowVersion,
+     * i.e. that will not get new entries. Retiring an archive part also drops its (already cleaned) commit directories.
+     */
+    void retire(FileIO fileIO, URI rootPath, String area, long belowVersion) throws IOException;
+
+    /**
+     * The content of the _layout file.
+     */
+    String toDescriptor();
+
+    static TableLayout parse(String descriptor) {
+        String value = descriptor.trim();
+        if(FlatTableLayout.DESCRIPTOR.equals(value)){
+            return FlatTableLayout.INSTANCE;
+        }
+        if(value.startsWith(ShardedTableLayout.DESCRIPTOR_PREFIX)){
+            return new ShardedTableLayout(Long.parseLong(value.substring(ShardedTableLayout.DESCRIPTOR_PREFIX.length())));
+        }
+        throw new IllegalArgumentException("unknown table layout: "+descriptor);
+    }
+
+    static TableLayout load(FileIO fileIO, URI rootPath) throws IOException {
+        try{
+            return parse(fileIO.read(rootPath.resolve(LAYOUT_FILE)));
+        }catch (FileNotFoundException | NoSuchFileException e){
+            return FlatTableLayout.INSTANCE;
+        }
+    }
+
+    /**
+     * Record the layout of a new table, exclusively: fails with FileAlreadyExistsException if the table already has one.
+     */
+    static void create(FileIO fileIO, URI rootPath, TableLayout layout) throws IOException {
+        fileIO.createDirectory(rootPath);
+        fileIO.writeFileWithoutGuarantees(rootPath.resolve(LAYOUT_FILE),layout.toDescriptor());
+    }
+}
@@ -0,0 +1,158 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.FileIO;
+import demo.fscatalog.io.entity.FileListing;
+import demo.fscatalog.io.util.StorageTiming;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Moves an existing table to another {@link TableLayout}. Offline: all writers must be stopped, and restarted afterwards
+ * (they read the layout once). Readers pick up the new layout on their next refresh.
+ * <p>
+ * The migration copies every tracker, archive entry and commit directory to its new place, then switches rootPath/_layout,
+ * then deletes the old copies. Old and new places never overlap, so a crash at any point leaves a table that is complete
+ * in the layout _layout names. The source layout is remembered in rootPath/_layout-migration until the old copies are gone,
+ * running the migration again resumes where it stopped.
+ */
+public class TableLayoutMigrator {
+    static final String MIGRATION_FILE = "_layout-migration";
+    // <v>.txt or <v>.txt@<expire>
+    private static final Pattern ENTRY_NAME = Pattern.compile("\\d+\\.txt(@\\d+)?");
+
+    private final FileIO fileIO;
+    private final URI rootPath;
+
+    public TableLayoutMigrator(FileIO fileIO, URI rootPath) {
+        this.fileIO = fileIO;
+        this.rootPath = rootPath;
+    }
+
+    /**
+     * @param quietPeriodMs refuse to start if the newest version was touched within this period, a cheap check that writers are stopped.
+     * @throws IllegalStateException if the table does not look quiet.
+     */
+    public void migrate(TableLayout target, long quietPeriodMs) throws IOException {
+        URI migrationFile = rootPath.resolve(MIGRATION_FILE);
+        TableLayout current = TableLayout.load(fileIO,rootPath);
+        TableLayout source;
+        try{
+            source = TableLayout.parse(fileIO.read(migrationFile));
+            if(!sameLayout(current,source) && !sameLayout(current,target)){
+                throw new IllegalStateException("table "+rootPath+" has an unfinished migration to "+current+", finish that one first");
+            }
+        }catch (FileNotFoundException | NoSuchFileException e){
+            if(sameLayout(current,target)){
+                return;
+            }
+            source = current;
+            checkQuiet(source,quietPeriodMs);
+            fileIO.writeFile(migrationFile,source.toDescriptor(),true);
+        }
+        if(!sameLayout(current,target)){
+            // Copies are idempotent, after a crash before the switch they are simply done again.
+            copy(source,target);
+            fileIO.writeFile(rootPath.resolve(TableLayout.LAYOUT_FILE),target.toDescriptor(),true);
+        }
+        deleteOld(source);
+        fileIO.delete(migrationFile,false);
+    }
+
+    private static boolean sameLayout(TableLayout a, TableLayout b) {
+        return a.toDescriptor().equals(b.toDescriptor());
+    }
+
+    /**
+     * The flat tracker/ and archive/ directories also hold the shard directories and registry of a sharded layout, skip those.
+     */
+    private static VersionIndex listEntries(FileIO fileIO, URI dir) throws IOException {
+        FileListing listing = fileIO.listFiles(dir,false);
+        return VersionIndex.fromListing(listing.select(i -> ENTRY_NAME.matcher(listing.getFileName(i)).matches()));
+    }
+
+    private void checkQuiet(TableLayout source, long quietPeriodMs) throws IOException {
+        VersionIndex trackers = source.listNewest(fileIO,rootPath,TableLayout.TRACKER);
+        if(trackers.isEmpty()){
+            return;
+        }
+        FileListing newest = fileIO.listFiles(source.commitDir(rootPath,trackers.maxVersion(0L)),true);
+        long lastModified = Math.max(newest.maxLastModified(),trackers.getLastModified(trackers.size()-1));
+        if(StorageTiming.of(fileIO).getClock().minStorageNow()-lastModified < quietPeriodMs){
+            throw new IllegalStateException("table "+rootPath+" was modified less than "+quietPeriodMs+" ms ago, stop all writers first");
+        }
+    }
+
+    private void copy(TableLayout source, TableLayout target) throws IOException {
+        TreeSet<Long> versions = new TreeSet<>();
+        for (String area : new String[]{TableLayout.TRACKER,TableLayout.ARCHIVE}) {
+            for (URI dir : source.listDirs(fileIO,rootPath,area)) {
+                VersionIndex entries = listEntries(fileIO,dir);
+                for (int i = 0; i < entries.size(); i++) {
+                    long version = entries.getVersion(i);
+                    versions.add(version);
+                    target.prepareWrite(fileIO,rootPath,area,version);
+                    copyFile(dir.resolve(entries.getFileName(i)),target.versionDir(rootPath,area,version).resolve(entries.getFileName(i)));
+                }
+            }
+        }
+        for (long version : versions) {
+            URI from = source.commitDir(rootPath,version);
+            URI to = target.commitDir(rootPath,version);
+            FileListing files = fileIO.listFiles(from,true);
+            for (int i = 0; i < files.size(); i++) {
+                URI file = to.resolve(files.getRelativePath(i));
+                fileIO.createDirectory(file.resolve("./"));
+                copyFile(from.resolve(files.getRelativePath(i)),file);
+            }
+        }
+    }
+
+    private void copyFile(URI from, URI to) throws IOException {
+        String content;
+        try{
+            content = fileIO.read(from);
+        }catch (FileNotFoundException | NoSuchFileException e){
+            // Deleted by the previous, interrupted run after it switched the layout.
+            return;
+        }
+        try{
+            fileIO.writeFileWithoutGuarantees(to,content);
+        }catch (FileAlreadyExistsException e){
+            //do-nothing, copied by the previous run.
+        }
+    }
+
+    private void deleteOld(TableLayout source) throws IOException {
+        List<Long> versions = new ArrayList<>();
+        for (String area : new String[]{TableLayout.TRACKER,TableLayout.ARCHIVE}) {
+            for (URI dir : source.listDirs(fileIO,rootPath,area)) {
+                VersionIndex entries = listEntries(fileIO,dir);
+                for (int i = 0; i < entries.size(); i++) {
+                    versions.add(entries.getVersion(i));
+                }
+            }
+        }
+        for (long version : versions) {
+            fileIO.delete(source.commitDir(rootPath,version),true);
+        }
+        // Entries last: while they exist, a rerun still finds the versions whose commit directories are left.
+        for (String area : new String[]{TableLayout.TRACKER,TableLayout.ARCHIVE}) {
+            for (URI dir : source.listDirs(fileIO,rootPath,area)) {
+                VersionIndex entries = listEntries(fileIO,dir);
+                for (int i = 0; i < entries.size(); i++) {
+                    fileIO.delete(dir.resolve(entries.getFileName(i)),false);
+                }
+            }
+            // Sharded sources also drop their shards, the target never lives inside them.
+            source.retire(fileIO,rootPath,area,Long.MAX_VALUE);
+        }
+    }
+}
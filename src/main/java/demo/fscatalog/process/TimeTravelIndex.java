@@ -0,0 +1,295 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.FileIO;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps every committed version to its {@link VersionLocation}, so a point-in-time read does not walk hint files.
+ * <p>
+ * On storage the index is append-only:
+ * <ul>
+ *     <li>index/log/&lt;version&gt;.txt: one record, written (exclusively) by the client that committed the version.</li>
+ *     <li>index/snapshot/&lt;version&gt;.txt: the records compaction folded, up to and including version.
+ *     The older snapshots and the folded log records are deleted afterwards.</li>
+ * </ul>
+ * A record is appended after the COMMIT-HINT, so it can show up after a compaction already wrote a newer snapshot.
+ * Such a late record stays in the log until the next compaction folds it, loading reads every log record the snapshot
+ * does not have.
+ * <p>
+ * Compaction runs every few versions, in the background, so loading the index is two lists and one read of the snapshot,
+ * plus a bounded number of log reads.
+ * <p>
+ * A loaded index is an immutable in-memory view. Versions that were cleaned (older than every tracker and archive entry)
+ * are not part of it.
+ */
+public final class TimeTravelIndex {
+    public static final String INDEX_LOG_DIR = "index/log/";
+    public static final String INDEX_SNAPSHOT_DIR = "index/snapshot/";
+    private static final String RECORD_SEPARATOR = ";";
+    private static final int MAX_LOAD_ATTEMPTS = 3;
+
+    // Sorted by version.
+    private final long[] versions;
+    private final VersionLocation[] locations;
+    // asOfTimestamps[i] = max commit timestamp of locations[0..i].
+    private final long[] asOfTimestamps;
+    private final long snapshotVersion;
+    private final long minRetainedVersion;
+
+    private TimeTravelIndex(VersionLocation[] locations, long snapshotVersion, long minRetainedVersion) {
+        this.locations = locations;
+        this.versions = new long[locations.length];
+        this.asOfTimestamps = new long[locations.length];
+        long maxTimestamp = VersionLocation.UNKNOWN_TIMESTAMP;
+        for (int i = 0; i < locations.length; i++) {
+            versions[i] = locations[i].getVersion();
+            maxTimestamp = Math.max(maxTimestamp,locations[i].getCommitTimestamp());
+            asOfTimestamps[i] = maxTimestamp;
+        }
+        this.snapshotVersion = snapshotVersion;
+        this.minRetainedVersion = minRetainedVersion;
+    }
+
+    /**
+     * Record a committed version. Losing the race against another writer of the same record is fine, it is the same record.
+     */
+    static void append(FileIO fileIO, URI rootPath, VersionLocation location) throws IOException {
+        URI logDir = rootPath.resolve(INDEX_LOG_DIR);
+        fileIO.createDirectory(logDir);
+        try{
+            fileIO.writeFileWithoutGuarantees(logDir.resolve(location.getVersion()+".txt"),location.toRecord());
+        }catch (FileAlreadyExistsException e){
+            //do-nothing
+        }
+    }
+
+    /**
+     * Fold the log into a new snapshot, then drop the older snapshots and the folded log records.
+     * Several clients may compact at the same time, only the one that wrote the snapshot deletes log records:
+     * the others may have folded a different set.
+     */
+    static void compact(FileIO fileIO, URI rootPath, TableLayout layout) throws IOException {
+        TimeTravelIndex index = load(fileIO,rootPath,layout);
+        long maxVersion = index.maxVersion(-1L);
+        if(maxVersion <= index.snapshotVersion){
+            return;
+        }
+        StringBuilder content = new StringBuilder();
+        for (VersionLocation location : index.locations) {
+            if(content.length() > 0){
+                content.append(RECORD_SEPARATOR);
+            }
+            content.append(location.toRecord());
+        }
+        URI snapshotDir = rootPath.resolve(INDEX_SNAPSHOT_DIR);
+        URI logDir = rootPath.resolve(INDEX_LOG_DIR);
+        fileIO.createDirectory(snapshotDir);
+        try{
+            fileIO.writeFileWithoutGuarantees(snapshotDir.resolve(maxVersion+".txt"),content.toString());
+        }catch (FileAlreadyExistsException e){
+            return;
+        }
+        VersionIndex snapshots = VersionIndex.fromListing(fileIO.listFiles(snapshotDir,false));
+        for (int i = 0; i < snapshots.countOlderThan(maxVersion); i++) {
+            fileIO.delete(snapshotDir.resolve(snapshots.getFileName(i)),false);
+        }
+        // Only what we folded (or what is no longer retained), a record appended since our load stays for the next compaction.
+        VersionIndex logs = VersionIndex.fromListing(fileIO.listFiles(logDir,false));
+        for (int i = 0; i < logs.countOlderThan(maxVersion+1); i++) {
+            long version = logs.getVersion(i);
+            if(index.get(version) != null || version < index.minRetainedVersion){
+                fileIO.delete(logDir.resolve(logs.getFileName(i)),false);
+            }
+        }
+    }
+
+    public static TimeTravelIndex load(FileIO fileIO, URI rootPath) throws IOException {
+        return load(fileIO,rootPath,TableLayout.load(fileIO,rootPath));
+    }
+
+    public static TimeTravelIndex load(FileIO fileIO, URI rootPath, TableLayout layout) throws IOException {
+        NoSuchFileException lastError = null;
+        for (int attempt = 0; attempt < MAX_LOAD_ATTEMPTS; attempt++) {
+            try{
+                TimeTravelIndex index = tryLoad(fileIO,rootPath,layout);
+                if(index != null){
+                    return index;
+                }
+            }catch (NoSuchFileException e){
+                // A compaction deleted what we had just listed, the next listing sees its snapshot.
+                lastError = e;
+            }
+        }
+        throw lastError != null ? lastError : new IOException("the index of "+rootPath+" was compacted during every load attempt");
+    }
+
+    /**
+     * @return null if a compaction ran between listing the snapshots and the log, the log may miss what its snapshot holds.
+     */
+    private static TimeTravelIndex tryLoad(FileIO fileIO, URI rootPath, TableLayout layout) throws IOException {
+        URI snapshotDir = rootPath.resolve(INDEX_SNAPSHOT_DIR);
+        URI logDir = rootPath.resolve(INDEX_LOG_DIR);
+        Map<Long,VersionLocation> locations = new TreeMap<>();
+        long snapshotVersion = -1L;
+        VersionIndex snapshots = VersionIndex.fromListing(fileIO.listFiles(snapshotDir,false));
+        if(!snapshots.isEmpty()){
+            int latest = snapshots.size()-1;
+            String content = fileIO.read(snapshotDir.resolve(snapshots.getFileName(latest)));
+            for (String record : content.split(RECORD_SEPARATOR)) {
+                if(!record.trim().isEmpty()){
+                    VersionLocation location = VersionLocation.fromRecord(record);
+                    locations.put(location.getVersion(),location);
+                }
+            }
+            snapshotVersion = snapshots.getVersion(latest);
+        }
+        VersionIndex logs = VersionIndex.fromListing(fileIO.listFiles(logDir,false));
+        // Compaction writes its snapshot before it deletes log records, so a newer snapshot is visible by now if it did.
+        if(VersionIndex.fromListing(fileIO.listFiles(snapshotDir,false)).maxVersion(-1L) > snapshotVersion){
+            return null;
+        }
+        for (int i = 0; i < logs.size(); i++) {
+            // Records up to the snapshot are folded and not deleted yet, unless they came late.
+            if(logs.getVersion(i) <= snapshotVersion && locations.containsKey(logs.getVersion(i))){
+                continue;
+            }
+            VersionLocation location = VersionLocation.fromRecord(fileIO.read(logDir.resolve(logs.getFileName(i))));
+            locations.put(location.getVersion(),location);
+        }
+        long minRetainedVersion = minRetainedVersion(fileIO,rootPath,layout);
+        List<VersionLocation> retained = new ArrayList<>(locations.size());
+        for (VersionLocation location : locations.values()) {
+            if(location.getVersion() >= minRetainedVersion){
+                retained.add(location);
+            }
+        }
+        return new TimeTravelIndex(retained.toArray(new VersionLocation[0]),snapshotVersion,minRetainedVersion);
+    }
+
+    /**
+     * Versions below the oldest tracker or archive entry had their commit directory cleaned.
+     */
+    static long minRetainedVersion(FileIO fileIO, URI rootPath, TableLayout layout) throws IOException {
+        VersionIndex trackers = layout.listOldest(fileIO,rootPath,TableLayout.TRACKER);
+        VersionIndex archives = layout.listOldest(fileIO,rootPath,TableLayout.ARCHIVE);
+        long min = Math.min(trackers.minVersion(Long.MAX_VALUE),archives.minVersion(Long.MAX_VALUE));
+        return min == Long.MAX_VALUE ? 0L : min;
+    }
+
+    /**
+     * The newest version with a COMMIT-HINT: the max tracker version, or the one before it while it is still being committed.
+     *
+     * @return -1 if nothing was committed yet.
+     */
+    static long latestCommittedVersion(FileIO fileIO, URI rootPath, TableLayout layout) throws IOException {
+        VersionIndex trackers = layout.listNewest(fileIO,rootPath,TableLayout.TRACKER);
+        if(trackers.isEmpty()){
+            return -1L;
+        }
+        long maxVersion = trackers.maxVersion(0L);
+        URI hintFile = layout.commitDir(rootPath,maxVersion).resolve("sub-hint/"+FileTrackerCommitStrategyV2.COMMIT_HINT);
+        return fileIO.exists(hintFile) ? maxVersion : maxVersion-1;
+    }
+
+    /**
+     * Locate a version without a loaded index: one read of its log record, or of its COMMIT-HINT if there is none.
+     *
+     * @return null if the version has neither, i.e. it is not committed (yet) or was cleaned.
+     */
+    static VersionLocation lookup(FileIO fileIO, URI rootPath, TableLayout layout, long version) throws IOException {
+        try{
+            return VersionLocation.fromRecord(fileIO.read(rootPath.resolve(INDEX_LOG_DIR+version+".txt")));
+        }catch (FileNotFoundException | NoSuchFileException e){
+            //do-nothing, not indexed (yet), e.g. the committer failed right after the COMMIT-HINT.
+        }
+        URI hintFile = layout.commitDir(rootPath,version).resolve("sub-hint/"+FileTrackerCommitStrategyV2.COMMIT_HINT);
+        String hintInfo;
+        try{
+            hintInfo = fileIO.read(hintFile);
+        }catch (FileNotFoundException | NoSuchFileException e){
+            return null;
+        }
+        // commitFileName@subVersion
+        int separator = hintInfo.lastIndexOf('@');
+        if(separator <= 0){
+            throw new IOException("invalid commit hint "+hintFile+": "+hintInfo);
+        }
+        return new VersionLocation(version,
+                Long.parseLong(hintInfo.substring(separator+1).trim()),
+                hintInfo.substring(0,separator),
+                VersionLocation.UNKNOWN_TIMESTAMP);
+    }
+
+    /**
+     * The location of the latest committed version without loading the index: one listing, one exists and one read.
+     *
+     * @return null if nothing was committed yet.
+     */
+    public static VersionLocation latest(FileIO fileIO, URI rootPath, TableLayout layout) throws IOException {
+        long version = latestCommittedVersion(fileIO,rootPath,layout);
+        return version < 0 ? null : lookup(fileIO,rootPath,layout,version);
+    }
+
+    public int size() {
+        return locations.length;
+    }
+
+    public long maxVersion(long defaultValue) {
+        return locations.length == 0 ? defaultValue : versions[versions.length-1];
+    }
+
+    public long getMinRetainedVersion() {
+        return minRetainedVersion;
+    }
+
+    /**
+     * @return null if the version is not in the index.
+     */
+    public VersionLocation get(long version) {
+        if(locations.length == 0){
+            return null;
+        }
+        // Versions are dense unless an index write failed, so the offset usually hits directly.
+        long offset = version-versions[0];
+        if(offset >= 0 && offset < versions.length && versions[(int)offset] == version){
+            return locations[(int)offset];
+        }
+        int index = Arrays.binarySearch(versions,version);
+        return index >= 0 ? locations[index] : null;
+    }
+
+    /**
+     * The latest version such that it and every version before it were committed at or before timestamp.
+     * With skewed client clocks this is never a version whose predecessor is "in the future".
+     * Commit timestamps are in storage time, a synchronized local clock is close to it.
+     *
+     * @return null if no indexed version qualifies.
+     */
+    public VersionLocation asOf(long timestamp) {
+        int low = 0;
+        int high = asOfTimestamps.length;
+        while (low < high) {
+            int mid = (low+high) >>> 1;
+            if(asOfTimestamps[mid] <= timestamp){
+                low = mid+1;
+            }else{
+                high = mid;
+            }
+        }
+        return low == 0 ? null : locations[low-1];
+    }
+
+    public List<VersionLocation> list() {
+        return Arrays.asList(locations.clone());
+    }
+}
@@ -0,0 +1,101 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.FileIO;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+
+/**
+ * Reads any retained version of a table, by version number or by timestamp.
+ * <p>
+ * The {@link TimeTravelIndex} is loaded once (and again on {@link #refresh()}), after that a point-in-time read
+ * is an in-memory lookup plus the read of the commit file.
+ * A version that is newer than the loaded index, or missing from it, is looked up with one read of its index log record,
+ * and if that does not exist either, of its COMMIT-HINT.
+ * <p>
+ * Not thread safe.
+ */
+public class TimeTravelReader {
+    private final FileIO fileIO;
+    private final URI rootPath;
+    private TableLayout layout;
+    private TimeTravelIndex index;
+
+    public TimeTravelReader(FileIO fileIO, URI rootPath) {
+        this.fileIO = fileIO;
+        this.rootPath = rootPath;
+    }
+
+    public void refresh() throws IOException {
+        layout = TableLayout.load(fileIO,rootPath);
+        index = TimeTravelIndex.load(fileIO,rootPath,layout);
+    }
+
+    private TimeTravelIndex index() throws IOException {
+        if(index == null){
+            refresh();
+        }
+        return index;
+    }
+
+    /**
+     * @return null if the version was never committed or is no longer retained.
+     */
+    public VersionLocation getLocation(long version) throws IOException {
+        TimeTravelIndex current = index();
+        if(version < current.getMinRetainedVersion()){
+            return null;
+        }
+        VersionLocation location = current.get(version);
+        if(location != null){
+            return location;
+        }
+        return TimeTravelIndex.lookup(fileIO,rootPath,layout,version);
+    }
+
+    /**
+     * The version a reader would have seen at timestamp, see {@link TimeTravelIndex#asOf(long)}.
+     * Only indexed versions are considered, call refresh() first to include the latest commits.
+     *
+     * @return null if the table had no retained version at that time.
+     */
+    public VersionLocation getLocationAsOf(long timestamp) throws IOException {
+        return index().asOf(timestamp);
+    }
+
+    /**
+     * Retained versions of the loaded index, oldest first.
+     */
+    public List<VersionLocation> listVersions() throws IOException {
+        return index().list();
+    }
+
+    /**
+     * @return null if the version was never committed or is no longer retained.
+     */
+    public String readVersion(long version) throws IOException {
+        return read(getLocation(version));
+    }
+
+    /**
+     * @return null if the table had no retained version at that time.
+     */
+    public String readAsOf(long timestamp) throws IOException {
+        return read(getLocationAsOf(timestamp));
+    }
+
+    private String read(VersionLocation location) throws IOException {
+        if(location == null){
+            return null;
+        }
+        try{
+            return fileIO.read(location.getCommitFile(rootPath,layout));
+        }catch (FileNotFoundException | NoSuchFileException e){
+            // Cleaned after the index was loaded.
+            return null;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package demo.fscatalog.process;
+
+import demo.fscatalog.io.entity.FileListing;
+
+/**
+ * Versions of a tracker, sub-tracker or archive listing, parsed once and kept in sorted primitive arrays.
+ * <p>
+ * File names look like "12.txt" (tracker, sub-tracker) or "12.txt@1700000000000" (archive, with an expiry timestamp).
+ * They are parsed char by char straight from the listing, without split, regex or boxing.
+ * Entries that do not start with a digit are ignored.
+ * <p>
+ * max/min are O(1), "older than N" and range lookups are a binary search.
+ */
+public final class VersionIndex {
+    public static final long NO_EXPIRE_TIMESTAMP = -1L;
+    private static final char EXPIRE_SEPARATOR = '@';
+
+    private final FileListing source;
+    // Sorted by version, then by expire timestamp.
+    private final long[] versions;
+    private final long[] expireTimestamps;
+    // Index of the entry in source.
+    private final int[] entries;
+    private final int size;
+
+    private VersionIndex(FileListing source, long[] versions, long[] expireTimestamps, int[] entries, int size) {
+        this.source = source;
+        this.versions = versions;
+        this.expireTimestamps = expireTimestamps;
+        this.entries = entries;
+        this.size = size;
+    }
+
+    public static VersionIndex fromListing(FileListing listing) {
+        int count = listing.size();
+        long[] versions = new long[count];
+        long[] expireTimestamps = new long[count];
+        int[] entries = new int[count];
+        int size = 0;
+        boolean sorted = true;
+        for (int i = 0; i < count; i++) {
+            int length = listing.nameLength(i);
+            long version = 0;
+            int position = 0;
+            while(position < length){
+                char c = listing.nameCharAt(i, position);
+                if(c < '0' || c > '9'){
+                    break;
+                }
+                version = version * 10 + (c - '0');
+                position++;
+            }
+            if(position == 0){
+                continue;
+            }
+            long expireTimestamp = NO_EXPIRE_TIMESTAMP;
+            while(position < length && listing.nameCharAt(i, position) != EXPIRE_SEPARATOR){
+                position++;
+            }
+            if(position < length){
+                long value = 0;
+                int digits = 0;
+                for (position++; position < length; position++) {
+                    char c = listing.nameCharAt(i, position);
+                    if(c < '0' || c > '9'){
+                        break;
+                    }
+                    value = value * 10 + (c - '0');
+                    digits++;
+                }
+                if(digits > 0){
+                    expireTimestamp = value;
+                }
+            }
+            if(size > 0 && compare(versions[size - 1], expireTimestamps[size - 1], version, expireTimestamp) > 0){
+                sorted = false;
+            }
+            versions[size] = version;
+            expireTimestamps[size] = expireTimestamp;
+            entries[size] = i;
+            size++;
+        }
+        if(!sorted){
+            sort(versions, expireTimestamps, entries, 0, size - 1);
+        }
+        return new VersionIndex(listing, versions, expireTimestamps, entries, size);
+    }
+
+    /**
+     * Parse the leading version of a file name such as "12.txt" or "12.txt@1700000000000".
+     *
+     * @return -1 if the name does not start with a digit.
+     */
+    public static long parseVersion(CharSequence name) {
+        long version = 0;
+        int position = 0;
+        while(position < name.length()){
+            char c = name.charAt(position);
+            if(c < '0' || c > '9'){
+                break;
+            }
+            version = version * 10 + (c - '0');
+            position++;
+        }
+        return position == 0 ? -1 : version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long maxVersion(long defaultValue) {
+        return size == 0 ? defaultValue : versions[size - 1];
+    }
+
+    public long minVersion(long defaultValue) {
+        return size == 0 ? defaultValue : versions[0];
+    }
+
+    public long getVersion(int index) {
+        checkIndex(index);
+        return versions[index];
+    }
+
+    /**
+     * @return {@link #NO_EXPIRE_TIMESTAMP} if the file name has no "@timestamp" part.
+     */
+    public long getExpireTimestamp(int index) {
+        checkIndex(index);
+        return expireTimestamps[index];
+    }
+
+    public String getFileName(int index) {
+        checkIndex(index);
+        return source.getFileName(entries[index]);
+    }
+
+    public long getLastModified(int index) {
+        checkIndex(index);
+        return source.getLastModified(entries[index]);
+    }
+
+    /**
+     * @return the index of the first entry with a version >= version, size() if there is none.
+     */
+    public int lowerBound(long version) {
+        int low = 0;
+        int high = size;
+        while(low < high){
+            int mid = (low + high) >>> 1;
+            if(versions[mid] < version){
+                low = mid + 1;
+            }else{
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first entry of this version, -1 if there is none.
+     */
+    public int indexOf(long version) {
+        int index = lowerBound(version);
+        return index < size && versions[index] == version ? index : -1;
+    }
+
+    public boolean contains(long version) {
+        return indexOf(version) >= 0;
+    }
+
+    /**
+     * Entries [0, countOlderThan(version)) are the ones with a version < version.
+     */
+    public int countOlderThan(long version) {
+        return lowerBound(version);
+    }
+
+    /**
+     * Number of entries with fromInclusive <= version < toExclusive, they start at lowerBound(fromInclusive).
+     */
+    public int countInRange(long fromInclusive, long toExclusive) {
+        if(toExclusive <= fromInclusive){
+            return 0;
+        }
+        return lowerBound(toExclusive) - lowerBound(fromInclusive);
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= size){
+            throw new IndexOutOfBoundsException("index " + index + " size " + size);
+        }
+    }
+
+    private static int compare(long version1, long expire1, long version2, long expire2) {
+        int result = Long.compare(version1, version2);
+        return result != 0 ? result : Long.compare(expire1, expire2);
+    }
+
+    private static void sort(long[] versions, long[] expires, int[] entries, int low, int high) {
+        while(high - low > 16){
+            int mid = (low + high) >>> 1;
+            long pivotVersion = versions[mid];
+            long pivotExpire = expires[mid];
+            int i = low;
+            int j = high;
+            while(i <= j){
+                while(compare(versions[i], expires[i], pivotVersion, pivotExpire) < 0){
+                    i++;
+                }
+                while(compare(versions[j], expires[j], pivotVersion, pivotExpire) > 0){
+                    j--;
+                }
+                if(i <= j){
+                    swap(versions, expires, entries, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller half, loop on the bigger one.
+            if(j - low < high - i){
+                sort(versions, expires, entries, low, j);
+                low = i;
+            }else{
+                sort(versions, expires, entries, i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && compare(versions[j - 1], expires[j - 1], versions[j], expires[j]) > 0; j--) {
+                swap(versions, expires, entries, j - 1, j);
+            }
+        }
+    }
+
+    private static void swap(long[] versions, long[] expires, int[] entries, int i, int j) {
+        long version = versions[i];
+        versions[i] = versions[j];
+        versions[j] = version;
+        long expire = expires[i];
+        expires[i] = expires[j];
+        expires[j] = expire;
+        int entry = entries[i];
+        entries[i] = entries[j];
+        entries[j] = entry;
+    }
+}
@@ -0,0 +1,73 @@
+package demo.fscatalog.process;
+
+import java.net.URI;
+
+/**
+ * Where the commit of a version lives: &lt;commit dir of version&gt;/&lt;subVersion&gt;/&lt;commitFileName&gt;, and when it was committed.
+ */
+public final class VersionLocation {
+    public static final long UNKNOWN_TIMESTAMP = -1L;
+    private static final char FIELD_SEPARATOR = ',';
+
+    private final long version;
+    private final long subVersion;
+    private final String commitFileName;
+    private final long commitTimestamp;
+
+    public VersionLocation(long version, long subVersion, String commitFileName, long commitTimestamp) {
+        this.version = version;
+        this.subVersion = subVersion;
+        this.commitFileName = commitFileName;
+        this.commitTimestamp = commitTimestamp;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getSubVersion() {
+        return subVersion;
+    }
+
+    public String getCommitFileName() {
+        return commitFileName;
+    }
+
+    /**
+     * Storage time when the COMMIT-HINT was written: the committing client's estimate of the storage clock,
+     * or the modification time of the commit files if another client repaired the hint.
+     * {@link #UNKNOWN_TIMESTAMP} if the location was derived from the hint file alone.
+     */
+    public long getCommitTimestamp() {
+        return commitTimestamp;
+    }
+
+    public URI getCommitFile(URI rootPath, TableLayout layout) {
+        return layout.commitDir(rootPath,version).resolve(subVersion+"/"+commitFileName);
+    }
+
+    /**
+     * "version,subVersion,commitFileName,commitTimestamp", commit file names never contain ',' or ';'.
+     */
+    String toRecord() {
+        return version+""+FIELD_SEPARATOR+subVersion+FIELD_SEPARATOR+commitFileName+FIELD_SEPARATOR+commitTimestamp;
+    }
+
+    static VersionLocation fromRecord(String record) {
+        String[] fields = record.trim().split(String.valueOf(FIELD_SEPARATOR));
+        if(fields.length != 4){
+            throw new IllegalArgumentException("invalid version index record: "+record);
+        }
+        return new VersionLocation(Long.parseLong(fields[0]),Long.parseLong(fields[1]),fields[2],Long.parseLong(fields[3]));
+    }
+
+    @Override
+    public String toString() {
+        return "VersionLocation{" +
+                "version=" + version +
+                ", subVersion=" + subVersion +
+                ", commitFileName='" + commitFileName + '\'' +
+                ", commitTimestamp=" + commitTimestamp +
+                '}';
+    }
+}